@@ -0,0 +1,84 @@
+package com.karim.shopapi.engine;
+
+import com.karim.shopapi.config.CatalogueEngineProperties;
+import com.karim.shopapi.fixtures.CatalogueFixtures;
+import com.karim.shopapi.fixtures.InMemoryShopUnitRepository;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарки движка каталога в памяти: чтение поддерева, выборка sales по индексу часов и изменение цены
+ * товара. Показывают, как время запросов зависит от размера каталога.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogueEngineBenchmark {
+
+    @Param({"4", "6"})
+    int depth;
+
+    @Param({"4", "6"})
+    int width;
+
+    @Param({"10"})
+    int offersPerCategory;
+
+    private CatalogueFixtures fixtures;
+
+    private CatalogueEngine engine;
+
+    private ShopUnitImportRequest priceChange;
+
+    private long price;
+
+    // Промежуток sales за сутки до даты обновления, как у SalesWindow.
+    private final String salesFrom = "2022-02-01T11:59:59";
+
+    private final String salesTo = "2022-02-02T12:00:01";
+
+    @Setup
+    public void setUp() {
+        fixtures = new CatalogueFixtures(depth, width, offersPerCategory);
+        var properties = new CatalogueEngineProperties();
+        properties.setMode(CatalogueEngineProperties.Mode.MEMORY);
+        engine = new CatalogueEngine(InMemoryShopUnitRepository.create(fixtures.shopUnits()), properties);
+        engine.start();
+        var offer = fixtures.deepestOffer();
+        price = offer.getPrice();
+        priceChange = new ShopUnitImportRequest();
+        priceChange.setItems(List.of(CatalogueFixtures.toImport(offer)));
+        priceChange.setUpdateDate(CatalogueFixtures.UPDATE_DATE);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        engine.stop();
+    }
+
+    @Benchmark
+    public ShopUnit getShopUnitById() {
+        return engine.getShopUnitById(fixtures.root().getId());
+    }
+
+    @Benchmark
+    public List<ShopUnit> findAllByDateBetween() {
+        return engine.findAllByDateBetween(salesFrom, salesTo);
+    }
+
+    /**
+     * Меняет цену товара последнего уровня, поэтому обновляются агрегаты всех его предков.
+     */
+    @Benchmark
+    public void importPriceChange() {
+        priceChange.getItems().get(0).setPrice(++price);
+        engine.importShopUnit(priceChange);
+    }
+}
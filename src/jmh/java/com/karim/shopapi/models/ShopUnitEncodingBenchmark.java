@@ -0,0 +1,119 @@
+package com.karim.shopapi.models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.karim.shopapi.fixtures.CatalogueFixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Сравнивает кодирование дерева категории в JSON, JSON + gzip и CBOR: время записи и чтения.
+ * Размер ответа encode бенчмарки отдают JMH счетчиком payloadBytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShopUnitEncodingBenchmark {
+
+    @Param({"3", "5"})
+    int depth;
+
+    @Param({"4", "8"})
+    int width;
+
+    private final ObjectMapper jsonMapper = new ObjectMapper()
+            .registerModule(new SimpleModule().addSerializer(ShopUnit.class, new ShopUnitSerializer()));
+
+    private final ObjectMapper cborMapper = new CBORMapper()
+            .registerModule(new SimpleModule().addSerializer(ShopUnit.class, new ShopUnitSerializer()));
+
+    private ShopUnit root;
+
+    private byte[] json;
+
+    private byte[] gzipJson;
+
+    private byte[] cbor;
+
+    /**
+     * Размер закодированного ответа, который JMH выводит рядом со временем encode бенчмарков.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+        public long payloadBytes;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        root = new CatalogueFixtures(depth, width, 5).root();
+        json = json();
+        gzipJson = gzipJson();
+        cbor = cbor();
+    }
+
+    @Benchmark
+    public byte[] encodeJson(Payload payload) throws IOException {
+        return measured(json(), payload);
+    }
+
+    @Benchmark
+    public byte[] encodeGzipJson(Payload payload) throws IOException {
+        return measured(gzipJson(), payload);
+    }
+
+    @Benchmark
+    public byte[] encodeCbor(Payload payload) throws IOException {
+        return measured(cbor(), payload);
+    }
+
+    @Benchmark
+    public JsonNode decodeJson() throws IOException {
+        return jsonMapper.readTree(json);
+    }
+
+    @Benchmark
+    public JsonNode decodeGzipJson() throws IOException {
+        try (var gzip = new GZIPInputStream(new ByteArrayInputStream(gzipJson))) {
+            return jsonMapper.readTree(gzip);
+        }
+    }
+
+    @Benchmark
+    public JsonNode decodeCbor() throws IOException {
+        return cborMapper.readTree(cbor);
+    }
+
+    private byte[] json() throws IOException {
+        return jsonMapper.writeValueAsBytes(root);
+    }
+
+    private byte[] gzipJson() throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(bytes)) {
+            jsonMapper.writeValue(gzip, root);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] cbor() throws IOException {
+        return cborMapper.writeValueAsBytes(root);
+    }
+
+    private static byte[] measured(byte[] bytes, Payload payload) {
+        // Счетчик EVENTS JMH снимает в конце итерации, поэтому хранится размер, а не сумма.
+        payload.payloadBytes = bytes.length;
+        return bytes;
+    }
+}
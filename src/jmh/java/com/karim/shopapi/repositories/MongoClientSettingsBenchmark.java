@@ -0,0 +1,95 @@
+package com.karim.shopapi.repositories;
+
+import com.karim.shopapi.fixtures.CatalogueFixtures;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк пропускной способности Mongo при разных размерах пула, write concern и предпочтении чтения.
+ * В отличие от остальных бенчмарков, нужен запущенный Mongo, адрес задается свойством benchmark.mongo.uri
+ * (по умолчанию mongodb://localhost:27017). Предпочтение чтения имеет смысл сравнивать только на наборе реплик.
+ * Бенчмарк пишет в отдельную бд shop-benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(32)
+@Fork(1)
+public class MongoClientSettingsBenchmark {
+
+    private static final String DATABASE = "shop-benchmark";
+
+    @Param({"10", "100"})
+    int maxPoolSize;
+
+    @Param({"w1", "majority"})
+    String writeConcern;
+
+    @Param({"primary", "secondaryPreferred"})
+    String readPreference;
+
+    private MongoClient client;
+
+    private MongoTemplate template;
+
+    private List<String> ids;
+
+    @Setup
+    public void setUp() {
+        var uri = System.getProperty("benchmark.mongo.uri", "mongodb://localhost:27017");
+        client = MongoClients.create(MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(uri))
+                .applyToConnectionPoolSettings(pool -> pool.maxSize(maxPoolSize))
+                .writeConcern(WriteConcern.valueOf(writeConcern))
+                .readPreference(ReadPreference.valueOf(readPreference))
+                .build());
+        template = new MongoTemplate(client, DATABASE);
+        template.dropCollection(ShopUnit.class);
+        var fixtures = new CatalogueFixtures(3, 10, 10);
+        template.insertAll(fixtures.shopUnits());
+        ids = new ArrayList<>();
+        for (var shopUnit : fixtures.shopUnits()) {
+            ids.add(shopUnit.getId());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        template.getDb().drop();
+        client.close();
+    }
+
+    @Benchmark
+    public ShopUnit findById() {
+        var id = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+        return template.findById(id, ShopUnit.class);
+    }
+
+    @Benchmark
+    public ShopUnit insertOffer() {
+        var offer = new ShopUnit();
+        offer.setId(UUID.randomUUID().toString());
+        offer.setName("benchmark offer");
+        offer.setDate(CatalogueFixtures.UPDATE_DATE);
+        offer.setType(ShopUnitType.OFFER);
+        offer.setPrice(100L);
+        offer.setChildren(null);
+        return template.insert(offer);
+    }
+}
@@ -0,0 +1,155 @@
+package com.karim.shopapi.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.karim.shopapi.fixtures.CatalogueFixtures;
+import com.karim.shopapi.fixtures.InMemoryShopUnitRepository;
+import com.karim.shopapi.models.Sales;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitImport;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+import com.karim.shopapi.models.ShopUnitSerializer;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарки горячих путей ShopUnitService в режиме MONGO поверх репозитория в памяти.
+ * Размер каталога задается глубиной и шириной дерева категорий и кол-вом товаров в категории.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShopUnitServiceBenchmark {
+
+    @Param({"2", "4", "6"})
+    int depth;
+
+    @Param({"2", "4"})
+    int width;
+
+    @Param({"1", "10"})
+    int offersPerCategory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new SimpleModule().addSerializer(ShopUnit.class, new ShopUnitSerializer()));
+
+    private final ModelMapper modelMapper = new ModelMapper();
+
+    private CatalogueFixtures fixtures;
+
+    private ShopUnitRepository repository;
+
+    private ShopUnitService shopUnitService;
+
+    private ShopUnitImportRequest importRequest;
+
+    private ShopUnitLookup emptyLookup;
+
+    private List<List<Integer>> graph;
+
+    private ShopUnitImport importItem;
+
+    @Setup
+    public void setUp() {
+        fixtures = new CatalogueFixtures(depth, width, offersPerCategory);
+        repository = InMemoryShopUnitRepository.create(fixtures.shopUnits());
+        shopUnitService = new ShopUnitService(repository);
+        importRequest = fixtures.importRequest();
+        // Все родители есть в самом запросе, поэтому проверка не обращается к бд.
+        emptyLookup = ShopUnitLookup.of(InMemoryShopUnitRepository.create(List.of()));
+        graph = graph(importRequest);
+        importItem = CatalogueFixtures.toImport(fixtures.deepestOffer());
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        shopUnitService.stop();
+    }
+
+    @Benchmark
+    public List<Integer> validateImport() {
+        return ShopUnitImportValidator.validateImport(importRequest, emptyLookup);
+    }
+
+    @Benchmark
+    public List<Integer> topSort() {
+        boolean[] used = new boolean[graph.size()];
+        List<Integer> topSortOrder = new ArrayList<>();
+        for (int i = 0; i < graph.size(); ++i) {
+            ShopUnitImportValidator.topSort(i, graph, used, topSortOrder);
+        }
+        return topSortOrder;
+    }
+
+    /**
+     * Проталкивает цену от категории последнего уровня до корня и обратно, чтобы каталог не менялся
+     * между вызовами.
+     */
+    @Benchmark
+    public ShopUnit pushItemPrice() {
+        var parent = repository.findShopUnitById(fixtures.deepestCategory().getId()).orElseThrow();
+        shopUnitService.pushItemPrice(100, 1, CatalogueFixtures.UPDATE_DATE, parent, false);
+        shopUnitService.pushItemPrice(-100, -1, CatalogueFixtures.UPDATE_DATE, parent, false);
+        return parent;
+    }
+
+    @Benchmark
+    public ShopUnit getShopUnitById() {
+        return shopUnitService.getShopUnitById(fixtures.root().getId());
+    }
+
+    @Benchmark
+    public Sales getSales() {
+        return shopUnitService.getSales(CatalogueFixtures.UPDATE_DATE);
+    }
+
+    /**
+     * Сериализация дерева категории. Заменяет проход convertEmptyChildrenListToNull, который теперь
+     * выполняет сам сериализатор.
+     */
+    @Benchmark
+    public void serializeTree() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), fixtures.root());
+    }
+
+    @Benchmark
+    public boolean isValidUUID() {
+        return ShopUnitImportValidator.isValidUUID(importItem.getId());
+    }
+
+    @Benchmark
+    public ShopUnit modelMapperMap() {
+        return modelMapper.map(importItem, ShopUnit.class);
+    }
+
+    /**
+     * Строит граф родитель -> ребенок по индексам элементов запроса, как validateImport.
+     */
+    private static List<List<Integer>> graph(ShopUnitImportRequest request) {
+        Map<String, Integer> idToIndex = new HashMap<>();
+        List<List<Integer>> graph = new ArrayList<>();
+        for (int i = 0; i < request.getItems().size(); ++i) {
+            idToIndex.put(request.getItems().get(i).getId(), i);
+            graph.add(new ArrayList<>());
+        }
+        for (int i = 0; i < request.getItems().size(); ++i) {
+            var parentId = request.getItems().get(i).getParentId();
+            if (parentId != null) {
+                graph.get(idToIndex.get(parentId)).add(i);
+            }
+        }
+        return graph;
+    }
+}
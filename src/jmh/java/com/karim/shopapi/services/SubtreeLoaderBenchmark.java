@@ -0,0 +1,56 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ReadProperties;
+import com.karim.shopapi.fixtures.CatalogueFixtures;
+import com.karim.shopapi.fixtures.InMemoryShopUnitRepository;
+import com.karim.shopapi.models.ShopUnit;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк загрузки поддерева по уровням на широком и неглубоком каталоге. Задержка репозитория имитирует
+ * запрос к бд, поэтому видно, сколько дает параллельное чтение частей уровня.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubtreeLoaderBenchmark {
+
+    @Param({"30", "100"})
+    int width;
+
+    @Param({"0", "500"})
+    long latencyMicros;
+
+    // 1000000 - уровень всегда читается одним запросом.
+    @Param({"500", "1000000"})
+    int partitionSize;
+
+    private CatalogueFixtures fixtures;
+
+    private SubtreeLoader loader;
+
+    @Setup
+    public void setUp() {
+        fixtures = new CatalogueFixtures(3, width, 1);
+        var properties = new ReadProperties();
+        properties.getSubtree().setEnabled(true);
+        properties.getSubtree().setPartitionSize(partitionSize);
+        loader = new SubtreeLoader(InMemoryShopUnitRepository.create(fixtures.shopUnits(), latencyMicros),
+                properties);
+    }
+
+    @TearDown
+    public void tearDown() {
+        loader.stop();
+    }
+
+    @Benchmark
+    public ShopUnit load() {
+        return loader.load(fixtures.root().getId()).orElseThrow();
+    }
+}
@@ -0,0 +1,27 @@
+package com.karim.shopapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки асинхронного пересчета агрегатов категорий по потоку изменений.
+ */
+@Data
+@ConfigurationProperties(prefix = "shopapi.aggregates.read-model")
+public class AggregateReadModelProperties {
+    /**
+     * Включает режим, в котором импорт не обновляет агрегаты предков, а их пересчитывает потребитель потока
+     * изменений коллекции товаров. Требует набора реплик Mongo.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Максимальное кол-во категорий, пересчитываемых одной парой запросов.
+     */
+    private int maxBatchSize = 1000;
+
+    /**
+     * Сколько ждать новые изменения, прежде чем пересчитать накопленные категории, мс.
+     */
+    private long maxAwaitMs = 100;
+}
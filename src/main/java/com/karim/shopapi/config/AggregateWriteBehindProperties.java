@@ -0,0 +1,31 @@
+package com.karim.shopapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки отложенной записи агрегатов категорий.
+ */
+@Data
+@ConfigurationProperties(prefix = "shopapi.aggregates.write-behind")
+public class AggregateWriteBehindProperties {
+    /**
+     * Включает буферизацию изменений агрегатов предков в памяти.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Интервал между сбросами буфера в бд, мс.
+     */
+    private long flushIntervalMs = 200;
+
+    /**
+     * Кол-во категорий в буфере, при достижении которого буфер сбрасывается сразу.
+     */
+    private int maxPendingCategories = 1000;
+
+    /**
+     * Путь к журналу, из которого восстанавливаются несброшенные изменения после падения.
+     */
+    private String logPath = "aggregates-write-behind.log";
+}
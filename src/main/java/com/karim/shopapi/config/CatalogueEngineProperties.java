@@ -0,0 +1,60 @@
+package com.karim.shopapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки движка, обслуживающего запросы к каталогу.
+ */
+@Data
+@ConfigurationProperties(prefix = "shopapi.engine")
+public class CatalogueEngineProperties {
+    /**
+     * Режимы работы движка.
+     */
+    public enum Mode {
+        /**
+         * Все запросы обслуживаются бд.
+         */
+        MONGO,
+        /**
+         * Каталог целиком хранится в памяти, бд используется только для асинхронного сохранения изменений.
+         */
+        MEMORY
+    }
+
+    private Mode mode = Mode.MONGO;
+
+    /**
+     * Максимальное кол-во несохраненных в бд пакетов изменений, после которого запись приостанавливается.
+     */
+    private int persistenceQueueCapacity = 10000;
+
+    /**
+     * Сколько изменяющий запрос ждет места в заполненной очереди сохранения, прежде чем получить ответ 503, мс.
+     */
+    private long persistenceQueueTimeoutMs = 30000;
+
+    /**
+     * Максимальная пауза между повторами сохранения пакета после ошибки бд, мс.
+     */
+    private long persistenceRetryMaxBackoffMs = 10000;
+
+    private Snapshot snapshot = new Snapshot();
+
+    /**
+     * Настройки снимков каталога и журнала изменений, по которым каталог восстанавливается без чтения бд.
+     */
+    @Data
+    public static class Snapshot {
+        /**
+         * Каталог для снимка и журнала. Пустое значение отключает снимки.
+         */
+        private String dir = "";
+
+        /**
+         * Интервал между снимками, мс.
+         */
+        private long intervalMs = 300000;
+    }
+}
@@ -0,0 +1,81 @@
+package com.karim.shopapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки обработки import запросов.
+ */
+@Data
+@ConfigurationProperties(prefix = "shopapi.imports")
+public class ImportProperties {
+    /**
+     * Кол-во товаров в одной порции потокового импорта.
+     */
+    private int streamChunkSize = 1000;
+
+    /**
+     * Кол-во товаров, после обработки которых асинхронная задача сохраняет прогресс.
+     */
+    private int jobChunkSize = 1000;
+
+    /**
+     * Интервал проверки очереди асинхронных задач.
+     */
+    private long jobPollIntervalMs = 1000;
+
+    /**
+     * Срок аренды задачи экземпляром сервиса. Задачу с истекшей арендой забирает другой экземпляр, мс.
+     */
+    private long jobLeaseMs = 60000;
+
+    /**
+     * Интервал продления аренды задач, которые обрабатывает экземпляр, мс. Должен быть заметно меньше срока аренды.
+     */
+    private long jobHeartbeatIntervalMs = 10000;
+
+    private Coalescing coalescing = new Coalescing();
+
+    private Dedup dedup = new Dedup();
+
+    /**
+     * Настройки объединения одновременных import запросов в пакеты с общей записью агрегатов предков.
+     */
+    @Data
+    public static class Coalescing {
+        private boolean enabled = false;
+
+        /**
+         * Сколько ждать следующих запросов после первого запроса пакета, мс.
+         */
+        private long windowMs = 5;
+
+        /**
+         * Максимальное кол-во запросов в пакете.
+         */
+        private int maxBatchSize = 64;
+
+        /**
+         * Сколько вызывающий поток ждет применения пакета со своим запросом, мс.
+         */
+        private long resultTimeoutMs = 60000;
+    }
+
+    /**
+     * Настройки пропуска повторно присланных import запросов.
+     */
+    @Data
+    public static class Dedup {
+        private boolean enabled = false;
+
+        /**
+         * Сколько помнить отпечаток примененного запроса, мс.
+         */
+        private long ttlMs = 600000;
+
+        /**
+         * Максимальное кол-во хранимых отпечатков.
+         */
+        private int maxEntries = 100000;
+    }
+}
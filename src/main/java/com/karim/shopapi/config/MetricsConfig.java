@@ -0,0 +1,35 @@
+package com.karim.shopapi.config;
+
+import com.karim.shopapi.metrics.RepositoryCallCounter;
+import com.karim.shopapi.tracing.RepositorySpanInterceptor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+
+/**
+ * Подключает подсчет и трассировку вызовов репозиториев: к прокси каждого репозитория Spring Data добавляются
+ * {@link RepositoryCallCounter} и {@link RepositorySpanInterceptor}.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public static BeanPostProcessor repositoryInstrumentationPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+                    var counter = new RepositoryCallCounter();
+                    factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+                            (proxyFactory, repositoryInformation) -> {
+                                proxyFactory.addAdvice(counter);
+                                proxyFactory.addAdvice(new RepositorySpanInterceptor(
+                                        repositoryInformation.getRepositoryInterface()));
+                            }));
+                }
+                return bean;
+            }
+        };
+    }
+}
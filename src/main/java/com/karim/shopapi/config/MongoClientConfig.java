@@ -0,0 +1,134 @@
+package com.karim.shopapi.config;
+
+import com.karim.shopapi.controllers.ConsistencyTokenFilter;
+import com.karim.shopapi.models.ImportJob;
+import com.karim.shopapi.repositories.ImportWrites;
+import com.karim.shopapi.repositories.ShopUnitReadRepository;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoActionOperation;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.WriteConcernResolver;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Настройки клиента Mongo: пул соединений и таймауты, write concern по типу операции и отдельный шаблон
+ * для запросов чтения с настраиваемым предпочтением чтения и ограничением отставания реплик.
+ */
+@Slf4j
+@Configuration
+public class MongoClientConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoClientTuningCustomizer(MongoClientProperties properties) {
+        var pool = properties.getPool();
+        return builder -> builder
+                .applyToConnectionPoolSettings(settings -> settings
+                        .maxSize(pool.getMaxSize())
+                        .minSize(pool.getMinSize())
+                        .maxWaitTime(pool.getMaxWaitMs(), TimeUnit.MILLISECONDS)
+                        .maxConnectionIdleTime(pool.getMaxConnectionIdleMs(), TimeUnit.MILLISECONDS))
+                .applyToSocketSettings(settings -> settings
+                        .connectTimeout((int) properties.getConnectTimeoutMs(), TimeUnit.MILLISECONDS)
+                        .readTimeout((int) properties.getSocketTimeoutMs(), TimeUnit.MILLISECONDS))
+                .applyToClusterSettings(settings -> settings
+                        .serverSelectionTimeout(properties.getServerSelectionTimeoutMs(), TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Подключает к основному шаблону выбор write concern по тому, кто пишет: записи импортов и пакетные записи
+     * подтверждаются по shopapi.mongo.import-write-concern, записи очереди задач импорта - по
+     * shopapi.mongo.queue-write-concern, остальные - по shopapi.mongo.write-concern. findAndModify шаблон мимо
+     * resolver выполняет со своим write concern, поэтому захват задачи задает write concern очереди сам.
+     */
+    @Bean
+    public static BeanPostProcessor writeConcernResolverPostProcessor(
+            ObjectProvider<MongoClientProperties> properties) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof MongoTemplate template && "mongoTemplate".equals(beanName)) {
+                    template.setWriteConcernResolver(writeConcernResolver(properties.getObject()));
+                }
+                return bean;
+            }
+        };
+    }
+
+    static WriteConcernResolver writeConcernResolver(MongoClientProperties properties) {
+        var single = writeConcern(properties.getWriteConcern());
+        var imports = writeConcern(properties.getImportWriteConcern());
+        var queue = writeConcern(properties.getQueueWriteConcern());
+        return action -> {
+            if (action.getEntityType() == ImportJob.class) {
+                return queue;
+            }
+            return ImportWrites.isActive() || action.getMongoActionOperation() == MongoActionOperation.INSERT_LIST ||
+                    action.getMongoActionOperation() == MongoActionOperation.BULK ? imports : single;
+        };
+    }
+
+    /**
+     * Репозиторий для GET /nodes/{id} и /sales. Если чтение с primary или Mongo не настроен(например,
+     * в тестах с репозиторием в памяти), чтения идут через основной репозиторий.
+     */
+    @Bean
+    public ShopUnitReadRepository shopUnitReadRepository(ShopUnitRepository shopUnitRepository,
+                                                         MongoClientProperties properties,
+                                                         ObjectProvider<MongoClient> mongoClient,
+                                                         ObjectProvider<MongoDatabaseFactory> databaseFactory,
+                                                         ObjectProvider<MongoMappingContext> mappingContext,
+                                                         ObjectProvider<MongoCustomConversions> conversions) {
+        var readPreference = readPreference(properties);
+        var client = mongoClient.getIfAvailable();
+        var factory = databaseFactory.getIfAvailable();
+        if (readPreference.equals(ReadPreference.primary()) || client == null || factory == null) {
+            return new ShopUnitReadRepository(shopUnitRepository);
+        }
+        log.info("GET /nodes and /sales read with {}", readPreference);
+        var readFactory = new ReadPreferenceMongoDatabaseFactory(client, factory.getMongoDatabase().getName(),
+                readPreference);
+        var converter = new MappingMongoConverter(new DefaultDbRefResolver(readFactory),
+                mappingContext.getObject());
+        converter.setCustomConversions(conversions.getObject());
+        converter.setCodecRegistryProvider(readFactory);
+        converter.afterPropertiesSet();
+        return ShopUnitReadRepository.of(shopUnitRepository, new MongoTemplate(readFactory, converter));
+    }
+
+    @Bean
+    public ConsistencyTokenFilter consistencyTokenFilter(MongoClientProperties properties) {
+        return new ConsistencyTokenFilter(properties.getConsistencyTokenTtlMs());
+    }
+
+    static ReadPreference readPreference(MongoClientProperties properties) {
+        if (properties.getMaxStalenessSeconds() > 0 && !"primary".equals(properties.getReadPreference())) {
+            return ReadPreference.valueOf(properties.getReadPreference(), List.of(),
+                    properties.getMaxStalenessSeconds(), TimeUnit.SECONDS);
+        }
+        return ReadPreference.valueOf(properties.getReadPreference());
+    }
+
+    private static WriteConcern writeConcern(String name) {
+        var writeConcern = WriteConcern.valueOf(name);
+        if (writeConcern == null) {
+            throw new IllegalArgumentException("Unknown write concern: " + name);
+        }
+        return writeConcern;
+    }
+}
@@ -0,0 +1,86 @@
+package com.karim.shopapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки клиента Mongo сверх адреса и учетных данных spring.data.mongodb: пул соединений, таймауты,
+ * предпочтение чтения и write concern.
+ */
+@Data
+@ConfigurationProperties(prefix = "shopapi.mongo")
+public class MongoClientProperties {
+
+    private Pool pool = new Pool();
+
+    /**
+     * Таймаут установки соединения, мс.
+     */
+    private long connectTimeoutMs = 2000;
+
+    /**
+     * Таймаут чтения ответа из сокета, мс. 0 - без ограничения.
+     */
+    private long socketTimeoutMs = 30000;
+
+    /**
+     * Сколько ждать подходящий сервер(например, primary при выборах), мс.
+     */
+    private long serverSelectionTimeoutMs = 5000;
+
+    /**
+     * Предпочтение чтения для GET /nodes/{id} и /sales: primary, primaryPreferred, secondary,
+     * secondaryPreferred или nearest. Остальные запросы читают с primary.
+     */
+    private String readPreference = "primary";
+
+    /**
+     * Максимальное отставание реплики, с которой можно читать, секунды. 0 - без ограничения,
+     * иначе не меньше 90(ограничение Mongo).
+     */
+    private long maxStalenessSeconds = 0;
+
+    /**
+     * Сколько после записи клиент с токеном согласованности читает с primary, мс. Должно быть не меньше
+     * max-staleness-seconds, чтобы клиент не прочитал со отставшей реплики данные до своей записи.
+     */
+    private long consistencyTokenTtlMs = 120000;
+
+    /**
+     * Write concern записей вне импортов(удаление, пересчет агрегатов моделью чтения): acknowledged, w1,
+     * majority и т.д. acknowledged оставляет выбор за настройкой сервера.
+     */
+    private String writeConcern = "acknowledged";
+
+    /**
+     * Write concern записей импортов: товаров, агрегатов предков, сохранения движка каталога и сброса
+     * отложенных агрегатов, а также всех пакетных записей(insert списка документов и bulk операции).
+     */
+    private String importWriteConcern = "w1";
+
+    /**
+     * Write concern очереди задач импорта. Захват задачи и ее аренда должны пережить смену primary,
+     * иначе задачу может забрать второй экземпляр.
+     */
+    private String queueWriteConcern = "majority";
+
+    /**
+     * Настройки пула соединений к каждому серверу.
+     */
+    @Data
+    public static class Pool {
+        private int maxSize = 100;
+
+        private int minSize = 0;
+
+        /**
+         * Сколько запрос ждет свободное соединение, когда пул исчерпан, мс.
+         */
+        private long maxWaitMs = 2000;
+
+        /**
+         * Через сколько закрывается неиспользуемое соединение, мс. 0 - никогда.
+         */
+        private long maxConnectionIdleMs = 60000;
+    }
+}
@@ -0,0 +1,29 @@
+package com.karim.shopapi.config;
+
+import com.karim.shopapi.metrics.MongoCommandAccounting;
+import com.karim.shopapi.metrics.QueryAccountingFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Учет команд Mongo по http запросам и лог медленных запросов. Включается свойством
+ * shopapi.query-accounting.enabled=true на время разбора нагрузки, так как каждая команда при этом
+ * кодируется повторно.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "shopapi.query-accounting", name = "enabled", havingValue = "true")
+public class QueryAccountingConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoCommandAccountingCustomizer() {
+        var listener = new MongoCommandAccounting();
+        return builder -> builder.addCommandListener(listener);
+    }
+
+    @Bean
+    public QueryAccountingFilter queryAccountingFilter(QueryAccountingProperties properties) {
+        return new QueryAccountingFilter(properties);
+    }
+}
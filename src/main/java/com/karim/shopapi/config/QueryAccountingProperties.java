@@ -0,0 +1,31 @@
+package com.karim.shopapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки учета команд Mongo, выполненных за http запрос.
+ */
+@Data
+@ConfigurationProperties(prefix = "shopapi.query-accounting")
+public class QueryAccountingProperties {
+    /**
+     * Учет стоит повторного кодирования каждой отправленной команды, поэтому по умолчанию выключен.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Добавлять ли к ответу заголовки X-Mongo-Commands, X-Mongo-Bytes и X-Mongo-Time-Ms. Только для отладки.
+     */
+    private boolean headers = false;
+
+    /**
+     * Запрос дольше этого времени попадает в лог медленных запросов, мс.
+     */
+    private long slowRequestMs = 500;
+
+    /**
+     * Запрос, выполнивший больше команд Mongo, попадает в лог медленных запросов.
+     */
+    private int slowRequestCommands = 100;
+}
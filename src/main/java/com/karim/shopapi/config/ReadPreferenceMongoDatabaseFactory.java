@@ -0,0 +1,25 @@
+package com.karim.shopapi.config;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
+
+/**
+ * Фабрика бд с заданным предпочтением чтения. В отличие от предпочтения чтения самого MongoTemplate,
+ * оно действует и на разрешение ссылок на детей(@Reference), так как они читаются через фабрику.
+ */
+class ReadPreferenceMongoDatabaseFactory extends SimpleMongoClientDatabaseFactory {
+
+    private final ReadPreference readPreference;
+
+    ReadPreferenceMongoDatabaseFactory(MongoClient mongoClient, String databaseName, ReadPreference readPreference) {
+        super(mongoClient, databaseName);
+        this.readPreference = readPreference;
+    }
+
+    @Override
+    protected MongoDatabase doGetMongoDatabase(String dbName) {
+        return super.doGetMongoDatabase(dbName).withReadPreference(readPreference);
+    }
+}
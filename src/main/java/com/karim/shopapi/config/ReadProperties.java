@@ -0,0 +1,54 @@
+package com.karim.shopapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки обработки запросов чтения.
+ */
+@Data
+@ConfigurationProperties(prefix = "shopapi.reads")
+public class ReadProperties {
+
+    private Subtree subtree = new Subtree();
+
+    private Cache cache = new Cache();
+
+    /**
+     * Настройки загрузки поддерева по уровням вместо разрешения ссылок на детей.
+     */
+    @Data
+    public static class Subtree {
+        private boolean enabled = false;
+
+        /**
+         * Кол-во потоков, параллельно читающих части одного уровня.
+         */
+        private int parallelism = 4;
+
+        /**
+         * Максимальное кол-во категорий в одном $in запросе.
+         */
+        private int partitionSize = 500;
+    }
+
+    /**
+     * Настройки кеша поддеревьев GET /nodes/{id}. Кеш сбрасывается по потоку изменений коллекции товаров,
+     * поэтому требует набора реплик Mongo и не используется вместе с отложенной записью агрегатов. Промахи кеша
+     * читаются с primary, даже если остальные чтения идут с реплик.
+     */
+    @Data
+    public static class Cache {
+        private boolean enabled = false;
+
+        /**
+         * Максимальное кол-во закешированных поддеревьев.
+         */
+        private int maxEntries = 10000;
+
+        /**
+         * Время жизни поддерева в кеше, мс. Ограничивает устаревание, если событие изменения потеряно.
+         */
+        private long ttlMs = 60000;
+    }
+}
@@ -0,0 +1,12 @@
+package com.karim.shopapi.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Включает выполнение периодических задач сервиса.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,39 @@
+package com.karim.shopapi.config;
+
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Подготовка коллекции товаров к шардированию по корню дерева(см. docker-compose.sharded.yaml).
+ */
+@Slf4j
+@Configuration
+public class ShardingConfig {
+
+    /**
+     * Заполняет rootId у документов, сохраненных до его появления, и доводит переносы поддеревьев, прерванные
+     * падением. Выполняется до запуска веб-сервера, поэтому запросы уже работают с согласованным ключом.
+     */
+    @Bean
+    public SmartInitializingSingleton rootIdBackfill(ShopUnitRepository shopUnitRepository,
+                                                     ObjectProvider<MongoTemplate> mongoTemplate) {
+        return () -> {
+            if (mongoTemplate.getIfAvailable() == null) {
+                return;
+            }
+            long updated = shopUnitRepository.backfillRootIds();
+            if (updated > 0) {
+                log.info("Filled rootId of {} shop units", updated);
+            }
+            long moved = shopUnitRepository.resumeSubtreeMoves();
+            if (moved > 0) {
+                log.info("Resumed interrupted subtree moves, moved {} shop units", moved);
+            }
+        };
+    }
+}
@@ -0,0 +1,71 @@
+package com.karim.shopapi.config;
+
+import com.karim.shopapi.tracing.InMemorySpanExporter;
+import com.karim.shopapi.tracing.LoggingSpanExporter;
+import com.karim.shopapi.tracing.Tracing;
+import com.karim.shopapi.tracing.TracingFilter;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Трассировка OpenTelemetry: серверный спан на http запрос, спаны этапов сервиса и вызовов репозиториев.
+ * Включается свойством shopapi.tracing.enabled.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "shopapi.tracing", name = "enabled", havingValue = "true")
+public class TracingConfig {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public SpanExporter spanExporter(TracingProperties properties) {
+        return switch (properties.getExporter()) {
+            case LOGGING -> new LoggingSpanExporter();
+            case MEMORY -> new InMemorySpanExporter(properties.getMemoryCapacity());
+        };
+    }
+
+    @Bean
+    public SdkTracerProvider sdkTracerProvider(SpanExporter spanExporter, TracingProperties properties) {
+        // Спаны в памяти должны быть видны сразу после завершения, остальные экспортируются пачками.
+        SpanProcessor processor = spanExporter instanceof InMemorySpanExporter
+                ? SimpleSpanProcessor.create(spanExporter)
+                : BatchSpanProcessor.builder(spanExporter).build();
+        return SdkTracerProvider.builder()
+                .setResource(Resource.getDefault().merge(Resource.create(
+                        Attributes.of(AttributeKey.stringKey("service.name"), "shop-api"))))
+                .setSampler(Sampler.parentBased(Sampler.traceIdRatioBased(properties.getSampleRatio())))
+                .addSpanProcessor(processor)
+                .build();
+    }
+
+    @Bean
+    public OpenTelemetry openTelemetry(SdkTracerProvider sdkTracerProvider) {
+        var openTelemetry = OpenTelemetrySdk.builder()
+                .setTracerProvider(sdkTracerProvider)
+                .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance()))
+                .build();
+        Tracing.install(openTelemetry);
+        return openTelemetry;
+    }
+
+    @Bean
+    public TracingFilter tracingFilter(OpenTelemetry openTelemetry) {
+        // Зависимость от openTelemetry гарантирует, что трассировщик подключен до первого запроса.
+        return new TracingFilter();
+    }
+}
@@ -0,0 +1,40 @@
+package com.karim.shopapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки трассировки OpenTelemetry.
+ */
+@Data
+@ConfigurationProperties(prefix = "shopapi.tracing")
+public class TracingProperties {
+    /**
+     * Встроенные экспортеры спанов. Бин SpanExporter, объявленный в приложении(например, OTLP),
+     * используется вместо встроенного.
+     */
+    public enum Exporter {
+        /**
+         * Спаны пишутся в лог.
+         */
+        LOGGING,
+        /**
+         * Последние спаны хранятся в памяти.
+         */
+        MEMORY
+    }
+
+    private boolean enabled = false;
+
+    private Exporter exporter = Exporter.LOGGING;
+
+    /**
+     * Сколько спанов хранит экспортер MEMORY.
+     */
+    private int memoryCapacity = 10000;
+
+    /**
+     * Доля трасс, которые записываются, от 0 до 1. Решение вызывающего сервиса из traceparent имеет приоритет.
+     */
+    private double sampleRatio = 1.0;
+}
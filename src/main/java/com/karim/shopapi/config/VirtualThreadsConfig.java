@@ -0,0 +1,50 @@
+package com.karim.shopapi.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Обрабатывает запросы Tomcat на виртуальных потоках, чтобы блокирующие запросы к бд не занимали потоки
+ * платформы. Включается свойством shopapi.virtual-threads.enabled и требует JDK 21: на более старых JDK
+ * фабрика виртуальных потоков недоступна, и Tomcat остается на обычном пуле потоков.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "shopapi.virtual-threads", name = "enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        var executor = newVirtualThreadPerTaskExecutor();
+        return protocolHandler -> {
+            if (executor != null) {
+                protocolHandler.setExecutor(executor);
+            }
+        };
+    }
+
+    /**
+     * Создает исполнитель с новым виртуальным потоком на каждую задачу. Метод вызывается через reflection,
+     * так как сервис собирается под Java 17.
+     *
+     * @return исполнитель или null, если JDK не поддерживает виртуальные потоки.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            var executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            log.info("Tomcat requests are handled on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+            log.warn("Virtual threads are not available on Java {}, using the platform thread pool",
+                    Runtime.version().feature());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.karim.shopapi.controllers;
+
+import com.karim.shopapi.repositories.ShopUnitReadRepository;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Сохраняет чтение своих записей при чтении с реплик. Ответ на изменяющий запрос содержит токен
+ * согласованности - время записи. Клиент передает токен в запросах чтения, и пока токен не старше ttl,
+ * эти запросы читают с primary. Клиенты без токена читают по shopapi.mongo.read-preference.
+ */
+public class ConsistencyTokenFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Consistency-Token";
+
+    private final long ttlMs;
+
+    public ConsistencyTokenFilter(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!"GET".equals(request.getMethod())) {
+            // Заголовок выставляется до обработки, так как ответ может быть отправлен внутри нее.
+            response.setHeader(HEADER, Long.toString(System.currentTimeMillis()));
+            filterChain.doFilter(request, response);
+            return;
+        }
+        ShopUnitReadRepository.requirePrimary(isFresh(request.getHeader(HEADER)));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ShopUnitReadRepository.requirePrimary(false);
+        }
+    }
+
+    private boolean isFresh(String token) {
+        if (token == null) {
+            return false;
+        }
+        try {
+            return System.currentTimeMillis() - Long.parseLong(token.trim()) < ttlMs;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.karim.shopapi.controllers;
+
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.services.ReactiveShopUnitService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.ExampleObject;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import lombok.AllArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * REST контроллер неблокирующих запросов чтения. Повторяет запросы чтения {@link ShopUnitController},
+ * но не занимает поток обработки запроса на время обращений к бд.
+ */
+@RestController
+@RequestMapping("/reactive")
+@AllArgsConstructor
+public class ReactiveShopUnitController {
+    private final ReactiveShopUnitService reactiveShopUnitService;
+
+    /**
+     * Получает информацию об элементе по идентификатору.
+     *
+     * @param id Идентификатор в формате UUID.
+     * @return Искомый элемент.
+     */
+    @Operation(summary = "Получить информацию об элементе по id без блокировки", description = "То же, что " +
+            "GET /nodes/{id}. Поддерево читается по уровням неблокирующим драйвером бд.",
+            tags = "Get")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Информация об элементе"),
+            @ApiResponse(responseCode = "400", description = "Невалидная схема документа или входные данные не верны.",
+                    content = {@Content(mediaType = "application/json",
+                            examples = {@ExampleObject(name = "response",
+                                    value = """
+                                            {
+                                               "code": 400,
+                                               "message": "Validation Failed"
+                                             }
+                                            """)
+                            })}),
+            @ApiResponse(responseCode = "404", description = "Категория/товар не найден.",
+                    content = {@Content(mediaType = "application/json",
+                            examples = {@ExampleObject(name = "response",
+                                    value = """
+                                            {
+                                            "code": 404,
+                                            "message": "Item not found"
+                                            }
+                                            """)
+                            })})
+    })
+    @GetMapping("/nodes/{id}")
+    public Mono<ShopUnit> getShopUnitById(@PathVariable String id) {
+        return reactiveShopUnitService.getShopUnitById(id);
+    }
+
+    /**
+     * Получает поток товаров, цена которых была обновлена за последние 24 часа
+     * включительно [now() - 24h, now()] от времени переданном в запросе.
+     *
+     * @param date Время в формате ISO 8601.
+     * @return Поток искомых товаров.
+     */
+    @Operation(summary = "Получить поток обновленных за последние 24 часа элементов.",
+            description = "То же, что GET /sales, но товары отдаются по мере чтения из бд: построчно в формате " +
+                    "NDJSON или JSON массивом.",
+            tags = "Get")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Поток товаров, цена которых была обновлена."),
+            @ApiResponse(responseCode = "400", description = "Невалидная схема документа или входные данные не верны.",
+                    content = {@Content(mediaType = "application/json",
+                            examples = {@ExampleObject(name = "response",
+                                    value = """
+                                            {
+                                               "code": 400,
+                                               "message": "Validation Failed"
+                                             }
+                                            """)
+                            })})
+    })
+    @GetMapping(value = "/sales", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Flux<ShopUnit> getSales(@RequestParam String date) {
+        return reactiveShopUnitService.getSales(date);
+    }
+}
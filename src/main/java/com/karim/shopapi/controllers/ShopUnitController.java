@@ -1,9 +1,13 @@
 package com.karim.shopapi.controllers;
 
+import com.karim.shopapi.models.ImportChunkResult;
+import com.karim.shopapi.models.ImportJob;
 import com.karim.shopapi.models.Sales;
 import com.karim.shopapi.models.ShopUnit;
 import com.karim.shopapi.models.ShopUnitImportRequest;
+import com.karim.shopapi.services.ImportJobService;
 import com.karim.shopapi.services.ShopUnitService;
+import com.karim.shopapi.services.ShopUnitStreamImportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
@@ -11,9 +15,13 @@ import io.swagger.v3.oas.annotations.parameters.RequestBody;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import lombok.AllArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
+import java.io.InputStream;
+import java.util.List;
 
 /**
  * REST контроллер товаров.
@@ -23,6 +31,10 @@ import javax.validation.Valid;
 public class ShopUnitController {
     private final ShopUnitService shopUnitService;
 
+    private final ShopUnitStreamImportService shopUnitStreamImportService;
+
+    private final ImportJobService importJobService;
+
     /**
      * Получает информацию об элементе по идентификатору.
      *
@@ -31,7 +43,8 @@ public class ShopUnitController {
      */
     @Operation(summary = "Получить информацию об элементе по id", description = "Получить информацию об элементе по " +
             "идентификатору. При получении информации о категории также предоставляется информация о её дочерних " +
-            "элементах.",
+            "элементах. С Accept: application/cbor ответ кодируется в CBOR: идентификаторы передаются 16 байтами, " +
+            "а даты - миллисекундами с начала эпохи.",
             tags = "Get")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Информация об элементе",
@@ -90,7 +103,8 @@ public class ShopUnitController {
                                             """)
                             })})
     })
-    @GetMapping("/nodes/{id}")
+    @GetMapping(value = "/nodes/{id}",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
     @ResponseBody
     public ShopUnit getShopUnitById(@PathVariable String id) {
         return shopUnitService.getShopUnitById(id);
@@ -104,10 +118,11 @@ public class ShopUnitController {
      * @return Список искомых товаров.
      */
 
-    @GetMapping("/sales")
+    @GetMapping(value = "/sales", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
     @Operation(summary = "Получить список обновленных за последние 24 часа элементов.",
             description = "Получение списка товаров, цена которых была обновлена за последние 24 часа " +
-                    "включительно [now() - 24h, now()] от времени переданном в запросе. ",
+                    "включительно [now() - 24h, now()] от времени переданном в запросе. Поддерживает ответ в CBOR, " +
+                    "как GET /nodes/{id}.",
             tags = "Get")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Список товаров, цена которых была обновлена.",
@@ -146,14 +161,35 @@ public class ShopUnitController {
 
     /**
      * Импортирует новые товары и/или категории. Товары/категории импортированные повторно обновляют текущие.
+     * В асинхронном режиме запрос ставится в очередь, а в ответе возвращается созданная задача.
      *
      * @param shopUnitImportRequest Новые товары и категории.
+     * @param async                 Обработать запрос асинхронно.
+     * @return Созданная задача в асинхронном режиме, пустой ответ - иначе.
      */
     @Operation(summary = "Импортировать новые товары и/или категории.", description = "Импортирует новые товары " +
-            "и/или категории. Товары/категории импортированные повторно обновляют текущие.",
+            "и/или категории. Товары/категории импортированные повторно обновляют текущие. С параметром " +
+            "async=true запрос ставится в очередь, а его состояние доступно по GET /imports/{jobId}.",
             tags = "Post")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Вставка или обновление прошли успешно."),
+            @ApiResponse(responseCode = "202", description = "Запрос поставлен в очередь.",
+                    content = {@Content(mediaType = "application/json",
+                            examples = {@ExampleObject(name = "response",
+                                    value = """
+                                            {
+                                              "id": "6f1c1a52-4b6e-4d8e-9a4f-1d2b3c4d5e6f",
+                                              "status": "PENDING",
+                                              "itemsTotal": 1,
+                                              "itemsProcessed": 0,
+                                              "itemsPerSecond": 0.0,
+                                              "createdAt": "2022-05-28T21:12:01.000Z",
+                                              "startedAt": null,
+                                              "finishedAt": null,
+                                              "error": null
+                                            }
+                                            """)
+                            })}),
             @ApiResponse(responseCode = "400", description = "Невалидная схема документа или входные данные не верны.",
                     content = {@Content(mediaType = "application/json",
                             examples = {@ExampleObject(name = "response",
@@ -166,7 +202,7 @@ public class ShopUnitController {
                             })})
     })
     @PostMapping("/imports")
-    public void importShopUnit(@Valid @RequestBody(content = @Content(examples = {
+    public ResponseEntity<ImportJob> importShopUnit(@Valid @RequestBody(content = @Content(examples = {
             @ExampleObject(name = "request", value = """
                     {
                       "items": [
@@ -181,8 +217,112 @@ public class ShopUnitController {
                       "updateDate": "2022-05-28T21:12:01.000Z"
                     }
                     """)})) @org.springframework.web.bind.annotation.RequestBody
-                                       ShopUnitImportRequest shopUnitImportRequest) {
+                                                    ShopUnitImportRequest shopUnitImportRequest,
+                                                    @RequestParam(defaultValue = "false") boolean async) {
+        if (async) {
+            return ResponseEntity.accepted().body(importJobService.submit(shopUnitImportRequest));
+        }
         shopUnitService.importShopUnit(shopUnitImportRequest);
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * Получает состояние асинхронной задачи импорта.
+     *
+     * @param jobId Идентификатор задачи.
+     * @return Искомая задача.
+     */
+    @Operation(summary = "Получить состояние задачи импорта", description = "Получить прогресс, скорость " +
+            "обработки и ошибку асинхронной задачи импорта.",
+            tags = "Get")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Состояние задачи",
+                    content = {@Content(mediaType = "application/json",
+                            examples = {@ExampleObject(name = "response",
+                                    value = """
+                                            {
+                                              "id": "6f1c1a52-4b6e-4d8e-9a4f-1d2b3c4d5e6f",
+                                              "status": "RUNNING",
+                                              "itemsTotal": 250000,
+                                              "itemsProcessed": 120000,
+                                              "itemsPerSecond": 15234.7,
+                                              "createdAt": "2022-05-28T21:12:01.000Z",
+                                              "startedAt": "2022-05-28T21:12:01.120Z",
+                                              "finishedAt": null,
+                                              "error": null
+                                            }
+                                            """)
+                            })}),
+            @ApiResponse(responseCode = "404", description = "Задача не найдена.",
+                    content = {@Content(mediaType = "application/json",
+                            examples = {@ExampleObject(name = "response",
+                                    value = """
+                                            {
+                                            "code": 404,
+                                            "message": "Item not found"
+                                            }
+                                            """)
+                            })})
+    })
+    @GetMapping("/imports/{jobId}")
+    public ImportJob getImportJob(@PathVariable String jobId) {
+        return importJobService.getImportJob(jobId);
+    }
+
+    /**
+     * Импортирует товары и/или категории из потока NDJSON или JSON массива порциями.
+     *
+     * @param updateDate Дата обновления всех товаров в формате ISO 8601.
+     * @param body       Поток товаров.
+     * @return Результаты обработки порций.
+     */
+    @Operation(summary = "Потоково импортировать товары и/или категории.", description = "Импортирует товары " +
+            "из потока NDJSON или JSON массива порциями фиксированного размера. Родитель из другой порции должен " +
+            "встретиться в потоке раньше детей. Обработка останавливается на первой порции с ошибкой.",
+            tags = "Post")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Все порции импортированы.",
+                    content = {@Content(mediaType = "application/json",
+                            examples = {@ExampleObject(name = "response",
+                                    value = """
+                                            [
+                                              {
+                                                "chunk": 0,
+                                                "items": 1000,
+                                                "code": 200,
+                                                "message": null
+                                              }
+                                            ]
+                                            """)
+                            })}),
+            @ApiResponse(responseCode = "400", description = "Одна из порций не прошла валидацию, предыдущие " +
+                    "порции импортированы.",
+                    content = {@Content(mediaType = "application/json",
+                            examples = {@ExampleObject(name = "response",
+                                    value = """
+                                            [
+                                              {
+                                                "chunk": 0,
+                                                "items": 1000,
+                                                "code": 200,
+                                                "message": null
+                                              },
+                                              {
+                                                "chunk": 1,
+                                                "items": 1000,
+                                                "code": 400,
+                                                "message": "item is not valid, id = null"
+                                              }
+                                            ]
+                                            """)
+                            })})
+    })
+    @PostMapping(value = "/imports/stream", consumes = {"application/x-ndjson", MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<List<ImportChunkResult>> importShopUnitStream(@RequestParam String updateDate,
+                                                                        InputStream body) {
+        var results = shopUnitStreamImportService.importStream(body, updateDate);
+        boolean failed = results.stream().anyMatch(result -> result.getCode() != 200);
+        return ResponseEntity.status(failed ? 400 : 200).body(results);
     }
 
     /**
@@ -0,0 +1,641 @@
+package com.karim.shopapi.engine;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.karim.shopapi.config.CatalogueEngineProperties;
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.metrics.StageRecorder;
+import com.karim.shopapi.models.*;
+import com.karim.shopapi.repositories.ImportWrites;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import com.karim.shopapi.services.ShopUnitImportValidator;
+import com.karim.shopapi.services.ShopUnitLookup;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Движок, хранящий весь каталог в памяти. Чтения и пересчет агрегатов выполняются над {@link CatalogueTree},
+ * а измененные документы асинхронно сохраняются в бд в порядке изменения. Пакет, который не удалось сохранить,
+ * повторяется с растущей паузой, а следующие ждут его в очереди, пока она не заполнится. Если включены снимки,
+ * каталог при старте восстанавливается из последнего снимка и журнала изменений после него, без чтения бд.
+ * Сегменты журнала до снимка удаляются, только когда все изменения из них сохранены в бд. Если после падения
+ * такие сегменты остались, бд при старте приводится к восстановленному каталогу целиком.
+ */
+@Slf4j
+@Component
+public class CatalogueEngine {
+
+    private static final String SNAPSHOT_FILE = "catalogue.snapshot";
+
+    private static final String IMPORT_RECORD = "I ";
+
+    private static final String DELETE_RECORD = "D ";
+
+    private static final long INITIAL_RETRY_BACKOFF_MS = 100;
+
+    /**
+     * Поддерево, перенесенное импортом в другое дерево.
+     *
+     * @param id        идентификатор корня поддерева
+     * @param oldRootId идентификатор старого корня дерева
+     * @param newRootId идентификатор нового корня дерева
+     */
+    private record Move(String id, String oldRootId, String newRootId) {
+    }
+
+    /**
+     * Сегменты журнала, которые можно удалить после сохранения пакета.
+     *
+     * @param journalSeq номер первого сегмента, изменения из которого не вошли в снимок
+     * @param batch      номер последнего пакета, поставленного в очередь до начала сегмента
+     */
+    private record Truncation(long journalSeq, long batch) {
+    }
+
+    private final ShopUnitRepository shopUnitRepository;
+
+    private final CatalogueEngineProperties properties;
+
+    private final CatalogueTree tree = new CatalogueTree();
+
+    private final SalesIndex salesIndex = new SalesIndex();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ThreadPoolExecutor persistExecutor;
+
+    // Свободные места в очереди сохранения. Место занимается до блокировки на запись, поэтому при заполненной
+    // очереди ждут только изменяющие запросы, а чтения продолжают обслуживаться.
+    private Semaphore persistPermits;
+
+    // Сколько раз подряд не удалось сохранить текущий пакет.
+    private volatile int persistFailures;
+
+    private Counter persistErrors;
+
+    private CatalogueJournal journal;
+
+    // Номер последнего пакета, поставленного в очередь сохранения, меняется под блокировкой на запись.
+    private long queuedBatches;
+
+    // Номер последнего сохраненного пакета. Пакеты сохраняются по порядку, поэтому сохранены и все предыдущие.
+    private volatile long persistedBatches;
+
+    // Снимки, сегменты журнала до которых ждут сохранения пакетов, от старых к новым.
+    private final Deque<Truncation> truncations = new ArrayDeque<>();
+
+    public CatalogueEngine(ShopUnitRepository shopUnitRepository, CatalogueEngineProperties properties) {
+        this.shopUnitRepository = shopUnitRepository;
+        this.properties = properties;
+    }
+
+    public boolean isEnabled() {
+        return properties.getMode() == CatalogueEngineProperties.Mode.MEMORY;
+    }
+
+    /**
+     * Загружает каталог из бд и запускает поток сохранения изменений.
+     */
+    @PostConstruct
+    void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        // Один поток сохраняет пакеты в порядке изменений. Размер очереди ограничивают persistPermits,
+        // а после остановки новые пакеты отклоняются.
+        persistPermits = new Semaphore(properties.getPersistenceQueueCapacity());
+        persistExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "catalogue-persister"), new ThreadPoolExecutor.AbortPolicy());
+        Gauge.builder("shopapi.engine.persist.pending", this::persistBacklog)
+                .description("Кол-во пакетов изменений, еще не сохраненных в бд")
+                .register(Metrics.globalRegistry);
+        persistErrors = Counter.builder("shopapi.engine.persist.errors")
+                .description("Неудачные попытки сохранить пакет изменений в бд")
+                .register(Metrics.globalRegistry);
+        long start = System.nanoTime();
+        if (snapshotsEnabled()) {
+            recoverFromSnapshot();
+        } else {
+            load(shopUnitRepository.findAllWithoutChildren());
+        }
+        log.info("Loaded {} shop units into memory in {} ms", tree.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private boolean snapshotsEnabled() {
+        return !properties.getSnapshot().getDir().isBlank();
+    }
+
+    /**
+     * Загружает последний снимок и применяет журнал изменений после него. Если снимка еще нет, каталог
+     * читается из бд. После восстановления сразу снимается новый снимок, и журнал начинается заново.
+     */
+    private void recoverFromSnapshot() {
+        try {
+            var dir = Path.of(properties.getSnapshot().getDir());
+            Files.createDirectories(dir);
+            journal = new CatalogueJournal(dir);
+            var snapshotPath = dir.resolve(SNAPSHOT_FILE);
+            long fromSeq = 0;
+            boolean notPersisted = false;
+            if (Files.exists(snapshotPath)) {
+                var snapshot = CatalogueSnapshot.read(snapshotPath);
+                load(snapshot.shopUnits());
+                fromSeq = snapshot.journalSeq();
+                notPersisted = journal.hasSegmentsBefore(fromSeq);
+            } else {
+                load(shopUnitRepository.findAllWithoutChildren());
+            }
+            replay(journal.readFrom(fromSeq));
+            if (notPersisted) {
+                // Изменения из сегментов до снимка уже в каталоге, но могли не дойти до бд.
+                log.warn("Catalogue journal before the snapshot was not persisted, resyncing the database");
+                persistPermits.acquireUninterruptibly();
+                write(this::resyncDatabase);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        // Старые сегменты удалятся, когда сохранится пакет, приводящий к каталогу бд.
+        snapshot();
+    }
+
+    /**
+     * Приводит бд к каталогу: удаляет документы, которых нет в каталоге или которые лежат в другом дереве,
+     * и записывает все товары. Ключ шардирования не меняется при сохранении, поэтому документы с другим
+     * rootId записываются заново.
+     *
+     * @return сохранение в бд.
+     */
+    private Runnable resyncDatabase() {
+        List<ShopUnit> documents = new ArrayList<>(tree.size());
+        tree.forEach(index -> documents.add(tree.toDocument(index)));
+        return () -> ImportWrites.run(() -> {
+            Map<String, String> rootIds = new HashMap<>(documents.size());
+            documents.forEach(document -> rootIds.put(document.getId(), document.getRootId()));
+            List<String> staleIds = new ArrayList<>();
+            for (var stored : shopUnitRepository.findAllWithoutChildren()) {
+                if (!rootIds.containsKey(stored.getId()) ||
+                        !Objects.equals(rootIds.get(stored.getId()), stored.getRootId())) {
+                    staleIds.add(stored.getId());
+                }
+            }
+            shopUnitRepository.deleteAllById(staleIds);
+            shopUnitRepository.saveAll(documents);
+        });
+    }
+
+    /**
+     * Повторяет изменения из журнала. Повторное применение импорта идемпотентно, поэтому журнал можно
+     * применять и поверх состояния бд, в которое часть изменений уже успела попасть.
+     *
+     * @param records записи журнала.
+     */
+    private void replay(List<String> records) {
+        for (var record : records) {
+            try {
+                if (record.startsWith(IMPORT_RECORD)) {
+                    var shopUnitImportRequest = objectMapper.readValue(record.substring(IMPORT_RECORD.length()),
+                            ShopUnitImportRequest.class);
+                    // При старте запросов еще нет, поэтому место в очереди ждется без ограничения.
+                    persistPermits.acquireUninterruptibly();
+                    write(() -> applyImport(shopUnitImportRequest));
+                } else if (record.startsWith(DELETE_RECORD)) {
+                    persistPermits.acquireUninterruptibly();
+                    write(() -> applyDelete(record.substring(DELETE_RECORD.length())));
+                }
+            } catch (ApiException | JsonProcessingException ex) {
+                // Последняя запись могла быть дописана не полностью.
+                log.warn("Skipping catalogue journal record: {}", ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Снимает снимок каталога. Сегменты журнала, изменения из которых в него вошли, удаляются, когда
+     * все пакеты, поставленные в очередь до снимка, сохранены в бд.
+     */
+    @Scheduled(fixedDelayString = "${shopapi.engine.snapshot.interval-ms:300000}")
+    public synchronized void snapshot() {
+        if (!isEnabled() || journal == null) {
+            return;
+        }
+        List<ShopUnit> shopUnits = new ArrayList<>(tree.size());
+        long journalSeq;
+        long batch;
+        // Блокировка на чтение не пускает изменения, поэтому новый сегмент журнала начинается ровно со снимка.
+        lock.readLock().lock();
+        try {
+            tree.forEach(index -> shopUnits.add(tree.toShopUnit(index)));
+            journalSeq = journal.rotate();
+            batch = queuedBatches;
+        } finally {
+            lock.readLock().unlock();
+        }
+        try {
+            new CatalogueSnapshot(journalSeq, shopUnits).write(
+                    Path.of(properties.getSnapshot().getDir()).resolve(SNAPSHOT_FILE));
+        } catch (IOException ex) {
+            log.error("Can't write catalogue snapshot", ex);
+            return;
+        }
+        synchronized (truncations) {
+            truncations.addLast(new Truncation(journalSeq, batch));
+        }
+        truncateJournal();
+    }
+
+    /**
+     * Удаляет сегменты журнала до последнего снимка, пакеты которого уже сохранены в бд.
+     */
+    private void truncateJournal() {
+        synchronized (truncations) {
+            long journalSeq = 0;
+            while (!truncations.isEmpty() && truncations.peekFirst().batch() <= persistedBatches) {
+                journalSeq = truncations.pollFirst().journalSeq();
+            }
+            if (journalSeq == 0) {
+                return;
+            }
+            try {
+                journal.deleteBefore(journalSeq);
+            } catch (IOException ex) {
+                log.warn("Can't delete persisted catalogue journal segments", ex);
+            }
+        }
+    }
+
+    /**
+     * Дожидается сохранения всех изменений в бд. Изменения, пришедшие после остановки, отклоняются.
+     */
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (persistExecutor == null) {
+            return;
+        }
+        // Под блокировкой на запись между проверкой в write и постановкой пакета в очередь остановка не вклинится.
+        lock.writeLock().lock();
+        try {
+            persistExecutor.shutdown();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (!persistExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+            // Прерывает повторы сохранения, чтобы остановка не зависла на недоступной бд.
+            int dropped = persistExecutor.shutdownNow().size();
+            log.warn("Not all catalogue changes were persisted before shutdown, {} batches dropped", dropped);
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                log.warn("Can't close catalogue journal", ex);
+            }
+        }
+    }
+
+    /**
+     * Заполняет дерево товарами: сначала создаются вершины, затем связываются с родителями.
+     *
+     * @param shopUnits список товаров.
+     */
+    void load(Collection<ShopUnit> shopUnits) {
+        lock.writeLock().lock();
+        try {
+            for (var shopUnit : shopUnits) {
+                int index = tree.add(shopUnit.getId(), shopUnit.getName(), shopUnit.getType(), shopUnit.getDate());
+                if (shopUnit.getType() == ShopUnitType.OFFER && shopUnit.getPrice() != null) {
+                    tree.setOfferPrice(index, shopUnit.getPrice());
+                }
+            }
+            for (var shopUnit : shopUnits) {
+                if (shopUnit.getParentId() != null && tree.indexOf(shopUnit.getParentId()) != CatalogueTree.NO_INDEX) {
+                    tree.setParent(tree.indexOf(shopUnit.getId()), tree.indexOf(shopUnit.getParentId()));
+                }
+            }
+            // Агрегаты считаются заново, чтобы не зависеть от того, насколько они согласованы в бд.
+            tree.recomputeAggregates();
+            salesIndex.clear();
+            tree.forEach(index -> salesIndex.put(tree.id(index), tree.date(index)));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Получает товар по идентификатору вместе со всем поддеревом.
+     *
+     * @param id идентификатор товара.
+     * @return Искомый товар.
+     */
+    public ShopUnit getShopUnitById(String id) {
+        lock.readLock().lock();
+        try {
+            int index = tree.indexOf(id);
+            if (index == CatalogueTree.NO_INDEX) {
+                throw new ApiException(id);
+            }
+            return tree.toShopUnitTree(index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Проверяет запрос import по текущему состоянию каталога, не применяя его.
+     *
+     * @param shopUnitImportRequest Запрос, содержащий новые или обновленные товары.
+     * @return список индексов элементов из items в порядке top sort.
+     */
+    public List<Integer> validateImport(ShopUnitImportRequest shopUnitImportRequest) {
+        lock.readLock().lock();
+        try {
+            return ShopUnitImportValidator.validateImport(shopUnitImportRequest, treeLookup());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Обновляет или добавляет новые товары.
+     *
+     * @param shopUnitImportRequest Запрос, содержащий новые или обновленные товары.
+     */
+    public void importShopUnit(ShopUnitImportRequest shopUnitImportRequest) {
+        String record;
+        try {
+            record = IMPORT_RECORD + objectMapper.writeValueAsString(shopUnitImportRequest);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        reservePersistSlot();
+        write(() -> {
+            var task = applyImport(shopUnitImportRequest);
+            if (journal != null) {
+                journal.append(record);
+            }
+            return task;
+        });
+    }
+
+    /**
+     * Применяет импорт к дереву.
+     *
+     * @return сохранение измененных документов в бд.
+     */
+    private Runnable applyImport(ShopUnitImportRequest shopUnitImportRequest) {
+        List<Integer> topSortOrderedIndexes;
+        try (var stage = StageRecorder.start("validate")
+                .attribute(StageRecorder.ITEMS, shopUnitImportRequest.getItems().size())) {
+            topSortOrderedIndexes = ShopUnitImportValidator.validateImport(shopUnitImportRequest, treeLookup());
+        }
+        var date = shopUnitImportRequest.getUpdateDate();
+        Set<Integer> touched = new LinkedHashSet<>();
+        List<Move> moves = new ArrayList<>();
+        for (int i : topSortOrderedIndexes) {
+            var item = shopUnitImportRequest.getItems().get(i);
+            int index = tree.indexOf(item.getId());
+            if (index != CatalogueTree.NO_INDEX &&
+                    ShopUnitImportValidator.isUnchanged(item, tree.toShopUnit(index), date)) {
+                continue;
+            }
+            boolean added = index == CatalogueTree.NO_INDEX;
+            if (added) {
+                index = tree.add(item.getId(), item.getName(), item.getType(), date);
+            } else {
+                // Вклад элемента убирается из старых предков, а затем добавляется к новым.
+                int oldParent = tree.parent(index);
+                if (oldParent != CatalogueTree.NO_INDEX) {
+                    tree.pushItemPrice(oldParent, -tree.contributionPrice(index),
+                            -tree.contributionOffersCnt(index), date, touched::add);
+                }
+                tree.setName(index, item.getName());
+                tree.setDate(index, date);
+            }
+            if (item.getType() == ShopUnitType.OFFER) {
+                tree.setOfferPrice(index, item.getPrice());
+            }
+            int newParent = item.getParentId() == null ? CatalogueTree.NO_INDEX : tree.indexOf(item.getParentId());
+            var oldRootId = tree.id(tree.root(index));
+            tree.setParent(index, newParent);
+            var newRootId = tree.id(tree.root(index));
+            if (!oldRootId.equals(newRootId) && !added) {
+                moves.add(new Move(item.getId(), oldRootId, newRootId));
+            }
+            if (newParent != CatalogueTree.NO_INDEX) {
+                tree.pushItemPrice(newParent, tree.contributionPrice(index), tree.contributionOffersCnt(index),
+                        date, touched::add);
+            }
+            touched.add(index);
+        }
+        // Кол-во изменившихся вершин: элементы запроса и их предки.
+        StageRecorder.record("shopapi.import.touched", touched.size());
+        List<ShopUnit> documents = new ArrayList<>(touched.size());
+        for (int index : touched) {
+            salesIndex.put(tree.id(index), tree.date(index));
+            documents.add(tree.toDocument(index));
+        }
+        return () -> ImportWrites.run(() -> {
+            // Ключ шардирования не меняется при сохранении, поэтому поддеревья переносятся до него.
+            moves.forEach(move -> shopUnitRepository.moveSubtreeToRoot(move.id(), move.oldRootId(),
+                    move.newRootId()));
+            shopUnitRepository.saveAll(documents);
+        });
+    }
+
+    /**
+     * Удаляет товар вместе со всем поддеревом.
+     *
+     * @param id идентификатор.
+     */
+    public void deleteShopUnitById(String id) {
+        reservePersistSlot();
+        write(() -> {
+            var task = applyDelete(id);
+            if (journal != null) {
+                journal.append(DELETE_RECORD + id);
+            }
+            return task;
+        });
+    }
+
+    /**
+     * Удаляет товар из дерева.
+     *
+     * @return сохранение изменений в бд.
+     */
+    private Runnable applyDelete(String id) {
+        int index = tree.indexOf(id);
+        if (index == CatalogueTree.NO_INDEX) {
+            throw new ApiException(id);
+        }
+        Set<Integer> touched = new LinkedHashSet<>();
+        int parent = tree.parent(index);
+        if (parent != CatalogueTree.NO_INDEX) {
+            tree.pushItemPrice(parent, -tree.contributionPrice(index), -tree.contributionOffersCnt(index),
+                    null, touched::add);
+        }
+        List<String> removedIds = new ArrayList<>();
+        tree.remove(index, removedIds::add);
+        removedIds.forEach(salesIndex::remove);
+        List<ShopUnit> documents = new ArrayList<>(touched.size());
+        for (int touchedIndex : touched) {
+            // Дата предков не меняется, но меняется их цена, поэтому кеш корзины тоже нужно сбросить.
+            salesIndex.put(tree.id(touchedIndex), tree.date(touchedIndex));
+            documents.add(tree.toDocument(touchedIndex));
+        }
+        return () -> {
+            shopUnitRepository.saveAll(documents);
+            shopUnitRepository.deleteAllById(removedIds);
+        };
+    }
+
+    /**
+     * Получает список товаров, дата обновления которых лежит в заданном промежутке.
+     *
+     * @param from Начало промежутка(не включительно).
+     * @param to   Конец промежутка(не включительно).
+     * @return Список искомых товаров.
+     */
+    public List<ShopUnit> findAllByDateBetween(String from, String to) {
+        lock.readLock().lock();
+        try {
+            return salesIndex.findAllByDateBetween(from, to, id -> tree.toShopUnit(tree.indexOf(id)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ShopUnitLookup treeLookup() {
+        return new ShopUnitLookup() {
+            @Override
+            public boolean existsById(String id) {
+                return tree.indexOf(id) != CatalogueTree.NO_INDEX;
+            }
+
+            @Override
+            public Optional<ShopUnit> findShopUnitById(String id) {
+                int index = tree.indexOf(id);
+                return index == CatalogueTree.NO_INDEX ? Optional.empty() : Optional.of(tree.toShopUnit(index));
+            }
+        };
+    }
+
+    /**
+     * Кол-во пакетов изменений, еще не сохраненных в бд.
+     */
+    public int persistBacklog() {
+        return persistPermits == null ? 0 : properties.getPersistenceQueueCapacity() -
+                persistPermits.availablePermits();
+    }
+
+    /**
+     * Проверяет, что последняя попытка сохранить пакет изменений в бд не завершилась ошибкой.
+     */
+    public boolean isPersisting() {
+        return persistFailures == 0;
+    }
+
+    /**
+     * Занимает место в очереди сохранения, дожидаясь его не дольше persistenceQueueTimeoutMs.
+     */
+    private void reservePersistSlot() {
+        if (persistExecutor.isShutdown()) {
+            throw new ApiException("Catalogue engine is stopped", ErrorType.UNAVAILABLE);
+        }
+        try {
+            if (!persistPermits.tryAcquire(properties.getPersistenceQueueTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new ApiException("Catalogue persistence queue is full", ErrorType.UNAVAILABLE);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApiException("Interrupted while waiting for persistence queue", ErrorType.UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Применяет изменение под блокировкой на запись и ставит его сохранение в очередь. Место в очереди
+     * должно быть занято заранее, если изменение не дошло до очереди, оно освобождается.
+     *
+     * @param change изменение дерева, возвращающее сохранение в бд.
+     */
+    private void write(Supplier<Runnable> change) {
+        boolean queued = false;
+        lock.writeLock().lock();
+        try {
+            if (persistExecutor.isShutdown()) {
+                throw new ApiException("Catalogue engine is stopped", ErrorType.UNAVAILABLE);
+            }
+            var task = change.get();
+            long batch = ++queuedBatches;
+            persistExecutor.execute(() -> {
+                try {
+                    if (persistWithRetry(task)) {
+                        persistedBatches = batch;
+                        if (journal != null) {
+                            truncateJournal();
+                        }
+                    }
+                } finally {
+                    persistPermits.release();
+                }
+            });
+            queued = true;
+        } finally {
+            lock.writeLock().unlock();
+            if (!queued) {
+                persistPermits.release();
+            }
+        }
+    }
+
+    /**
+     * Сохраняет пакет, повторяя попытки с удваивающейся паузой. Следующие пакеты ждут, чтобы порядок
+     * изменений в бд не нарушился, поэтому сохранение идемпотентно.
+     *
+     * @return true, если пакет сохранен, false, если сохранение прервано остановкой.
+     */
+    private boolean persistWithRetry(Runnable task) {
+        long backoffMs = INITIAL_RETRY_BACKOFF_MS;
+        while (true) {
+            try {
+                task.run();
+                persistFailures = 0;
+                return true;
+            } catch (RuntimeException ex) {
+                ++persistFailures;
+                persistErrors.increment();
+                log.warn("Can't persist catalogue changes, attempt {}, retrying in {} ms", persistFailures,
+                        backoffMs, ex);
+            }
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                log.error("Catalogue changes were not persisted before shutdown");
+                return false;
+            }
+            backoffMs = Math.min(backoffMs * 2, properties.getPersistenceRetryMaxBackoffMs());
+        }
+    }
+}
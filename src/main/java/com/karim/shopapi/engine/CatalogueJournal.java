@@ -0,0 +1,152 @@
+package com.karim.shopapi.engine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Журнал изменений каталога, сделанных после последнего снимка. Журнал разбит на сегменты с растущими
+ * номерами: при снятии снимка начинается новый сегмент, а предыдущие удаляются, когда снимок записан
+ * и все изменения из них сохранены в бд. Класс не потокобезопасен, доступ к нему синхронизирует
+ * {@link CatalogueEngine}.
+ */
+class CatalogueJournal {
+
+    private static final String SEGMENT_PREFIX = "journal.";
+
+    private final Path dir;
+
+    private FileChannel channel;
+
+    private BufferedWriter writer;
+
+    private long currentSeq;
+
+    CatalogueJournal(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Сбрасывает на диск и закрывает текущий сегмент и начинает новый.
+     *
+     * @return номер нового сегмента.
+     */
+    long rotate() {
+        try {
+            if (writer != null) {
+                writer.flush();
+                channel.force(false);
+                writer.close();
+            }
+            currentSeq = Math.max(currentSeq, segments().stream().mapToLong(CatalogueJournal::seqOf).max().orElse(0))
+                    + 1;
+            channel = FileChannel.open(segmentPath(currentSeq), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+            syncDirectory(dir);
+            return currentSeq;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Дописывает запись в текущий сегмент.
+     *
+     * @param record запись без перевода строки.
+     */
+    void append(String record) {
+        try {
+            writer.write(record);
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Получает записи всех сегментов, начиная с заданного, в порядке записи.
+     *
+     * @param fromSeq номер первого сегмента.
+     * @return список записей.
+     */
+    List<String> readFrom(long fromSeq) throws IOException {
+        List<String> records = new ArrayList<>();
+        for (var segment : segments()) {
+            if (seqOf(segment) >= fromSeq) {
+                records.addAll(Files.readAllLines(segment, StandardCharsets.UTF_8));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Проверяет, остались ли сегменты до заданного, то есть не все изменения из них сохранены в бд.
+     *
+     * @param seq номер сегмента.
+     * @return true, если такие сегменты есть.
+     */
+    boolean hasSegmentsBefore(long seq) throws IOException {
+        return segments().stream().anyMatch(segment -> seqOf(segment) < seq);
+    }
+
+    /**
+     * Удаляет сегменты, изменения из которых уже вошли в снимок и сохранены в бд.
+     *
+     * @param seq номер первого сегмента, который нужно сохранить.
+     */
+    void deleteBefore(long seq) throws IOException {
+        for (var segment : segments()) {
+            if (seqOf(segment) < seq) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    /**
+     * Сбрасывает на диск запись каталога, чтобы созданные и переименованные в нем файлы пережили падение.
+     *
+     * @param dir каталог.
+     */
+    static void syncDirectory(Path dir) throws IOException {
+        try (var directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (UnsupportedOperationException | AccessDeniedException ex) {
+            // Не на всех платформах каталог можно открыть, там запись каталога сбрасывает сама ФС.
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX) &&
+                            path.getFileName().toString().substring(SEGMENT_PREFIX.length()).matches("\\d+"))
+                    .sorted(Comparator.comparingLong(CatalogueJournal::seqOf))
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(SEGMENT_PREFIX + seq);
+    }
+
+    private static long seqOf(Path segment) {
+        return Long.parseLong(segment.getFileName().toString().substring(SEGMENT_PREFIX.length()));
+    }
+}
@@ -0,0 +1,26 @@
+package com.karim.shopapi.engine;
+
+import lombok.AllArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Показывает в /actuator/health, что изменения каталога в памяти не удается сохранить в бд, и бд отстает от него.
+ */
+@Component
+@AllArgsConstructor
+public class CataloguePersistenceHealthIndicator implements HealthIndicator {
+
+    private final CatalogueEngine catalogueEngine;
+
+    @Override
+    public Health health() {
+        if (!catalogueEngine.isEnabled()) {
+            return Health.up().build();
+        }
+        return (catalogueEngine.isPersisting() ? Health.up() : Health.down())
+                .withDetail("pendingBatches", catalogueEngine.persistBacklog())
+                .build();
+    }
+}
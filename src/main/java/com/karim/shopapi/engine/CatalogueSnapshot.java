@@ -0,0 +1,116 @@
+package com.karim.shopapi.engine;
+
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Компактный бинарный снимок каталога. Снимок хранит только собственные поля товаров:
+ * связи восстанавливаются по parentId, а агрегаты пересчитываются при загрузке.
+ *
+ * @param journalSeq номер первого сегмента журнала, изменения из которого не вошли в снимок
+ * @param shopUnits  товары каталога
+ */
+record CatalogueSnapshot(long journalSeq, List<ShopUnit> shopUnits) {
+
+    private static final int MAGIC = 0x53484f50;
+
+    private static final int VERSION = 1;
+
+    private static final ShopUnitType[] TYPES = ShopUnitType.values();
+
+    /**
+     * Записывает снимок во временный файл и атомарно подменяет им предыдущий. Файл и каталог сбрасываются
+     * на диск, поэтому после возврата журнал до снимка можно удалять.
+     *
+     * @param path путь к снимку.
+     * @throws IOException ошибка записи.
+     */
+    void write(Path path) throws IOException {
+        var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalSeq);
+            out.writeInt(shopUnits.size());
+            for (var shopUnit : shopUnits) {
+                writeString(out, shopUnit.getId());
+                writeString(out, shopUnit.getName());
+                writeString(out, shopUnit.getDate());
+                out.writeByte(shopUnit.getType().ordinal());
+                writeString(out, shopUnit.getParentId());
+                out.writeLong(shopUnit.getType() == ShopUnitType.OFFER ? shopUnit.getPrice() : 0);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        CatalogueJournal.syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Читает снимок, отображая файл в память.
+     *
+     * @param path путь к снимку.
+     * @return снимок.
+     * @throws IOException ошибка чтения или неизвестный формат файла.
+     */
+    static CatalogueSnapshot read(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(String.format("Unknown catalogue snapshot format: %s", path));
+            }
+            long journalSeq = buffer.getLong();
+            int count = buffer.getInt();
+            List<ShopUnit> shopUnits = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                var shopUnit = new ShopUnit();
+                shopUnit.setId(readString(buffer));
+                shopUnit.setName(readString(buffer));
+                shopUnit.setDate(readString(buffer));
+                shopUnit.setType(TYPES[buffer.get()]);
+                shopUnit.setParentId(readString(buffer));
+                long price = buffer.getLong();
+                if (shopUnit.getType() == ShopUnitType.OFFER) {
+                    shopUnit.setPrice(price);
+                }
+                shopUnits.add(shopUnit);
+            }
+            return new CatalogueSnapshot(journalSeq, shopUnits);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
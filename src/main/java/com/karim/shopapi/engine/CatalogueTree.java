@@ -0,0 +1,367 @@
+package com.karim.shopapi.engine;
+
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Компактное дерево каталога в памяти. Поля вершин хранятся в параллельных массивах, дети вершины -
+ * массивом индексов, а идентификатор переводится в индекс через хеш-таблицу.
+ * Класс не потокобезопасен, доступ к нему синхронизирует {@link CatalogueEngine}.
+ */
+class CatalogueTree {
+
+    static final int NO_INDEX = -1;
+
+    private static final int[] NO_CHILDREN = new int[0];
+
+    private static final ShopUnitType[] TYPES = ShopUnitType.values();
+
+    private final Map<String, Integer> idToIndex = new HashMap<>();
+
+    private String[] ids = new String[16];
+
+    private String[] names = new String[16];
+
+    private String[] dates = new String[16];
+
+    private byte[] types = new byte[16];
+
+    private int[] parents = new int[16];
+
+    // Цена товара, для категорий не используется.
+    private long[] prices = new long[16];
+
+    private long[] childrenPriceSums = new long[16];
+
+    private long[] childrenOffersCnts = new long[16];
+
+    private int[][] children = new int[16][];
+
+    private int[] childrenCounts = new int[16];
+
+    // Индексы, освободившиеся после удаления, переиспользуются новыми вершинами.
+    private int[] freeIndexes = new int[16];
+
+    private int freeCount;
+
+    private int capacityUsed;
+
+    int size() {
+        return idToIndex.size();
+    }
+
+    int indexOf(String id) {
+        var index = idToIndex.get(id);
+        return index == null ? NO_INDEX : index;
+    }
+
+    String id(int index) {
+        return ids[index];
+    }
+
+    String date(int index) {
+        return dates[index];
+    }
+
+    ShopUnitType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int parent(int index) {
+        return parents[index];
+    }
+
+    /**
+     * @return индекс корня дерева, в которое входит вершина.
+     */
+    int root(int index) {
+        while (parents[index] != NO_INDEX) {
+            index = parents[index];
+        }
+        return index;
+    }
+
+    /**
+     * Добавляет вершину без родителя.
+     *
+     * @param id   идентификатор
+     * @param name название
+     * @param type тип
+     * @param date дата обновления
+     * @return индекс новой вершины.
+     */
+    int add(String id, String name, ShopUnitType type, String date) {
+        int index;
+        if (freeCount > 0) {
+            index = freeIndexes[--freeCount];
+        } else {
+            if (capacityUsed == ids.length) {
+                grow();
+            }
+            index = capacityUsed++;
+        }
+        ids[index] = id;
+        names[index] = name;
+        dates[index] = date;
+        types[index] = (byte) type.ordinal();
+        parents[index] = NO_INDEX;
+        prices[index] = 0;
+        childrenPriceSums[index] = 0;
+        childrenOffersCnts[index] = 0;
+        children[index] = NO_CHILDREN;
+        childrenCounts[index] = 0;
+        idToIndex.put(id, index);
+        return index;
+    }
+
+    void setName(int index, String name) {
+        names[index] = name;
+    }
+
+    void setDate(int index, String date) {
+        dates[index] = date;
+    }
+
+    void setOfferPrice(int index, long price) {
+        prices[index] = price;
+    }
+
+    /**
+     * Задает агрегаты категории, например, при загрузке из бд.
+     */
+    void setAggregates(int index, long childrenPriceSum, long childrenOffersCnt) {
+        childrenPriceSums[index] = childrenPriceSum;
+        childrenOffersCnts[index] = childrenOffersCnt;
+    }
+
+    /**
+     * Вклад вершины в суммарную стоимость родителя.
+     */
+    long contributionPrice(int index) {
+        return types[index] == ShopUnitType.OFFER.ordinal() ? prices[index] : childrenPriceSums[index];
+    }
+
+    /**
+     * Вклад вершины в кол-во товаров родителя.
+     */
+    long contributionOffersCnt(int index) {
+        return types[index] == ShopUnitType.OFFER.ordinal() ? 1 : childrenOffersCnts[index];
+    }
+
+    /**
+     * Переносит вершину к новому родителю, не меняя агрегатов.
+     *
+     * @param index       индекс вершины
+     * @param parentIndex индекс нового родителя или NO_INDEX
+     */
+    void setParent(int index, int parentIndex) {
+        int oldParent = parents[index];
+        if (oldParent == parentIndex) {
+            return;
+        }
+        if (oldParent != NO_INDEX) {
+            removeChild(oldParent, index);
+        }
+        parents[index] = parentIndex;
+        if (parentIndex != NO_INDEX) {
+            addChild(parentIndex, index);
+        }
+    }
+
+    /**
+     * Проталкивает несогласованность в цене, кол-ве товаров и дату обновления от вершины до корня.
+     *
+     * @param index             вершина, с которой начинается проталкивание
+     * @param price             несогласованность в цене
+     * @param childrenOffersCnt несогласованность в кол-ве товаров
+     * @param date              дата обновления или null, если дата не меняется
+     * @param touched           получает индексы всех измененных вершин
+     */
+    void pushItemPrice(int index, long price, long childrenOffersCnt, String date, IntConsumer touched) {
+        int current = index;
+        while (current != NO_INDEX) {
+            childrenPriceSums[current] += price;
+            childrenOffersCnts[current] += childrenOffersCnt;
+            if (date != null) {
+                dates[current] = date;
+            }
+            touched.accept(current);
+            current = parents[current];
+        }
+    }
+
+    /**
+     * Удаляет вершину вместе со всем поддеревом. Агрегаты предков не меняются.
+     *
+     * @param index   индекс вершины
+     * @param removed получает идентификаторы удаленных вершин
+     */
+    void remove(int index, Consumer<String> removed) {
+        if (parents[index] != NO_INDEX) {
+            removeChild(parents[index], index);
+        }
+        int[] stack = new int[16];
+        int stackSize = 0;
+        stack[stackSize++] = index;
+        while (stackSize > 0) {
+            int current = stack[--stackSize];
+            for (int i = 0; i < childrenCounts[current]; ++i) {
+                if (stackSize == stack.length) {
+                    stack = Arrays.copyOf(stack, stackSize * 2);
+                }
+                stack[stackSize++] = children[current][i];
+            }
+            removed.accept(ids[current]);
+            idToIndex.remove(ids[current]);
+            ids[current] = null;
+            names[current] = null;
+            dates[current] = null;
+            children[current] = NO_CHILDREN;
+            childrenCounts[current] = 0;
+            if (freeCount == freeIndexes.length) {
+                freeIndexes = Arrays.copyOf(freeIndexes, freeCount * 2);
+            }
+            freeIndexes[freeCount++] = current;
+        }
+    }
+
+    /**
+     * Пересчитывает агрегаты всех категорий по ценам товаров.
+     */
+    void recomputeAggregates() {
+        for (int i = 0; i < capacityUsed; ++i) {
+            if (ids[i] != null) {
+                childrenPriceSums[i] = 0;
+                childrenOffersCnts[i] = 0;
+            }
+        }
+        for (int i = 0; i < capacityUsed; ++i) {
+            if (ids[i] != null && types[i] == ShopUnitType.OFFER.ordinal() && parents[i] != NO_INDEX) {
+                pushItemPrice(parents[i], prices[i], 1, null, index -> {
+                });
+            }
+        }
+    }
+
+    /**
+     * Обходит все вершины дерева.
+     */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < capacityUsed; ++i) {
+            if (ids[i] != null) {
+                action.accept(i);
+            }
+        }
+    }
+
+    /**
+     * Создает товар по вершине без детей. Дети представлены только идентификаторами, как в бд.
+     *
+     * @param index индекс вершины
+     * @return товар.
+     */
+    ShopUnit toDocument(int index) {
+        var shopUnit = toShopUnit(index);
+        shopUnit.setRootId(ids[root(index)]);
+        for (int i = 0; i < childrenCounts[index]; ++i) {
+            var child = new ShopUnit();
+            child.setId(ids[children[index][i]]);
+            shopUnit.getChildren().add(child);
+        }
+        return shopUnit;
+    }
+
+    /**
+     * Создает товар вместе со всем поддеревом. У товаров типа OFFER children равен null.
+     *
+     * @param index индекс корня поддерева
+     * @return товар.
+     */
+    ShopUnit toShopUnitTree(int index) {
+        var root = toShopUnit(index);
+        Deque<ShopUnit> shopUnits = new ArrayDeque<>();
+        Deque<Integer> indexes = new ArrayDeque<>();
+        shopUnits.push(root);
+        indexes.push(index);
+        while (!shopUnits.isEmpty()) {
+            var current = shopUnits.pop();
+            int currentIndex = indexes.pop();
+            if (current.getType() == ShopUnitType.OFFER) {
+                current.setChildren(null);
+                continue;
+            }
+            for (int i = 0; i < childrenCounts[currentIndex]; ++i) {
+                int childIndex = children[currentIndex][i];
+                var child = toShopUnit(childIndex);
+                current.getChildren().add(child);
+                shopUnits.push(child);
+                indexes.push(childIndex);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Создает товар по вершине без детей.
+     *
+     * @param index индекс вершины
+     * @return товар.
+     */
+    ShopUnit toShopUnit(int index) {
+        var shopUnit = new ShopUnit();
+        shopUnit.setId(ids[index]);
+        shopUnit.setName(names[index]);
+        shopUnit.setDate(dates[index]);
+        shopUnit.setType(type(index));
+        if (parents[index] != NO_INDEX) {
+            shopUnit.setParentId(ids[parents[index]]);
+        }
+        if (types[index] == ShopUnitType.OFFER.ordinal()) {
+            shopUnit.setPrice(prices[index]);
+        } else {
+            shopUnit.setChildrenPriceSum(childrenPriceSums[index]);
+            shopUnit.setChildrenOffersCnt(childrenOffersCnts[index]);
+            if (childrenOffersCnts[index] > 0) {
+                shopUnit.setPrice((long) ((double) childrenPriceSums[index] / childrenOffersCnts[index]));
+            }
+        }
+        return shopUnit;
+    }
+
+    private void addChild(int parent, int child) {
+        if (childrenCounts[parent] == children[parent].length) {
+            children[parent] = Arrays.copyOf(children[parent], Math.max(4, childrenCounts[parent] * 2));
+        }
+        children[parent][childrenCounts[parent]++] = child;
+    }
+
+    private void removeChild(int parent, int child) {
+        int[] parentChildren = children[parent];
+        for (int i = 0; i < childrenCounts[parent]; ++i) {
+            if (parentChildren[i] == child) {
+                // Сохраняет порядок остальных детей.
+                System.arraycopy(parentChildren, i + 1, parentChildren, i, childrenCounts[parent] - i - 1);
+                --childrenCounts[parent];
+                return;
+            }
+        }
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        names = Arrays.copyOf(names, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        types = Arrays.copyOf(types, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        childrenPriceSums = Arrays.copyOf(childrenPriceSums, capacity);
+        childrenOffersCnts = Arrays.copyOf(childrenOffersCnts, capacity);
+        children = Arrays.copyOf(children, capacity);
+        childrenCounts = Arrays.copyOf(childrenCounts, capacity);
+    }
+}
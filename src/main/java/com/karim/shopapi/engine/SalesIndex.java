@@ -0,0 +1,136 @@
+package com.karim.shopapi.engine;
+
+import com.karim.shopapi.models.ShopUnit;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Индекс товаров по часу последнего обновления. Запрос за сутки затрагивает не больше 25 корзин:
+ * внутренние корзины окна целиком попадают в ответ и кешируются, а граничные фильтруются по дате.
+ * Изменения индекса синхронизирует {@link CatalogueEngine}, чтения могут идти параллельно.
+ */
+class SalesIndex {
+
+    private static final long SECONDS_IN_HOUR = 3600;
+
+    // Корзина для дат, которые не удалось разобрать. В запросы она не попадает.
+    private static final long UNKNOWN_BUCKET = Long.MIN_VALUE;
+
+    /**
+     * Товары, обновленные в течение одного часа.
+     */
+    private static final class Bucket {
+        private final Set<String> ids = new LinkedHashSet<>();
+
+        // Товары корзины целиком, сбрасывается при любом изменении корзины.
+        private volatile List<ShopUnit> cached;
+    }
+
+    private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+
+    private final Map<String, Long> idToBucket = new HashMap<>();
+
+    /**
+     * Добавляет товар в корзину его даты или переносит в нее. Кеш старой и новой корзины сбрасывается,
+     * так как у товара могли измениться и другие поля.
+     *
+     * @param id   идентификатор товара
+     * @param date дата последнего обновления
+     */
+    void put(String id, String date) {
+        long bucket = bucketOf(date);
+        var oldBucket = idToBucket.put(id, bucket);
+        if (oldBucket != null && oldBucket != bucket) {
+            removeFromBucket(id, oldBucket);
+        }
+        var current = buckets.computeIfAbsent(bucket, key -> new Bucket());
+        current.ids.add(id);
+        current.cached = null;
+    }
+
+    /**
+     * Удаляет товар из индекса.
+     *
+     * @param id идентификатор товара
+     */
+    void remove(String id) {
+        var bucket = idToBucket.remove(id);
+        if (bucket != null) {
+            removeFromBucket(id, bucket);
+        }
+    }
+
+    void clear() {
+        buckets.clear();
+        idToBucket.clear();
+    }
+
+    /**
+     * Получает товары, дата обновления которых лежит в промежутке. Даты сравниваются как строки,
+     * так же как в запросе к бд.
+     *
+     * @param from         Начало промежутка(не включительно).
+     * @param to           Конец промежутка(не включительно).
+     * @param materializer создает товар по идентификатору.
+     * @return Список искомых товаров.
+     */
+    List<ShopUnit> findAllByDateBetween(String from, String to, Function<String, ShopUnit> materializer) {
+        long fromBucket = bucketOf(from);
+        long toBucket = bucketOf(to);
+        List<ShopUnit> items = new ArrayList<>();
+        if (fromBucket == UNKNOWN_BUCKET || toBucket == UNKNOWN_BUCKET || fromBucket > toBucket) {
+            return items;
+        }
+        for (var entry : buckets.subMap(fromBucket, true, toBucket, true).entrySet()) {
+            var bucket = entry.getValue();
+            if (entry.getKey() > fromBucket && entry.getKey() < toBucket) {
+                var cached = bucket.cached;
+                if (cached == null) {
+                    cached = bucket.ids.stream().map(materializer).toList();
+                    bucket.cached = cached;
+                }
+                items.addAll(cached);
+            } else {
+                for (var id : bucket.ids) {
+                    var shopUnit = materializer.apply(id);
+                    if (shopUnit.getDate().compareTo(from) > 0 && shopUnit.getDate().compareTo(to) < 0) {
+                        items.add(shopUnit);
+                    }
+                }
+            }
+        }
+        return items;
+    }
+
+    private void removeFromBucket(String id, long bucketKey) {
+        var bucket = buckets.get(bucketKey);
+        bucket.ids.remove(id);
+        bucket.cached = null;
+        if (bucket.ids.isEmpty()) {
+            buckets.remove(bucketKey);
+        }
+    }
+
+    /**
+     * Вычисляет номер часа с начала эпохи для даты в формате ISO 8601.
+     *
+     * @param date дата
+     * @return номер часа.
+     */
+    static long bucketOf(String date) {
+        if (date == null) {
+            return UNKNOWN_BUCKET;
+        }
+        try {
+            return Math.floorDiv(LocalDateTime.parse(date, DateTimeFormatter.ISO_DATE_TIME)
+                    .toEpochSecond(ZoneOffset.UTC), SECONDS_IN_HOUR);
+        } catch (DateTimeParseException ex) {
+            return UNKNOWN_BUCKET;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.karim.shopapi.metrics;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Слушатель команд Mongo, относящий каждую команду к http запросу, в потоке которого она выполнена.
+ * Синхронный драйвер вызывает слушатель в потоке, выполняющем команду, поэтому команды фоновых потоков
+ * (сохранение движка каталога, сброс буфера агрегатов, параллельная загрузка поддерева) и реактивного драйвера
+ * не учитываются. Ответ драйвер отдает как RawBsonDocument поверх полученного буфера, поэтому его размер
+ * берется без копирования. Отправленную команду драйвер отдает разобранной, и для подсчета байтов она
+ * кодируется повторно: вне запросов слушатель ничего не делает, а сам учет по умолчанию выключен.
+ */
+public class MongoCommandAccounting implements CommandListener {
+
+    private static final ThreadLocal<RequestQueryStats> STATS = new ThreadLocal<>();
+
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    /**
+     * Начинает учет команд текущего потока.
+     *
+     * @return статистика, которая будет заполняться до {@link #stop()}.
+     */
+    static RequestQueryStats start() {
+        var stats = new RequestQueryStats();
+        STATS.set(stats);
+        return stats;
+    }
+
+    /**
+     * Заканчивает учет команд текущего потока.
+     */
+    static void stop() {
+        STATS.remove();
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        var stats = STATS.get();
+        if (stats != null) {
+            stats.commandStarted(QueryShape.of(event.getCommandName(), event.getCommand()), sizeOf(event.getCommand()));
+        }
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        var stats = STATS.get();
+        if (stats != null) {
+            stats.commandFinished(event.getElapsedTime(TimeUnit.NANOSECONDS), sizeOf(event.getResponse()));
+        }
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        var stats = STATS.get();
+        if (stats != null) {
+            stats.commandFinished(event.getElapsedTime(TimeUnit.NANOSECONDS), 0);
+        }
+    }
+
+    private static long sizeOf(BsonDocument document) {
+        if (document == null) {
+            return 0;
+        }
+        if (document instanceof RawBsonDocument raw) {
+            return raw.getByteBuffer().remaining();
+        }
+        return new RawBsonDocument(document, CODEC).getByteBuffer().remaining();
+    }
+}
@@ -0,0 +1,105 @@
+package com.karim.shopapi.metrics;
+
+import com.karim.shopapi.config.QueryAccountingProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Учитывает команды Mongo каждого http запроса. Итог запроса пишется в лог на уровне debug, а запросы,
+ * превысившие порог по времени или кол-ву команд, - на уровне warn вместе с самыми частыми формами команд.
+ * Если включены отладочные заголовки, итог добавляется к ответу.
+ */
+@Slf4j
+public class QueryAccountingFilter extends OncePerRequestFilter {
+
+    private final QueryAccountingProperties properties;
+
+    public QueryAccountingFilter(QueryAccountingProperties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        var stats = MongoCommandAccounting.start();
+        long start = System.nanoTime();
+        var headersResponse = properties.isHeaders() ? new StatsHeadersResponse(response, stats) : null;
+        try {
+            filterChain.doFilter(request, headersResponse == null ? response : headersResponse);
+        } finally {
+            MongoCommandAccounting.stop();
+            if (headersResponse != null) {
+                // Ответ без тела(например, DELETE) еще не отправлен.
+                headersResponse.writeHeaders();
+            }
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            if (elapsedMs >= properties.getSlowRequestMs() || stats.commands() >= properties.getSlowRequestCommands()) {
+                log.warn("Slow request {} {}: {} ms, {}, top command shapes: {}", request.getMethod(),
+                        request.getRequestURI(), elapsedMs, stats, stats.topShapes());
+            } else if (log.isDebugEnabled()) {
+                log.debug("Request {} {}: {} ms, {}", request.getMethod(), request.getRequestURI(), elapsedMs,
+                        stats);
+            }
+        }
+    }
+
+    /**
+     * Добавляет заголовки с итогом непосредственно перед отправкой тела, когда команды запроса уже выполнены.
+     */
+    private static class StatsHeadersResponse extends HttpServletResponseWrapper {
+
+        private final RequestQueryStats stats;
+
+        StatsHeadersResponse(HttpServletResponse response, RequestQueryStats stats) {
+            super(response);
+            this.stats = stats;
+        }
+
+        void writeHeaders() {
+            if (!isCommitted()) {
+                setHeader("X-Mongo-Commands", Integer.toString(stats.commands()));
+                setHeader("X-Mongo-Bytes", Long.toString(stats.bytes()));
+                setHeader("X-Mongo-Time-Ms", Long.toString(stats.millis()));
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            writeHeaders();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            writeHeaders();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            writeHeaders();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            writeHeaders();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            writeHeaders();
+            super.sendError(sc, msg);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.karim.shopapi.metrics;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.util.List;
+
+/**
+ * Форма команды Mongo: название команды, коллекция и структура фильтра без значений, например,
+ * {@code find shopUnit filter={"_id": ?}}. Команды с одной формой отличаются только значениями, поэтому
+ * повторяющаяся форма в одном запросе указывает на N+1.
+ */
+final class QueryShape {
+
+    /**
+     * Поля команды, описывающие, что именно ищется или меняется.
+     */
+    private static final List<String> SHAPE_FIELDS = List.of("filter", "sort", "pipeline", "updates", "deletes");
+
+    private QueryShape() {
+    }
+
+    /**
+     * @param commandName название команды
+     * @param command     команда
+     * @return форма команды.
+     */
+    static String of(String commandName, BsonDocument command) {
+        var shape = new StringBuilder(commandName);
+        var collection = command.get(commandName);
+        if (collection != null && collection.isString()) {
+            shape.append(' ').append(collection.asString().getValue());
+        }
+        for (var field : SHAPE_FIELDS) {
+            var value = command.get(field);
+            if (value != null) {
+                shape.append(' ').append(field).append('=');
+                appendShape(value, shape);
+            }
+        }
+        return shape.toString();
+    }
+
+    private static void appendShape(BsonValue value, StringBuilder shape) {
+        if (value.isDocument()) {
+            shape.append('{');
+            boolean first = true;
+            for (var entry : value.asDocument().entrySet()) {
+                if (!first) {
+                    shape.append(", ");
+                }
+                first = false;
+                shape.append('"').append(entry.getKey()).append("\": ");
+                appendShape(entry.getValue(), shape);
+            }
+            shape.append('}');
+        } else if (value.isArray()) {
+            appendArrayShape(value.asArray(), shape);
+        } else {
+            shape.append('?');
+        }
+    }
+
+    /**
+     * У массивов записывается только форма первого элемента: $in по сотне идентификаторов и по одному
+     * идентификатору дают одну форму.
+     */
+    private static void appendArrayShape(BsonArray array, StringBuilder shape) {
+        shape.append('[');
+        if (!array.isEmpty()) {
+            var first = array.get(0);
+            if (first.isDocument() && isStatement(first.asDocument())) {
+                appendStatementShape(first.asDocument(), shape);
+            } else {
+                appendShape(first, shape);
+            }
+        }
+        shape.append(']');
+    }
+
+    private static boolean isStatement(BsonDocument document) {
+        return document.containsKey("q");
+    }
+
+    /**
+     * Элементы updates и deletes: фильтр пишется формой, а у изменения - только названия полей.
+     */
+    private static void appendStatementShape(BsonDocument statement, StringBuilder shape) {
+        shape.append("{\"q\": ");
+        appendShape(statement.get("q"), shape);
+        var update = statement.get("u");
+        if (update != null && update.isDocument()) {
+            shape.append(", \"u\": {");
+            boolean first = true;
+            for (var entry : update.asDocument().entrySet()) {
+                if (!first) {
+                    shape.append(", ");
+                }
+                first = false;
+                shape.append('"').append(entry.getKey()).append('"');
+                if (entry.getKey().startsWith("$") && entry.getValue().isDocument()) {
+                    shape.append(": ").append(entry.getValue().asDocument().keySet());
+                }
+            }
+            shape.append('}');
+        }
+        shape.append('}');
+    }
+}
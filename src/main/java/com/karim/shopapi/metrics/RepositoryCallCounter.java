@@ -0,0 +1,70 @@
+package com.karim.shopapi.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Считает вызовы методов репозиториев в потоке текущего http запроса и в задачах, которые запрос передал
+ * в другие потоки через {@link #wrap(Callable)}(части уровня поддерева). Вызовы из фоновых потоков
+ * (сохранение движка каталога, сброс отложенных агрегатов) не считаются.
+ */
+public class RepositoryCallCounter implements MethodInterceptor {
+
+    private static final ThreadLocal<AtomicInteger> CALLS = new ThreadLocal<>();
+
+    /**
+     * Начинает подсчет для текущего потока.
+     */
+    static void start() {
+        CALLS.set(new AtomicInteger());
+    }
+
+    /**
+     * Переносит подсчет текущего потока в задачу, которая выполнится в другом потоке.
+     *
+     * @param task задача
+     * @return задача, вызовы репозиториев которой относятся к текущему запросу.
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        var calls = CALLS.get();
+        if (calls == null) {
+            return task;
+        }
+        return () -> {
+            var previous = CALLS.get();
+            CALLS.set(calls);
+            try {
+                return task.call();
+            } finally {
+                if (previous == null) {
+                    CALLS.remove();
+                } else {
+                    CALLS.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Заканчивает подсчет для текущего потока.
+     *
+     * @return кол-во вызовов с начала подсчета.
+     */
+    static int stop() {
+        var calls = CALLS.get();
+        CALLS.remove();
+        return calls == null ? 0 : calls.get();
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        var calls = CALLS.get();
+        if (calls != null) {
+            calls.incrementAndGet();
+        }
+        return invocation.proceed();
+    }
+}
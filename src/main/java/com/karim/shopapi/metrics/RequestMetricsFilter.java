@@ -0,0 +1,40 @@
+package com.karim.shopapi.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Записывает кол-во вызовов репозиториев за http запрос с тегом шаблона uri, как у http.server.requests.
+ */
+@Component
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    public static final String REPOSITORY_CALLS = "shopapi.repository.calls";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RepositoryCallCounter.start();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            int calls = RepositoryCallCounter.stop();
+            var pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            DistributionSummary.builder(REPOSITORY_CALLS)
+                    .description("Вызовы репозиториев за запрос")
+                    .tag("uri", pattern == null ? "UNKNOWN" : pattern.toString())
+                    .publishPercentileHistogram()
+                    .register(Metrics.globalRegistry)
+                    .record(calls);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.karim.shopapi.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Команды Mongo, выполненные за один http запрос: кол-во, объем отправленных и полученных данных, время
+ * и формы команд. Заполняется из потока запроса, поэтому не синхронизирована.
+ */
+public class RequestQueryStats {
+
+    /**
+     * Сколько самых частых форм команд попадает в лог.
+     */
+    private static final int LOGGED_SHAPES = 10;
+
+    private int commands;
+
+    private long bytesSent;
+
+    private long bytesReceived;
+
+    private long nanos;
+
+    private final Map<String, Integer> shapes = new HashMap<>();
+
+    void commandStarted(String shape, long bytes) {
+        ++commands;
+        bytesSent += bytes;
+        shapes.merge(shape, 1, Integer::sum);
+    }
+
+    void commandFinished(long elapsedNanos, long bytes) {
+        nanos += elapsedNanos;
+        bytesReceived += bytes;
+    }
+
+    public int commands() {
+        return commands;
+    }
+
+    public long bytes() {
+        return bytesSent + bytesReceived;
+    }
+
+    public long millis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * @return самые частые формы команд с кол-вом повторов.
+     */
+    public String topShapes() {
+        return shapes.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .limit(LOGGED_SHAPES)
+                .map(entry -> entry.getValue() + " x " + entry.getKey())
+                .collect(Collectors.joining("; "));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d mongo commands, %d bytes sent, %d bytes received, %d ms in mongo",
+                commands, bytesSent, bytesReceived, millis());
+    }
+}
@@ -0,0 +1,57 @@
+package com.karim.shopapi.metrics;
+
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Scope;
+
+/**
+ * Выполняющийся этап обработки запроса: замер таймера и спан трассировки. Спан этапа текущий до закрытия,
+ * поэтому вложенные этапы и вызовы репозиториев становятся его детьми.
+ */
+public final class Stage implements AutoCloseable {
+
+    private final Timer timer;
+
+    private final Timer.Sample sample;
+
+    private final Span span;
+
+    private final Scope scope;
+
+    Stage(Timer timer, Timer.Sample sample, Span span) {
+        this.timer = timer;
+        this.sample = sample;
+        this.span = span;
+        this.scope = span.makeCurrent();
+    }
+
+    /**
+     * Добавляет атрибут к спану этапа, например, кол-во элементов запроса или глубину дерева.
+     *
+     * @param key   название атрибута
+     * @param value значение
+     * @return этот этап.
+     */
+    public Stage attribute(String key, long value) {
+        span.setAttribute(key, value);
+        return this;
+    }
+
+    /**
+     * Отмечает этап как завершившийся ошибкой.
+     *
+     * @param ex ошибка
+     */
+    public void error(Throwable ex) {
+        span.recordException(ex);
+        span.setStatus(StatusCode.ERROR);
+    }
+
+    @Override
+    public void close() {
+        sample.stop(timer);
+        scope.close();
+        span.end();
+    }
+}
@@ -0,0 +1,95 @@
+package com.karim.shopapi.metrics;
+
+import com.karim.shopapi.tracing.Tracing;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Таймеры этапов обработки запросов и распределения размеров. Метрики пишутся в глобальный реестр Micrometer,
+ * к которому Spring Boot подключает свои реестры, поэтому этапы можно замерять и в статических методах,
+ * и в объектах, созданных без Spring. Без подключенных реестров замеры ничего не стоят.
+ * Этапы могут быть вложены друг в друга, например, propagate выполняется внутри apply.
+ * Каждый этап также становится спаном трассировки с тем же названием.
+ */
+public final class StageRecorder {
+
+    public static final String STAGE_TIMER = "shopapi.stage";
+
+    /**
+     * Атрибут спана: кол-во элементов запроса.
+     */
+    public static final String ITEMS = "shopapi.items";
+
+    /**
+     * Атрибут спана: глубина дерева или кол-во предков.
+     */
+    public static final String DEPTH = "shopapi.tree.depth";
+
+    /**
+     * Атрибут спана: кол-во вершин дерева.
+     */
+    public static final String NODES = "shopapi.tree.nodes";
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+
+    private static final Map<String, DistributionSummary> SUMMARIES = new ConcurrentHashMap<>();
+
+    private StageRecorder() {
+    }
+
+    /**
+     * Выполняет действие и замеряет его время как этап.
+     *
+     * @param stage  название этапа
+     * @param action действие
+     * @return результат действия.
+     */
+    public static <T> T time(String stage, Supplier<T> action) {
+        try (var running = start(stage)) {
+            try {
+                return action.get();
+            } catch (RuntimeException ex) {
+                running.error(ex);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Начинает этап, который неудобно оформить лямбдой или которому нужны атрибуты. Этап нужно закрыть
+     * в том же потоке, обычно с помощью try-with-resources.
+     *
+     * @param stage название этапа
+     * @return начатый этап.
+     */
+    public static Stage start(String stage) {
+        return new Stage(timer(stage), Timer.start(Metrics.globalRegistry),
+                Tracing.tracer().spanBuilder(stage).startSpan());
+    }
+
+    /**
+     * Добавляет значение в распределение, например, кол-во предков, обновленных импортом.
+     *
+     * @param name   название метрики
+     * @param amount значение
+     */
+    public static void record(String name, double amount) {
+        SUMMARIES.computeIfAbsent(name, key -> DistributionSummary.builder(key)
+                        .publishPercentileHistogram()
+                        .register(Metrics.globalRegistry))
+                .record(amount);
+    }
+
+    private static Timer timer(String stage) {
+        return TIMERS.computeIfAbsent(stage, key -> Timer.builder(STAGE_TIMER)
+                .description("Время этапа обработки запроса")
+                .tag("stage", key)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry));
+    }
+}
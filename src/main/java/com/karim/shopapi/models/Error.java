@@ -18,6 +18,9 @@ public class Error {
         if (type == ErrorType.NOTFOUND) {
             code = 404;
             message = "Item not found";
+        } else if (type == ErrorType.UNAVAILABLE) {
+            code = 503;
+            message = "Service Unavailable";
         } else {
             code = 400;
             message = "Validation Failed";
@@ -9,7 +9,8 @@ import org.springframework.http.HttpStatus;
 @Schema
 public enum ErrorType {
     NOTFOUND(HttpStatus.NOT_FOUND),
-    VALIDATION(HttpStatus.BAD_REQUEST);
+    VALIDATION(HttpStatus.BAD_REQUEST),
+    UNAVAILABLE(HttpStatus.SERVICE_UNAVAILABLE);
 
     private final HttpStatus errorStatus;
 
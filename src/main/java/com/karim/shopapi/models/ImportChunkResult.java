@@ -0,0 +1,26 @@
+package com.karim.shopapi.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Результат обработки одной порции потокового импорта.
+ */
+@Data
+@Schema
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportChunkResult {
+    // Порядковый номер порции, начиная с 0.
+    private int chunk;
+
+    // Кол-во товаров в порции.
+    private int items;
+
+    private int code;
+
+    // Причина ошибки, null если порция импортирована.
+    private String message;
+}
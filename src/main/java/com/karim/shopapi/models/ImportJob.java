@@ -0,0 +1,51 @@
+package com.karim.shopapi.models;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Асинхронная задача импорта. Коллекция задач служит очередью: задачи забираются в порядке создания.
+ */
+@Data
+@Document
+@Schema
+public class ImportJob {
+    @Id
+    private String id;
+
+    // Индекс нужен для выборки следующей задачи из очереди.
+    @Indexed
+    private ImportJobStatus status;
+
+    // Тело запроса хранится вместе с задачей, но в ответ не попадает.
+    @JsonIgnore
+    private ShopUnitImportRequest request;
+
+    private int itemsTotal;
+
+    private int itemsProcessed;
+
+    // Скорость обработки в товарах в секунду.
+    private double itemsPerSecond;
+
+    private String createdAt;
+
+    private String startedAt;
+
+    private String finishedAt;
+
+    // Причина ошибки, если задача завершилась со статусом FAILED.
+    private String error;
+
+    // Экземпляр сервиса, обрабатывающий задачу в статусе RUNNING.
+    @JsonIgnore
+    private String owner;
+
+    // До какого момента, в мс от эпохи, задача закреплена за owner. Продлевается, пока экземпляр жив.
+    @JsonIgnore
+    private long leaseExpiresAt;
+}
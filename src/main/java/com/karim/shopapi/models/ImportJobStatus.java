@@ -0,0 +1,14 @@
+package com.karim.shopapi.models;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Состояния асинхронной задачи импорта.
+ */
+@Schema
+public enum ImportJobStatus {
+    PENDING,
+    RUNNING,
+    DONE,
+    FAILED
+}
@@ -5,17 +5,26 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Reference;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Sharded;
 
 import javax.validation.constraints.NotNull;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Единица товара, может быть товаром или категорией.
+ * Единица товара, может быть товаром или категорией. Ключ шардирования начинается с идентификатора
+ * корневой категории, поэтому все дерево хранится на одном шарде. Ключ не меняется при сохранении,
+ * перенос поддерева в другое дерево выполняет {@link
+ * com.karim.shopapi.repositories.ShopUnitAggregateOperations#moveSubtreeToRoot(String, String, String)}.
  */
 @Data
 @Document
+@Sharded(shardKey = {"rootId", "id"}, immutableKey = true)
+@CompoundIndex(name = "rootId_id", def = "{ 'rootId' : 1, '_id' : 1 }")
+@CompoundIndex(name = "rootId_parentId", def = "{ 'rootId' : 1, 'parentId' : 1 }")
 @Schema
 public class ShopUnit {
     @Id
@@ -24,11 +33,19 @@ public class ShopUnit {
     @NotNull
     private String name;
 
+    // Индекс нужен для выборки товаров, обновленных за последние сутки.
     @NotNull
+    @Indexed
     private String date;
 
+    // Индекс нужен для загрузки поддерева по уровням.
+    @Indexed
     private String parentId;
 
+    // Идентификатор корня дерева, в которое входит товар. У корня совпадает с id.
+    @JsonIgnore
+    private String rootId;
+
     @NotNull
     private ShopUnitType type;
 
@@ -42,6 +59,10 @@ public class ShopUnit {
     @JsonIgnore
     private long childrenOffersCnt;
 
+    // Номер последнего сброса буфера агрегатов, примененного к категории. Пишет его только сброс.
+    @JsonIgnore
+    private long aggregatesFlushSeq;
+
     @Reference
     private List<ShopUnit> children = new ArrayList<>();
 }
@@ -0,0 +1,122 @@
+package com.karim.shopapi.models;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.UUID;
+
+/**
+ * Потоковая сериализация дерева товаров. Дерево обходится с явным стеком, поэтому глубина вложенности
+ * не ограничена стеком потока. У товаров типа OFFER children записывается как null без изменения самого товара.
+ * Поля пишутся в том же порядке и с теми же null, что и у сериализации по умолчанию.
+ * В бинарных форматах(CBOR) идентификаторы пишутся 16 байтами, а даты - миллисекундами с начала эпохи.
+ */
+@JsonComponent
+public class ShopUnitSerializer extends StdSerializer<ShopUnit> {
+
+    public ShopUnitSerializer() {
+        super(ShopUnit.class);
+    }
+
+    @Override
+    public void serialize(ShopUnit shopUnit, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        // Итераторы по детям категорий, массивы children которых еще не закрыты.
+        Deque<Iterator<ShopUnit>> stack = new ArrayDeque<>();
+        var children = writeHead(shopUnit, gen);
+        if (children != null) {
+            stack.push(children);
+        }
+        while (!stack.isEmpty()) {
+            var current = stack.peek();
+            if (current.hasNext()) {
+                children = writeHead(current.next(), gen);
+                if (children != null) {
+                    stack.push(children);
+                }
+            } else {
+                stack.pop();
+                gen.writeEndArray();
+                gen.writeEndObject();
+            }
+        }
+    }
+
+    /**
+     * Записывает начало товара вплоть до поля children.
+     *
+     * @param shopUnit товар
+     * @param gen      генератор
+     * @return Итератор по детям, если массив children открыт, или null, если товар записан целиком.
+     * @throws IOException ошибка записи.
+     */
+    private static Iterator<ShopUnit> writeHead(ShopUnit shopUnit, JsonGenerator gen) throws IOException {
+        gen.writeStartObject(shopUnit);
+        writeId("id", shopUnit.getId(), gen);
+        gen.writeStringField("name", shopUnit.getName());
+        writeDate("date", shopUnit.getDate(), gen);
+        writeId("parentId", shopUnit.getParentId(), gen);
+        gen.writeStringField("type", shopUnit.getType() == null ? null : shopUnit.getType().name());
+        if (shopUnit.getPrice() == null) {
+            gen.writeNullField("price");
+        } else {
+            gen.writeNumberField("price", shopUnit.getPrice());
+        }
+        if (shopUnit.getType() == ShopUnitType.OFFER || shopUnit.getChildren() == null) {
+            gen.writeNullField("children");
+            gen.writeEndObject();
+            return null;
+        }
+        gen.writeArrayFieldStart("children");
+        return shopUnit.getChildren().iterator();
+    }
+
+    /**
+     * Записывает идентификатор. В бинарном формате UUID пишется 16 байтами, остальные идентификаторы - строкой.
+     */
+    private static void writeId(String fieldName, String id, JsonGenerator gen) throws IOException {
+        if (id != null && gen.canWriteBinaryNatively()) {
+            try {
+                var uuid = UUID.fromString(id);
+                // Идентификатор в другой записи(например, в верхнем регистре) не восстановить из байтов.
+                if (uuid.toString().equals(id)) {
+                    gen.writeFieldName(fieldName);
+                    gen.writeBinary(ByteBuffer.allocate(16)
+                            .putLong(uuid.getMostSignificantBits())
+                            .putLong(uuid.getLeastSignificantBits())
+                            .array());
+                    return;
+                }
+            } catch (IllegalArgumentException ignored) {
+                // Не UUID, пишется строкой.
+            }
+        }
+        gen.writeStringField(fieldName, id);
+    }
+
+    /**
+     * Записывает дату. В бинарном формате дата с часовым поясом пишется миллисекундами с начала эпохи,
+     * остальные даты - строкой.
+     */
+    private static void writeDate(String fieldName, String date, JsonGenerator gen) throws IOException {
+        if (date != null && gen.canWriteBinaryNatively()) {
+            try {
+                long epochMillis = DateTimeFormatter.ISO_DATE_TIME.parse(date, Instant::from).toEpochMilli();
+                gen.writeNumberField(fieldName, epochMillis);
+                return;
+            } catch (DateTimeException ignored) {
+                // Дата без часового пояса, пишется строкой.
+            }
+        }
+        gen.writeStringField(fieldName, date);
+    }
+}
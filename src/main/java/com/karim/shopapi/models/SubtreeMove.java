@@ -0,0 +1,25 @@
+package com.karim.shopapi.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Отметка незавершенного переноса поддерева в другое дерево. Существует, пока rootId поддерева меняется
+ * по одному документу, поэтому после падения по ней можно найти и довести перенос.
+ */
+@Data
+@Document
+@NoArgsConstructor
+@AllArgsConstructor
+public class SubtreeMove {
+    // Идентификатор корня переносимого поддерева.
+    @Id
+    private String id;
+
+    private String oldRootId;
+
+    private String newRootId;
+}
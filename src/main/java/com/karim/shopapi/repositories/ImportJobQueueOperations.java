@@ -0,0 +1,55 @@
+package com.karim.shopapi.repositories;
+
+import com.karim.shopapi.models.ImportJob;
+import com.karim.shopapi.models.ImportJobStatus;
+
+import java.util.Optional;
+
+/**
+ * Операции очереди задач импорта, меняющие только служебные поля задачи.
+ */
+public interface ImportJobQueueOperations {
+    /**
+     * Атомарно забирает самую старую задачу в статусе PENDING или задачу в статусе RUNNING, аренда которой
+     * истекла, переводит ее в RUNNING и закрепляет за экземпляром сервиса.
+     *
+     * @param owner          идентификатор экземпляра сервиса
+     * @param startedAt      время начала обработки
+     * @param now            текущее время в мс от эпохи
+     * @param leaseExpiresAt до какого момента задача закреплена за экземпляром, мс от эпохи
+     * @return задача или пустой Optional, если очередь пуста.
+     */
+    Optional<ImportJob> claimNextPending(String owner, String startedAt, long now, long leaseExpiresAt);
+
+    /**
+     * Обновляет прогресс задачи и продлевает ее аренду, если задача все еще закреплена за экземпляром.
+     *
+     * @param id             идентификатор задачи
+     * @param owner          идентификатор экземпляра сервиса
+     * @param itemsProcessed кол-во обработанных товаров
+     * @param itemsPerSecond скорость обработки
+     * @param leaseExpiresAt новый срок аренды, мс от эпохи
+     * @return false, если задачу забрал другой экземпляр.
+     */
+    boolean updateProgress(String id, String owner, int itemsProcessed, double itemsPerSecond, long leaseExpiresAt);
+
+    /**
+     * Продлевает аренду всех задач, которые обрабатывает экземпляр.
+     *
+     * @param owner          идентификатор экземпляра сервиса
+     * @param leaseExpiresAt новый срок аренды, мс от эпохи
+     * @return кол-во продленных задач.
+     */
+    long renewLeases(String owner, long leaseExpiresAt);
+
+    /**
+     * Завершает задачу, если она все еще закреплена за экземпляром.
+     *
+     * @param id         идентификатор задачи
+     * @param owner      идентификатор экземпляра сервиса
+     * @param status     итоговый статус
+     * @param finishedAt время завершения
+     * @param error      причина ошибки или null
+     */
+    void finish(String id, String owner, ImportJobStatus status, String finishedAt, String error);
+}
@@ -0,0 +1,105 @@
+package com.karim.shopapi.repositories;
+
+import com.karim.shopapi.models.ImportJob;
+import com.karim.shopapi.models.ImportJobStatus;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Optional;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Реализация операций очереди задач импорта через findOneAndUpdate и field-level $set. Задача закрепляется
+ * за экземпляром сервиса арендой, которую экземпляр продлевает, пока жив.
+ */
+class ImportJobQueueOperationsImpl implements ImportJobQueueOperations {
+
+    private final MongoTemplate mongoTemplate;
+
+    private final WriteConcern queueWriteConcern;
+
+    ImportJobQueueOperationsImpl(MongoTemplate mongoTemplate,
+                                 @Value("${shopapi.mongo.queue-write-concern:majority}") String queueWriteConcern) {
+        this.mongoTemplate = mongoTemplate;
+        this.queueWriteConcern = WriteConcern.valueOf(queueWriteConcern);
+        if (this.queueWriteConcern == null) {
+            throw new IllegalArgumentException("Unknown write concern: " + queueWriteConcern);
+        }
+    }
+
+    @Override
+    public Optional<ImportJob> claimNextPending(String owner, String startedAt, long now, long leaseExpiresAt) {
+        // Задача с истекшей арендой осталась от упавшего экземпляра. Задачи без аренды остались от версии
+        // сервиса, которая ее не записывала.
+        var query = Query.query(new Criteria().orOperator(
+                        where("status").is(ImportJobStatus.PENDING),
+                        where("status").is(ImportJobStatus.RUNNING).and("leaseExpiresAt").lt(now),
+                        where("status").is(ImportJobStatus.RUNNING).and("leaseExpiresAt").exists(false)))
+                .with(Sort.by(Sort.Direction.ASC, "createdAt"));
+        var update = new Update()
+                .set("status", ImportJobStatus.RUNNING)
+                .set("startedAt", startedAt)
+                .set("owner", owner)
+                .set("leaseExpiresAt", leaseExpiresAt)
+                .set("itemsProcessed", 0)
+                .set("itemsPerSecond", 0);
+        // MongoTemplate.findAndModify не спрашивает WriteConcernResolver, поэтому захват задачи, который
+        // должен пережить смену primary, выполняется на коллекции с write concern очереди.
+        var converter = mongoTemplate.getConverter();
+        var entity = converter.getMappingContext().getRequiredPersistentEntity(ImportJob.class);
+        var queryMapper = new QueryMapper(converter);
+        var filter = queryMapper.getMappedObject(query.getQueryObject(), entity);
+        var mappedUpdate = new UpdateMapper(converter).getMappedObject(update.getUpdateObject(), entity);
+        var options = new FindOneAndUpdateOptions()
+                .sort(queryMapper.getMappedSort(query.getSortObject(), entity))
+                .returnDocument(ReturnDocument.AFTER);
+        var claimed = mongoTemplate.execute(ImportJob.class, collection -> collection
+                .withWriteConcern(queueWriteConcern)
+                .findOneAndUpdate(filter, mappedUpdate, options));
+        return Optional.ofNullable(claimed).map(document -> converter.read(ImportJob.class, document));
+    }
+
+    @Override
+    public boolean updateProgress(String id, String owner, int itemsProcessed, double itemsPerSecond,
+                                  long leaseExpiresAt) {
+        var update = new Update()
+                .set("itemsProcessed", itemsProcessed)
+                .set("itemsPerSecond", itemsPerSecond)
+                .set("leaseExpiresAt", leaseExpiresAt);
+        return mongoTemplate.updateFirst(ownedQuery(id, owner), update, ImportJob.class).getMatchedCount() > 0;
+    }
+
+    @Override
+    public long renewLeases(String owner, long leaseExpiresAt) {
+        var query = Query.query(where("status").is(ImportJobStatus.RUNNING).and("owner").is(owner));
+        return mongoTemplate.updateMulti(query, new Update().set("leaseExpiresAt", leaseExpiresAt),
+                ImportJob.class).getModifiedCount();
+    }
+
+    @Override
+    public void finish(String id, String owner, ImportJobStatus status, String finishedAt, String error) {
+        var update = new Update()
+                .set("status", status)
+                .set("finishedAt", finishedAt)
+                .set("error", error);
+        mongoTemplate.updateFirst(ownedQuery(id, owner), update, ImportJob.class);
+    }
+
+    /**
+     * Запрос задачи, которую обрабатывает экземпляр. Если аренда истекла и задачу забрал другой экземпляр,
+     * запрос ничего не находит, и прежний владелец не перезаписывает ее прогресс и статус.
+     */
+    private static Query ownedQuery(String id, String owner) {
+        return Query.query(where("_id").is(id).and("status").is(ImportJobStatus.RUNNING).and("owner").is(owner));
+    }
+}
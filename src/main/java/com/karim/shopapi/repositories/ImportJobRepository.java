@@ -0,0 +1,10 @@
+package com.karim.shopapi.repositories;
+
+import com.karim.shopapi.models.ImportJob;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+/**
+ * Репозиторий асинхронных задач импорта.
+ */
+public interface ImportJobRepository extends MongoRepository<ImportJob, String>, ImportJobQueueOperations {
+}
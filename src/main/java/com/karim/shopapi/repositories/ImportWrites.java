@@ -0,0 +1,39 @@
+package com.karim.shopapi.repositories;
+
+/**
+ * Отмечает записи в бд, которые выполняются при применении import запросов. Такие записи подтверждаются
+ * write concern shopapi.mongo.import-write-concern, остальные - shopapi.mongo.write-concern. Отметка действует
+ * в потоке, выполняющем запись, поэтому ее ставят и фоновые потоки, сохраняющие изменения импортов.
+ */
+public final class ImportWrites {
+
+    private static final ThreadLocal<Boolean> ACTIVE = new ThreadLocal<>();
+
+    private ImportWrites() {
+    }
+
+    /**
+     * Выполняет записи импорта в текущем потоке.
+     *
+     * @param writes записи.
+     */
+    public static void run(Runnable writes) {
+        if (isActive()) {
+            writes.run();
+            return;
+        }
+        ACTIVE.set(Boolean.TRUE);
+        try {
+            writes.run();
+        } finally {
+            ACTIVE.remove();
+        }
+    }
+
+    /**
+     * @return true, если текущий поток выполняет записи импорта.
+     */
+    public static boolean isActive() {
+        return ACTIVE.get() != null;
+    }
+}
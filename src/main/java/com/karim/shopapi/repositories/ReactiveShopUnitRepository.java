@@ -0,0 +1,43 @@
+package com.karim.shopapi.repositories;
+
+import com.karim.shopapi.models.ShopUnit;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+
+/**
+ * Неблокирующий репозиторий для чтения товаров. Списки детей не читаются: поддерево собирается
+ * по parentId, а ссылки на детей реактивный драйвер не разрешает.
+ */
+public interface ReactiveShopUnitRepository extends ReactiveMongoRepository<ShopUnit, String> {
+    /**
+     * Получает товар по идентификатору без списка детей.
+     *
+     * @param id идентификатор в формате uuid.
+     * @return Искомый товар.
+     */
+    @Query(value = "{ '_id' : ?0 }", fields = "{ 'children' : 0 }")
+    Mono<ShopUnit> findWithoutChildrenById(String id);
+
+    /**
+     * Получает детей сразу нескольких категорий без списков их детей.
+     *
+     * @param parentIds идентификаторы категорий.
+     * @return Дети категорий.
+     */
+    @Query(value = "{ 'parentId' : { $in : ?0 } }", fields = "{ 'children' : 0 }")
+    Flux<ShopUnit> findAllByParentIdIn(Collection<String> parentIds);
+
+    /**
+     * Получает товары, обновленные или добавленные в заданном промежутке, без списков детей.
+     *
+     * @param from Начало промежутка(не включительно).
+     * @param to   Конец промежутка(не включительно).
+     * @return Искомые товары.
+     */
+    @Query(value = "{ 'date' : { $gt : ?0, $lt : ?1 } }", fields = "{ 'children' : 0 }")
+    Flux<ShopUnit> findAllByDateBetween(String from, String to);
+}
@@ -0,0 +1,82 @@
+package com.karim.shopapi.repositories;
+
+import com.karim.shopapi.models.ShopUnit;
+
+/**
+ * Точечные операции над агрегатами категорий (суммарная стоимость и кол-во товаров в поддереве)
+ * и над ключом дерева rootId.
+ */
+public interface ShopUnitAggregateOperations {
+    /**
+     * Обновляет только агрегаты категории, цену и дату, не перезаписывая остальной документ.
+     * Список детей и прочие поля в бд не затрагиваются.
+     *
+     * @param shopUnit категория с уже пересчитанными агрегатами.
+     */
+    void updateAggregates(ShopUnit shopUnit);
+
+    /**
+     * Перезаписывает поля товара, кроме агрегатов категории, ее цены и номера сброса отложенных агрегатов.
+     * При отложенной записи агрегаты меняются только сбросом буфера, и сохранение документа целиком
+     * затерло бы параллельно примененное изменение.
+     *
+     * @param shopUnit товар.
+     */
+    void saveWithoutAggregates(ShopUnit shopUnit);
+
+    /**
+     * Прибавляет накопленную несогласованность к агрегатам категории и пересчитывает ее цену одной записью.
+     * Изменение применяется не более одного раза для каждого номера сброса.
+     * С rootId запись уходит на один шард. Если категорию с тех пор перенесли в другое дерево, запись
+     * повторяется только по id.
+     *
+     * @param id                идентификатор категории
+     * @param rootId            корень дерева категории на момент изменения или null, если он неизвестен
+     * @param priceDelta        несогласованность в суммарной стоимости
+     * @param offersCntDelta    несогласованность в кол-ве товаров
+     * @param date              новая дата обновления или null, если дата не меняется
+     * @param flushSeq          номер сброса, которым применяется изменение
+     */
+    void applyAggregateDelta(String id, String rootId, long priceDelta, long offersCntDelta, String date, long flushSeq);
+
+    /**
+     * Прибавляет несогласованность к агрегатам категории и пересчитывает ее цену одной записью.
+     * Как и {@link #applyAggregateDelta}, с rootId запись уходит на один шард.
+     *
+     * @param id             идентификатор категории
+     * @param rootId         корень дерева категории на момент изменения или null, если он неизвестен
+     * @param priceDelta     несогласованность в суммарной стоимости
+     * @param offersCntDelta несогласованность в кол-ве товаров
+     * @param date           новая дата обновления или null, если дата не меняется
+     */
+    void incrementAggregates(String id, String rootId, long priceDelta, long offersCntDelta, String date);
+
+    /**
+     * Переносит товар и все его поддерево в другое дерево, меняя rootId каждого документа отдельной
+     * записью с полным ключом шардирования, как требует Mongo при изменении ключа. На время переноса
+     * сохраняется отметка {@link com.karim.shopapi.models.SubtreeMove}, по которой прерванный перенос
+     * доводит {@link #resumeSubtreeMoves()}. Повторный вызов с теми же аргументами тоже доводит перенос.
+     *
+     * @param id        идентификатор корня переносимого поддерева
+     * @param oldRootId идентификатор корня, в котором поддерево находится сейчас
+     * @param newRootId идентификатор корня, в который поддерево переносится
+     * @return кол-во перенесенных документов.
+     */
+    long moveSubtreeToRoot(String id, String oldRootId, String newRootId);
+
+    /**
+     * Доводит переносы поддеревьев, прерванные падением. Поддерево переносится в дерево родителя, записанного
+     * в документе корня поддерева, поэтому оно оказывается целиком в одном дереве, даже если новый родитель
+     * не успел сохраниться.
+     *
+     * @return кол-во перенесенных документов.
+     */
+    long resumeSubtreeMoves();
+
+    /**
+     * Заполняет rootId у документов, сохраненных до его появления.
+     *
+     * @return кол-во обновленных документов.
+     */
+    long backfillRootIds();
+}
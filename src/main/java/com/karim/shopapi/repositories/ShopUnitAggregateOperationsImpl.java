@@ -0,0 +1,230 @@
+package com.karim.shopapi.repositories;
+
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.models.SubtreeMove;
+import lombok.AllArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.*;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Реализация точечных операций над агрегатами через field-level $set и pipeline update.
+ */
+@AllArgsConstructor
+class ShopUnitAggregateOperationsImpl implements ShopUnitAggregateOperations {
+
+    // Номер последнего примененного сброса отложенных агрегатов, поле ShopUnit.aggregatesFlushSeq.
+    private static final String FLUSH_SEQ_FIELD = "aggregatesFlushSeq";
+
+    // Поля, которые перезаписывает saveWithoutAggregates. Цена категории выводится из агрегатов.
+    private static final List<String> OFFER_FIELDS = List.of("name", "date", "parentId", "rootId", "type", "price",
+            "children");
+
+    private static final List<String> CATEGORY_FIELDS = List.of("name", "date", "parentId", "rootId", "type",
+            "children");
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void updateAggregates(ShopUnit shopUnit) {
+        var update = new Update()
+                .set("childrenPriceSum", shopUnit.getChildrenPriceSum())
+                .set("childrenOffersCnt", shopUnit.getChildrenOffersCnt())
+                .set("price", shopUnit.getPrice())
+                .set("date", shopUnit.getDate());
+        mongoTemplate.updateFirst(idQuery(shopUnit), update, ShopUnit.class);
+    }
+
+    @Override
+    public void saveWithoutAggregates(ShopUnit shopUnit) {
+        // Документ конвертируется так же, как при save, поэтому ссылки на детей пишутся в том же виде.
+        var written = new Document();
+        mongoTemplate.getConverter().write(shopUnit, written);
+        var set = new Document();
+        var unset = new Document();
+        for (var field : shopUnit.getType() == ShopUnitType.CATEGORY ? CATEGORY_FIELDS : OFFER_FIELDS) {
+            if (written.get(field) != null) {
+                set.append(field, written.get(field));
+            } else {
+                unset.append(field, "");
+            }
+        }
+        var update = new Document("$set", set);
+        if (!unset.isEmpty()) {
+            update.append("$unset", unset);
+        }
+        // Обновление уже сконвертировано, поэтому передается по имени коллекции без повторного маппинга полей.
+        // Запись идет через шаблон, чтобы к ней применялся выбранный write concern.
+        mongoTemplate.updateFirst(new BasicQuery(idQuery(shopUnit).getQueryObject()), Update.fromDocument(update),
+                mongoTemplate.getCollectionName(ShopUnit.class));
+    }
+
+    @Override
+    public long moveSubtreeToRoot(String id, String oldRootId, String newRootId) {
+        // Отметка пишется до первого изменения ключа и удаляется после последнего. Если процесс упадет
+        // посередине, перенос доводит resumeSubtreeMoves.
+        mongoTemplate.save(new SubtreeMove(id, oldRootId, newRootId));
+        long moved = moveLevels(id, List.of(oldRootId, newRootId), newRootId);
+        mongoTemplate.remove(Query.query(where("_id").is(id)), SubtreeMove.class);
+        return moved;
+    }
+
+    @Override
+    public long resumeSubtreeMoves() {
+        long moved = 0;
+        for (var move : mongoTemplate.findAll(SubtreeMove.class)) {
+            // Сохранение нового родителя могло не дойти до бд, поэтому дерево выбирается по родителю,
+            // записанному в документе, а не по отметке.
+            var shopUnit = mongoTemplate.findById(move.getId(), ShopUnit.class);
+            if (shopUnit != null) {
+                var parent = shopUnit.getParentId() == null ? null
+                        : mongoTemplate.findById(shopUnit.getParentId(), ShopUnit.class);
+                var rootId = parent == null ? shopUnit.getId() : parent.getRootId();
+                var rootIds = new LinkedHashSet<>(List.of(move.getOldRootId(), move.getNewRootId(), rootId));
+                moved += moveLevels(move.getId(), rootIds, rootId);
+            }
+            mongoTemplate.remove(Query.query(where("_id").is(move.getId())), SubtreeMove.class);
+        }
+        return moved;
+    }
+
+    /**
+     * Проходит поддерево по уровням и меняет rootId каждого документа, у которого он еще не newRootId.
+     * Дети ищутся по всем деревьям из rootIds, поэтому повторный проход доходит и до уровней, лежащих под
+     * уже перенесенными документами.
+     *
+     * @param rootIds деревья, в которых могут лежать документы поддерева, включая newRootId.
+     */
+    private long moveLevels(String id, Collection<String> rootIds, String newRootId) {
+        long moved = 0;
+        var query = Query.query(where("rootId").in(rootIds).and("_id").is(id));
+        while (true) {
+            query.fields().include("_id").include("rootId");
+            var level = mongoTemplate.find(query, ShopUnit.class);
+            if (level.isEmpty()) {
+                return moved;
+            }
+            for (var shopUnit : level) {
+                if (!newRootId.equals(shopUnit.getRootId())) {
+                    moved += mongoTemplate.updateFirst(Query.query(where("_id").is(shopUnit.getId())
+                                    .and("rootId").is(shopUnit.getRootId())),
+                            new Update().set("rootId", newRootId), ShopUnit.class).getModifiedCount();
+                }
+            }
+            query = Query.query(where("rootId").in(rootIds).and("parentId")
+                    .in(level.stream().map(ShopUnit::getId).toList()));
+        }
+    }
+
+    @Override
+    public long backfillRootIds() {
+        if (!mongoTemplate.exists(Query.query(where("rootId").exists(false)), ShopUnit.class)) {
+            return 0;
+        }
+        var query = new Query();
+        query.fields().include("_id").include("parentId");
+        Map<String, String> parents = new HashMap<>();
+        for (var shopUnit : mongoTemplate.find(query, ShopUnit.class)) {
+            parents.put(shopUnit.getId(), shopUnit.getParentId());
+        }
+        Map<String, List<String>> idsByRoot = new HashMap<>();
+        for (var id : parents.keySet()) {
+            var rootId = id;
+            while (parents.get(rootId) != null) {
+                rootId = parents.get(rootId);
+            }
+            idsByRoot.computeIfAbsent(rootId, key -> new ArrayList<>()).add(id);
+        }
+        // До заполнения rootId коллекцию нельзя шардировать, поэтому документы обновляются пачкой.
+        long updated = 0;
+        for (var entry : idsByRoot.entrySet()) {
+            updated += mongoTemplate.updateMulti(Query.query(where("_id").in(entry.getValue())),
+                    new Update().set("rootId", entry.getKey()), ShopUnit.class).getModifiedCount();
+        }
+        return updated;
+    }
+
+    @Override
+    public void applyAggregateDelta(String id, String rootId, long priceDelta, long offersCntDelta, String date,
+                                    long flushSeq) {
+        var seqGuard = new Criteria().orOperator(
+                where(FLUSH_SEQ_FIELD).lt(flushSeq),
+                where(FLUSH_SEQ_FIELD).exists(false));
+        // Если категория не найдена, она удалена или изменение уже было применено до падения.
+        updateInTree(id, rootId, seqGuard, incrementUpdate(priceDelta, offersCntDelta, date,
+                new Document(FLUSH_SEQ_FIELD, flushSeq)));
+    }
+
+    @Override
+    public void incrementAggregates(String id, String rootId, long priceDelta, long offersCntDelta, String date) {
+        updateInTree(id, rootId, null, incrementUpdate(priceDelta, offersCntDelta, date, new Document()));
+    }
+
+    /**
+     * Обновляет категорию запросом с rootId, который уходит на один шард. Пока изменение ждало записи,
+     * категорию могли перенести в другое дерево, поэтому, если по rootId ничего не нашлось, запись
+     * повторяется запросом по id на все шарды.
+     *
+     * @param guard дополнительное условие или null.
+     */
+    private void updateInTree(String id, String rootId, Criteria guard, AggregationUpdate update) {
+        if (rootId != null && mongoTemplate.updateFirst(guarded(where("_id").is(id).and("rootId").is(rootId), guard),
+                update, ShopUnit.class).getMatchedCount() > 0) {
+            return;
+        }
+        mongoTemplate.updateFirst(guarded(where("_id").is(id), guard), update, ShopUnit.class);
+    }
+
+    private static Query guarded(Criteria criteria, Criteria guard) {
+        return Query.query(guard == null ? criteria : criteria.andOperator(guard));
+    }
+
+    /**
+     * Pipeline update, который прибавляет несогласованность к агрегатам и следующей стадией пересчитывает
+     * по ним цену. Обе стадии выполняются одной записью, поэтому цена не расходится с агрегатами при
+     * параллельных изменениях.
+     *
+     * @param fields дополнительные поля, которые записываются вместе с агрегатами.
+     */
+    private static AggregationUpdate incrementUpdate(long priceDelta, long offersCntDelta, String date,
+                                                     Document fields) {
+        var aggregates = new Document()
+                .append("childrenPriceSum", new Document("$add", List.of("$childrenPriceSum", priceDelta)))
+                .append("childrenOffersCnt", new Document("$add", List.of("$childrenOffersCnt", offersCntDelta)));
+        if (date != null) {
+            // Товар мог быть записан с более поздней датой, пока изменение ждало в буфере.
+            aggregates.append("date", new Document("$max", List.of("$date", new Document("$literal", date))));
+        }
+        aggregates.putAll(fields);
+        // Как и в сервисе, цена - среднее, округленное к нулю, или null, если в категории нет товаров.
+        var price = new Document("price", new Document("$cond", Arrays.asList(
+                new Document("$gt", List.of("$childrenOffersCnt", 0)),
+                new Document("$toLong", new Document("$trunc", new Document("$divide",
+                        List.of("$childrenPriceSum", "$childrenOffersCnt")))),
+                null)));
+        return AggregationUpdate.from(List.<AggregationOperation>of(
+                context -> new Document("$set", aggregates),
+                context -> new Document("$set", price)));
+    }
+
+    /**
+     * Запрос документа по идентификатору. С rootId запрос на шардированной коллекции уходит на один шард.
+     */
+    private static Query idQuery(ShopUnit shopUnit) {
+        var criteria = where("_id").is(shopUnit.getId());
+        if (shopUnit.getRootId() != null) {
+            criteria.and("rootId").is(shopUnit.getRootId());
+        }
+        return Query.query(criteria);
+    }
+}
@@ -0,0 +1,76 @@
+package com.karim.shopapi.repositories;
+
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition;
+
+/**
+ * Репозиторий товаров для запросов чтения, которые можно обслужить с реплик(GET /nodes/{id} и /sales).
+ * Записи и чтения внутри импорта всегда идут через основной {@link ShopUnitRepository}.
+ * Запрос клиента, недавно изменившего каталог, читает с primary, чтобы увидеть свои изменения
+ * (см. {@link #requirePrimary(boolean)}).
+ */
+public class ShopUnitReadRepository {
+
+    private static final ThreadLocal<Boolean> PRIMARY_REQUIRED = new ThreadLocal<>();
+
+    private final ShopUnitRepository primary;
+
+    private final ShopUnitRepository replicas;
+
+    public ShopUnitReadRepository(ShopUnitRepository primary) {
+        this(primary, primary);
+    }
+
+    public ShopUnitReadRepository(ShopUnitRepository primary, ShopUnitRepository replicas) {
+        this.primary = primary;
+        this.replicas = replicas;
+    }
+
+    /**
+     * Создает репозиторий, читающий через заданный шаблон, например, с предпочтением чтения secondary.
+     *
+     * @param primary      основной репозиторий.
+     * @param readTemplate шаблон для чтения.
+     * @return Репозиторий.
+     */
+    public static ShopUnitReadRepository of(ShopUnitRepository primary, MongoTemplate readTemplate) {
+        var replicas = new MongoRepositoryFactory(readTemplate).getRepository(ShopUnitRepository.class,
+                RepositoryComposition.RepositoryFragments.just(new ShopUnitAggregateOperationsImpl(readTemplate)));
+        return new ShopUnitReadRepository(primary, replicas);
+    }
+
+    /**
+     * Задает, должны ли чтения текущего потока идти через primary.
+     *
+     * @param required true, если клиент должен увидеть свои недавние изменения.
+     */
+    public static void requirePrimary(boolean required) {
+        if (required) {
+            PRIMARY_REQUIRED.set(Boolean.TRUE);
+        } else {
+            PRIMARY_REQUIRED.remove();
+        }
+    }
+
+    /**
+     * @return true, если чтения текущего потока должны идти через primary.
+     */
+    public static boolean isPrimaryRequired() {
+        return PRIMARY_REQUIRED.get() != null;
+    }
+
+    /**
+     * @return true, если чтения без токена согласованности идут с реплик.
+     */
+    public boolean isRoutedToReplicas() {
+        return replicas != primary;
+    }
+
+    /**
+     * @return Репозиторий, через который нужно выполнить чтение.
+     */
+    public ShopUnitRepository get() {
+        return isPrimaryRequired() ? primary : replicas;
+    }
+}
@@ -2,14 +2,16 @@ package com.karim.shopapi.repositories;
 
 import com.karim.shopapi.models.ShopUnit;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 /**
  * Репозиторий для общения с бд.
  */
-public interface ShopUnitRepository extends MongoRepository<ShopUnit, String> {
+public interface ShopUnitRepository extends MongoRepository<ShopUnit, String>, ShopUnitAggregateOperations {
     /**
      * Получает товар по идентификатору.
      *
@@ -26,4 +28,58 @@ public interface ShopUnitRepository extends MongoRepository<ShopUnit, String> {
      * @return Список искомых товаров.
      */
     Optional<List<ShopUnit>> findAllByDateBetween(String from, String to);
+
+    /**
+     * Получает все товары без списков детей, чтобы не разрешать ссылки на детей для каждого документа.
+     *
+     * @return Список всех товаров.
+     */
+    @Query(value = "{}", fields = "{ 'children' : 0 }")
+    List<ShopUnit> findAllWithoutChildren();
+
+    /**
+     * Получает товар по идентификатору без списка детей.
+     *
+     * @param id идентификатор в формате uuid.
+     * @return Искомый товар.
+     */
+    @Query(value = "{ '_id' : ?0 }", fields = "{ 'children' : 0 }")
+    Optional<ShopUnit> findWithoutChildrenById(String id);
+
+    /**
+     * Получает товары по идентификаторам без списков детей.
+     *
+     * @param ids идентификаторы товаров.
+     * @return Найденные товары.
+     */
+    @Query(value = "{ '_id' : { $in : ?0 } }", fields = "{ 'children' : 0 }")
+    List<ShopUnit> findAllWithoutChildrenByIdIn(Collection<String> ids);
+
+    /**
+     * Получает идентификаторы всех категорий.
+     *
+     * @return Категории, у которых заполнен только идентификатор.
+     */
+    @Query(value = "{ 'type' : 'CATEGORY' }", fields = "{ '_id' : 1 }")
+    List<ShopUnit> findAllCategoryIds();
+
+    /**
+     * Получает детей сразу нескольких категорий из заданных деревьев без списков их детей. На шардированной
+     * коллекции запрос уходит только на шарды этих деревьев.
+     *
+     * @param rootIds   идентификаторы корней деревьев, в которые входят категории.
+     * @param parentIds идентификаторы категорий.
+     * @return Дети категорий.
+     */
+    @Query(value = "{ 'rootId' : { $in : ?0 }, 'parentId' : { $in : ?1 } }", fields = "{ 'children' : 0 }")
+    List<ShopUnit> findAllByRootIdInAndParentIdIn(Collection<String> rootIds, Collection<String> parentIds);
+
+    /**
+     * Получает детей сразу нескольких категорий без списков их детей.
+     *
+     * @param parentIds идентификаторы категорий.
+     * @return Дети категорий.
+     */
+    @Query(value = "{ 'parentId' : { $in : ?0 } }", fields = "{ 'children' : 0 }")
+    List<ShopUnit> findAllByParentIdIn(Collection<String> parentIds);
 }
@@ -0,0 +1,348 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.AggregateWriteBehindProperties;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.repositories.ImportWrites;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Буфер отложенной записи агрегатов категорий. Несогласованности в цене и кол-ве товаров, приходящие
+ * от pushItemPrice, складываются в памяти по id категории и периодически сбрасываются в бд одной записью
+ * на категорию. Каждое изменение дописывается в журнал, чтобы после падения его можно было доприменить.
+ * Сброшенные изменения остаются видны чтению до следующего сброса: к прочитанной категории добавляются только
+ * изменения сбросов с номером больше записанного в ней, поэтому уже примененные в бд не учитываются дважды.
+ */
+@Slf4j
+@Component
+public class AggregateDeltaBuffer {
+
+    /**
+     * Накопленная несогласованность агрегатов одной категории.
+     *
+     * @param priceDelta     несогласованность в суммарной стоимости
+     * @param offersCntDelta несогласованность в кол-ве товаров
+     * @param date           последняя дата обновления или null, если дата не менялась
+     * @param rootId         корень дерева категории при последнем изменении или null, если он неизвестен
+     */
+    record Delta(long priceDelta, long offersCntDelta, String date, String rootId) {
+        Delta merge(Delta other) {
+            return new Delta(priceDelta + other.priceDelta, offersCntDelta + other.offersCntDelta,
+                    other.date != null ? other.date : date, other.rootId != null ? other.rootId : rootId);
+        }
+    }
+
+    /**
+     * Изменения, снятые из буфера одним сбросом.
+     *
+     * @param seq    номер сброса
+     * @param deltas изменения по id категории
+     */
+    private record Flushed(long seq, Map<String, Delta> deltas) {
+    }
+
+    private final ShopUnitRepository shopUnitRepository;
+
+    private final AggregateWriteBehindProperties properties;
+
+    // ConcurrentHashMap блокирует только корзину ключа, поэтому разные категории обновляются параллельно.
+    private final ConcurrentHashMap<String, Delta> pending = new ConcurrentHashMap<>();
+
+    // Сбросы, изменения которых могут быть еще не записаны в бд, от старых к новым.
+    private final Deque<Flushed> flushed = new ConcurrentLinkedDeque<>();
+
+    // Добавления и чтения берут блокировку на чтение, смена журнала и перенос изменений из pending
+    // в flushed при сбросе - на запись, поэтому чтение видит изменение ровно в одном из них.
+    private final ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
+
+    private final Object logWriterMonitor = new Object();
+
+    private BufferedWriter logWriter;
+
+    private long lastFlushSeq;
+
+    public AggregateDeltaBuffer(ShopUnitRepository shopUnitRepository, AggregateWriteBehindProperties properties) {
+        this.shopUnitRepository = shopUnitRepository;
+        this.properties = properties;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Доприменяет изменения из журналов, оставшихся после предыдущего запуска, и открывает новый журнал.
+     */
+    @PostConstruct
+    void recover() {
+        if (!isEnabled()) {
+            return;
+        }
+        var logPath = Path.of(properties.getLogPath());
+        try {
+            // Журнал, в который писали до падения, сбрасывается так же, как при обычном сбросе.
+            if (Files.exists(logPath)) {
+                Files.move(logPath, rotatedLogPath(nextFlushSeq()));
+            }
+            for (var rotated : findRotatedLogs()) {
+                long seq = Long.parseLong(rotated.getFileName().toString()
+                        .substring(logPath.getFileName().toString().length() + 1));
+                lastFlushSeq = Math.max(lastFlushSeq, seq);
+                applyLog(rotated, seq);
+            }
+            logWriter = openLog(logPath);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Добавляет несогласованность агрегатов категории в буфер.
+     *
+     * @param categoryId     идентификатор категории
+     * @param rootId         корень дерева категории, по нему запись при сбросе уходит на один шард
+     * @param priceDelta     несогласованность в суммарной стоимости
+     * @param offersCntDelta несогласованность в кол-ве товаров
+     * @param date           дата обновления или null, если дата не меняется
+     */
+    public void add(String categoryId, String rootId, long priceDelta, long offersCntDelta, String date) {
+        var delta = new Delta(priceDelta, offersCntDelta, date, rootId);
+        logLock.readLock().lock();
+        try {
+            appendToLog(categoryId, delta);
+            pending.merge(categoryId, delta, Delta::merge);
+        } finally {
+            logLock.readLock().unlock();
+        }
+        if (pending.size() >= properties.getMaxPendingCategories()) {
+            flush();
+        }
+    }
+
+    /**
+     * Добавляет к товарам еще не сброшенные в бд изменения агрегатов.
+     *
+     * @param shopUnit корневой товар, с которого начинается обработка.
+     */
+    public void mergePending(ShopUnit shopUnit) {
+        if (!hasPending()) {
+            return;
+        }
+        Deque<ShopUnit> shopUnits = new ArrayDeque<>();
+        shopUnits.push(shopUnit);
+        logLock.readLock().lock();
+        try {
+            while (!shopUnits.isEmpty()) {
+                var current = shopUnits.pop();
+                if (current.getType() != ShopUnitType.CATEGORY) {
+                    continue;
+                }
+                mergePendingInto(current);
+                if (current.getChildren() != null) {
+                    current.getChildren().forEach(shopUnits::push);
+                }
+            }
+        } finally {
+            logLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Добавляет к списку товаров еще не сброшенные в бд изменения агрегатов, не обходя детей.
+     *
+     * @param shopUnits список товаров.
+     */
+    public void mergePending(List<ShopUnit> shopUnits) {
+        if (!hasPending()) {
+            return;
+        }
+        logLock.readLock().lock();
+        try {
+            for (var shopUnit : shopUnits) {
+                if (shopUnit.getType() == ShopUnitType.CATEGORY) {
+                    mergePendingInto(shopUnit);
+                }
+            }
+        } finally {
+            logLock.readLock().unlock();
+        }
+    }
+
+    private boolean hasPending() {
+        return isEnabled() && (!pending.isEmpty() || !flushed.isEmpty());
+    }
+
+    private void mergePendingInto(ShopUnit category) {
+        Delta delta = null;
+        for (var batch : flushed) {
+            // Сброс с номером не больше записанного в категории уже применен к прочитанному документу.
+            var flushedDelta = batch.seq() > category.getAggregatesFlushSeq() ?
+                    batch.deltas().get(category.getId()) : null;
+            if (flushedDelta != null) {
+                delta = delta == null ? flushedDelta : delta.merge(flushedDelta);
+            }
+        }
+        var pendingDelta = pending.get(category.getId());
+        if (pendingDelta != null) {
+            delta = delta == null ? pendingDelta : delta.merge(pendingDelta);
+        }
+        if (delta == null) {
+            return;
+        }
+        category.setChildrenPriceSum(category.getChildrenPriceSum() + delta.priceDelta());
+        category.setChildrenOffersCnt(category.getChildrenOffersCnt() + delta.offersCntDelta());
+        if (delta.date() != null) {
+            category.setDate(delta.date());
+        }
+        if (category.getChildrenOffersCnt() > 0) {
+            category.setPrice((long) ((double) category.getChildrenPriceSum() / category.getChildrenOffersCnt()));
+        } else {
+            category.setPrice(null);
+        }
+    }
+
+    /**
+     * Сбрасывает накопленные изменения в бд: по одной записи на категорию.
+     */
+    @Scheduled(fixedDelayString = "${shopapi.aggregates.write-behind.flush-interval-ms:200}")
+    public synchronized void flush() {
+        if (!isEnabled() || pending.isEmpty()) {
+            return;
+        }
+        long seq;
+        Path rotated;
+        Map<String, Delta> drained = new HashMap<>();
+        logLock.writeLock().lock();
+        try {
+            seq = nextFlushSeq();
+            rotated = rotatedLogPath(seq);
+            logWriter.close();
+            Files.move(Path.of(properties.getLogPath()), rotated);
+            logWriter = openLog(Path.of(properties.getLogPath()));
+            for (var id : new ArrayList<>(pending.keySet())) {
+                drained.put(id, pending.remove(id));
+            }
+            flushed.addLast(new Flushed(seq, Map.copyOf(drained)));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            logLock.writeLock().unlock();
+        }
+        var iterator = drained.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            var delta = entry.getValue();
+            try {
+                ImportWrites.run(() -> shopUnitRepository.applyAggregateDelta(entry.getKey(), delta.rootId(),
+                        delta.priceDelta(), delta.offersCntDelta(), delta.date(), seq));
+            } catch (RuntimeException ex) {
+                // Непримененные изменения возвращаются в буфер. Журнал сброса остается на диске: при восстановлении
+                // категории, которые к тому времени получат больший номер сброса, будут пропущены.
+                log.warn("Can't flush aggregates, {} categories are returned to buffer", drained.size(), ex);
+                logLock.writeLock().lock();
+                try {
+                    // Примененные изменения уже в бд, остальные снова ждут в pending.
+                    drained.forEach((id, rest) -> pending.merge(id, rest, Delta::merge));
+                    flushed.removeIf(batch -> batch.seq() == seq);
+                } finally {
+                    logLock.writeLock().unlock();
+                }
+                return;
+            }
+            iterator.remove();
+        }
+        // Предыдущие сбросы больше не нужны: чтение, начатое до их записи в бд, давно закончилось. Текущий
+        // остается до следующего сброса для чтений, которые прочитали категорию до ее обновления.
+        flushed.removeIf(batch -> batch.seq() < seq);
+        try {
+            Files.delete(rotated);
+        } catch (IOException ex) {
+            log.warn("Can't delete flushed aggregates log {}", rotated, ex);
+        }
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        flush();
+        logWriter.close();
+    }
+
+    private void applyLog(Path logFile, long seq) throws IOException {
+        Map<String, Delta> deltas = new HashMap<>();
+        for (var line : Files.readAllLines(logFile, StandardCharsets.UTF_8)) {
+            var parts = line.split("\t", -1);
+            if (parts.length != 4 && parts.length != 5) {
+                // Последняя строка могла быть дописана не полностью. В журналах прошлых версий нет rootId.
+                continue;
+            }
+            var date = parts[3].isEmpty() ? null : parts[3];
+            var rootId = parts.length == 4 || parts[4].isEmpty() ? null : parts[4];
+            deltas.merge(parts[0], new Delta(Long.parseLong(parts[1]), Long.parseLong(parts[2]), date, rootId),
+                    Delta::merge);
+        }
+        ImportWrites.run(() -> deltas.forEach((id, delta) -> shopUnitRepository.applyAggregateDelta(id,
+                delta.rootId(), delta.priceDelta(), delta.offersCntDelta(), delta.date(), seq)));
+        Files.delete(logFile);
+    }
+
+    private void appendToLog(String categoryId, Delta delta) {
+        // Запись в BufferedWriter не потокобезопасна, а блокировка на чтение допускает несколько писателей.
+        synchronized (logWriterMonitor) {
+            try {
+                logWriter.write(categoryId + "\t" + delta.priceDelta() + "\t" + delta.offersCntDelta() + "\t" +
+                        (delta.date() == null ? "" : delta.date()) + "\t" +
+                        (delta.rootId() == null ? "" : delta.rootId()) + "\n");
+                logWriter.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    private List<Path> findRotatedLogs() throws IOException {
+        var logPath = Path.of(properties.getLogPath()).toAbsolutePath();
+        var prefix = logPath.getFileName().toString() + ".";
+        try (var files = Files.list(logPath.getParent())) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix) &&
+                            path.getFileName().toString().substring(prefix.length()).matches("\\d+"))
+                    .sorted(Comparator.comparingLong(path -> Long.parseLong(
+                            path.getFileName().toString().substring(prefix.length()))))
+                    .toList();
+        }
+    }
+
+    private long nextFlushSeq() {
+        // Номер сброса растет и между перезапусками, поэтому опирается на текущее время.
+        lastFlushSeq = Math.max(lastFlushSeq + 1, System.currentTimeMillis());
+        return lastFlushSeq;
+    }
+
+    private Path rotatedLogPath(long seq) {
+        return Path.of(properties.getLogPath() + "." + seq);
+    }
+
+    private static BufferedWriter openLog(Path logPath) throws IOException {
+        return Files.newBufferedWriter(logPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+}
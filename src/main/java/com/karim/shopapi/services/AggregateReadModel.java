@@ -0,0 +1,270 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.AggregateReadModelProperties;
+import com.karim.shopapi.metrics.StageRecorder;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Модель чтения агрегатов категорий. В этом режиме импорт записывает только сами товары и списки детей
+ * родителей, не обходя предков, поэтому время импорта не зависит от глубины дерева. Потребитель потока
+ * изменений коллекции товаров пересчитывает агрегаты родителей измененных товаров по их прямым детям.
+ * Запись пересчитанной категории сама попадает в поток, поэтому изменение поднимается до корня уровень
+ * за уровнем. Отставание агрегатов от записей пишется в метрику shopapi.read-model.lag.
+ */
+@Slf4j
+@Component
+public class AggregateReadModel {
+
+    private static final String CHECKPOINT_COLLECTION = "aggregateReadModel";
+
+    private static final String CHECKPOINT_ID = "resumeToken";
+
+    private static final long RETRY_INTERVAL_MS = 1000;
+
+    private final ShopUnitRepository shopUnitRepository;
+
+    private final AggregateReadModelProperties properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    // Категории, агрегаты которых нужно пересчитать. Меняется только потоком потребителя.
+    private final Set<String> dirty = new LinkedHashSet<>();
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    public AggregateReadModel(ShopUnitRepository shopUnitRepository, AggregateReadModelProperties properties) {
+        this.shopUnitRepository = shopUnitRepository;
+        this.properties = properties;
+        this.mongoTemplate = null;
+    }
+
+    @Autowired
+    public AggregateReadModel(ShopUnitRepository shopUnitRepository, AggregateReadModelProperties properties,
+                              ObjectProvider<MongoTemplate> mongoTemplate) {
+        this.shopUnitRepository = shopUnitRepository;
+        this.properties = properties;
+        this.mongoTemplate = mongoTemplate.getIfAvailable();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    @PostConstruct
+    void start() {
+        if (!isEnabled() || mongoTemplate == null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "aggregate-read-model");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    private void run() {
+        var resumeToken = loadCheckpoint();
+        while (running) {
+            try (var cursor = watch(resumeToken)) {
+                if (resumeToken == null) {
+                    // Изменения до открытия потока неизвестны, поэтому пересчитываются все категории.
+                    shopUnitRepository.findAllCategoryIds().forEach(category -> dirty.add(category.getId()));
+                    log.info("Rebuilding aggregates of {} categories", dirty.size());
+                }
+                resumeToken = consume(cursor);
+            } catch (MongoException ex) {
+                if (!running) {
+                    break;
+                }
+                // Позиция в потоке могла пропасть из oplog, поэтому модель перестраивается заново.
+                log.warn("Change stream failed, category aggregates will be rebuilt", ex);
+                resumeToken = null;
+                dirty.clear();
+                try {
+                    Thread.sleep(RETRY_INTERVAL_MS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Читает поток изменений, пока он открыт, и пересчитывает затронутые категории, когда изменения
+     * заканчиваются или их набирается на пакет.
+     *
+     * @return позиция, с которой поток нужно открыть заново, или null, если модель нужно перестроить.
+     */
+    private BsonDocument consume(MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor) {
+        while (running) {
+            var change = cursor.tryNext();
+            if (change != null) {
+                if (change.getOperationType() == OperationType.INVALIDATE) {
+                    return null;
+                }
+                onChange(change);
+                if (change.getClusterTime() != null) {
+                    StageRecorder.record("shopapi.read-model.lag",
+                            System.currentTimeMillis() - change.getClusterTime().getTime() * 1000L);
+                }
+            }
+            if (change == null || dirty.size() >= properties.getMaxBatchSize()) {
+                var drained = !dirty.isEmpty();
+                while (!dirty.isEmpty()) {
+                    recompute(drain());
+                }
+                // Позиция сохраняется после пересчета, поэтому после падения изменения применятся повторно.
+                if (drained && cursor.getResumeToken() != null) {
+                    saveCheckpoint(cursor.getResumeToken());
+                }
+            }
+        }
+        return cursor.getResumeToken();
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> watch(BsonDocument resumeToken) {
+        // Из документа нужны только родитель и тип, остальные поля в поток не попадают.
+        var stream = mongoTemplate.getCollection(mongoTemplate.getCollectionName(ShopUnit.class))
+                .watch(List.of(Aggregates.project(Projections.include("operationType", "documentKey",
+                        "clusterTime", "fullDocument.parentId", "fullDocument.type"))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(properties.getMaxAwaitMs(), TimeUnit.MILLISECONDS);
+        return (resumeToken == null ? stream : stream.resumeAfter(resumeToken)).cursor();
+    }
+
+    /**
+     * Отмечает категории, агрегаты которых могли измениться: родителя измененного товара и саму категорию,
+     * если у нее поменялись дети. События удаления не содержат документа, и родитель удаленного товара
+     * по ним неизвестен. Поэтому сервис записывает родителя после удаления поддерева, и категория
+     * пересчитывается по событию этой записи уже без удаленных детей.
+     *
+     * @param change событие потока изменений.
+     */
+    void onChange(ChangeStreamDocument<Document> change) {
+        var document = change.getFullDocument();
+        if (document == null) {
+            return;
+        }
+        var parentId = document.getString("parentId");
+        if (parentId != null) {
+            dirty.add(parentId);
+        }
+        var id = change.getDocumentKey() == null ? null : change.getDocumentKey().get("_id");
+        if (ShopUnitType.CATEGORY.name().equals(document.getString("type")) && id != null && id.isString()) {
+            dirty.add(id.asString().getValue());
+        }
+    }
+
+    /**
+     * Пересчитывает агрегаты категорий по их прямым детям и записывает изменившиеся. Дата категории
+     * не уменьшается и не меньше дат ее детей.
+     *
+     * @param ids идентификаторы категорий.
+     * @return кол-во перезаписанных категорий.
+     */
+    int recompute(Collection<String> ids) {
+        var categories = shopUnitRepository.findAllWithoutChildrenByIdIn(ids).stream()
+                .filter(shopUnit -> shopUnit.getType() == ShopUnitType.CATEGORY)
+                .toList();
+        if (categories.isEmpty()) {
+            return 0;
+        }
+        var categoryIds = categories.stream().map(ShopUnit::getId).toList();
+        var rootIds = categories.stream().map(ShopUnit::getRootId).collect(Collectors.toSet());
+        // С rootId запрос уходит только на шарды деревьев пересчитываемых категорий.
+        var children = (rootIds.contains(null) ? shopUnitRepository.findAllByParentIdIn(categoryIds)
+                : shopUnitRepository.findAllByRootIdInAndParentIdIn(rootIds, categoryIds))
+                .stream()
+                .collect(Collectors.groupingBy(ShopUnit::getParentId));
+        int updated = 0;
+        for (var category : categories) {
+            long priceSum = 0;
+            long offersCnt = 0;
+            var date = category.getDate();
+            for (var child : children.getOrDefault(category.getId(), List.of())) {
+                if (child.getType() == ShopUnitType.OFFER) {
+                    priceSum += child.getPrice() == null ? 0 : child.getPrice();
+                    ++offersCnt;
+                } else {
+                    priceSum += child.getChildrenPriceSum();
+                    offersCnt += child.getChildrenOffersCnt();
+                }
+                if (child.getDate() != null && (date == null || child.getDate().compareTo(date) > 0)) {
+                    date = child.getDate();
+                }
+            }
+            var price = offersCnt > 0 ? Long.valueOf((long) ((double) priceSum / offersCnt)) : null;
+            if (priceSum == category.getChildrenPriceSum() && offersCnt == category.getChildrenOffersCnt() &&
+                    Objects.equals(price, category.getPrice()) && Objects.equals(date, category.getDate())) {
+                continue;
+            }
+            category.setChildrenPriceSum(priceSum);
+            category.setChildrenOffersCnt(offersCnt);
+            category.setPrice(price);
+            category.setDate(date);
+            shopUnitRepository.updateAggregates(category);
+            ++updated;
+        }
+        return updated;
+    }
+
+    private List<String> drain() {
+        List<String> batch = new ArrayList<>(Math.min(dirty.size(), properties.getMaxBatchSize()));
+        var iterator = dirty.iterator();
+        while (iterator.hasNext() && batch.size() < properties.getMaxBatchSize()) {
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+        return batch;
+    }
+
+    private BsonDocument loadCheckpoint() {
+        var checkpoint = mongoTemplate.getCollection(CHECKPOINT_COLLECTION)
+                .find(Filters.eq("_id", CHECKPOINT_ID)).first();
+        if (checkpoint == null || checkpoint.get("token") == null) {
+            return null;
+        }
+        return checkpoint.get("token", Document.class).toBsonDocument();
+    }
+
+    private void saveCheckpoint(BsonDocument resumeToken) {
+        mongoTemplate.getCollection(CHECKPOINT_COLLECTION).replaceOne(Filters.eq("_id", CHECKPOINT_ID),
+                new Document("_id", CHECKPOINT_ID).append("token", resumeToken), new ReplaceOptions().upsert(true));
+    }
+}
@@ -0,0 +1,72 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.models.ShopUnit;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Изменения агрегатов предков, общие для пакета import запросов. Пока пакет не записан в бд, прочитанные
+ * в рамках пакета товары дополняются накопленными изменениями, а запись товара целиком их поглощает.
+ * Класс не потокобезопасен, пакет обрабатывается одним потоком.
+ */
+class ImportBatch {
+
+    private final Map<String, AggregateDeltaBuffer.Delta> pending = new LinkedHashMap<>();
+
+    /**
+     * Добавляет несогласованность к изменениям категории.
+     *
+     * @param id             идентификатор категории
+     * @param rootId         корень дерева категории
+     * @param priceDelta     несогласованность в суммарной стоимости
+     * @param offersCntDelta несогласованность в кол-ве товаров
+     * @param date           новая дата обновления или null, если дата не меняется
+     */
+    void add(String id, String rootId, long priceDelta, long offersCntDelta, String date) {
+        pending.merge(id, new AggregateDeltaBuffer.Delta(priceDelta, offersCntDelta, date, rootId),
+                AggregateDeltaBuffer.Delta::merge);
+    }
+
+    /**
+     * Дополняет прочитанный из бд товар накопленными изменениями.
+     *
+     * @param shopUnit товар из бд.
+     * @return тот же товар.
+     */
+    Optional<ShopUnit> merge(Optional<ShopUnit> shopUnit) {
+        shopUnit.ifPresent(this::mergeInto);
+        return shopUnit;
+    }
+
+    /**
+     * Отмечает, что товар вместе с накопленными изменениями записан в бд целиком.
+     *
+     * @param shopUnit записанный товар.
+     */
+    void written(ShopUnit shopUnit) {
+        pending.remove(shopUnit.getId());
+    }
+
+    Map<String, AggregateDeltaBuffer.Delta> pending() {
+        return pending;
+    }
+
+    private void mergeInto(ShopUnit category) {
+        var delta = pending.get(category.getId());
+        if (delta == null) {
+            return;
+        }
+        category.setChildrenPriceSum(category.getChildrenPriceSum() + delta.priceDelta());
+        category.setChildrenOffersCnt(category.getChildrenOffersCnt() + delta.offersCntDelta());
+        if (delta.date() != null) {
+            category.setDate(delta.date());
+        }
+        if (category.getChildrenOffersCnt() > 0) {
+            category.setPrice((long) ((double) category.getChildrenPriceSum() / category.getChildrenOffersCnt()));
+        } else {
+            category.setPrice(null);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.models.ErrorType;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Объединяет import запросы, пришедшие в течение короткого окна, в один пакет. Пакет применяет один поток,
+ * а каждый вызывающий поток ждет результата своего запроса не дольше resultTimeoutMs. После остановки новые
+ * запросы отклоняются.
+ */
+@Slf4j
+class ImportCoalescer {
+
+    private record PendingImport(ShopUnitImportRequest request, CompletableFuture<Void> result) {
+    }
+
+    private final ShopUnitService shopUnitService;
+
+    private final ImportProperties.Coalescing properties;
+
+    private final LinkedBlockingQueue<PendingImport> queue = new LinkedBlockingQueue<>();
+
+    private final ThreadPoolExecutor worker;
+
+    // Под этой блокировкой запросы ставятся в очередь, а поток пакетов при остановке отмечает stopped,
+    // поэтому после последнего разбора очереди в нее ничего не попадает.
+    private final Object queueLock = new Object();
+
+    private boolean stopped;
+
+    ImportCoalescer(ShopUnitService shopUnitService, ImportProperties.Coalescing properties) {
+        this.shopUnitService = shopUnitService;
+        this.properties = properties;
+        if (isEnabled()) {
+            worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+                    runnable -> new Thread(runnable, "import-coalescer"));
+            worker.execute(this::run);
+        } else {
+            worker = null;
+        }
+    }
+
+    boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Ставит запрос в очередь и ждет применения пакета, в который он попал.
+     *
+     * @param shopUnitImportRequest Запрос, содержащий новые или обновленные товары.
+     */
+    void importShopUnit(ShopUnitImportRequest shopUnitImportRequest) {
+        var pending = new PendingImport(shopUnitImportRequest, new CompletableFuture<>());
+        synchronized (queueLock) {
+            if (stopped) {
+                throw stoppedException();
+            }
+            queue.add(pending);
+        }
+        try {
+            pending.result().get(properties.getResultTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new CompletionException(ex.getCause());
+        } catch (TimeoutException ex) {
+            // Запрос, который еще не попал в пакет, снимается с очереди и уже не будет применен.
+            queue.remove(pending);
+            throw new ApiException("Import batch was not applied in time", ErrorType.UNAVAILABLE);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            queue.remove(pending);
+            throw new ApiException("Interrupted while waiting for import batch", ErrorType.UNAVAILABLE);
+        }
+    }
+
+    void close() throws InterruptedException {
+        if (worker != null) {
+            synchronized (queueLock) {
+                stopped = true;
+            }
+            worker.shutdownNow();
+            worker.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void run() {
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(properties.getWindowMs());
+        List<PendingImport> batch = new ArrayList<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < properties.getMaxBatchSize()) {
+                    var next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                apply(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (queueLock) {
+            stopped = true;
+        }
+        var stoppedException = stoppedException();
+        batch.forEach(pending -> pending.result().completeExceptionally(stoppedException));
+        queue.forEach(pending -> pending.result().completeExceptionally(stoppedException));
+    }
+
+    private static ApiException stoppedException() {
+        return new ApiException("Import coalescer is stopped", ErrorType.UNAVAILABLE);
+    }
+
+    private void apply(List<PendingImport> batch) {
+        try {
+            var errors = shopUnitService.importShopUnitBatch(batch.stream().map(PendingImport::request).toList());
+            for (int i = 0; i < batch.size(); ++i) {
+                if (errors.get(i) == null) {
+                    batch.get(i).result().complete(null);
+                } else {
+                    batch.get(i).result().completeExceptionally(errors.get(i));
+                }
+            }
+        } catch (RuntimeException ex) {
+            log.error("Can't apply import batch of {} requests", batch.size(), ex);
+            batch.forEach(pending -> pending.result().completeExceptionally(ex));
+        }
+    }
+}
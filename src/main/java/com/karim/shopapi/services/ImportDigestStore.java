@@ -0,0 +1,199 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.models.ShopUnitImport;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Отпечатки недавно примененных import запросов. Повтор запроса с тем же отпечатком в течение ttl
+ * не применяется заново. Отпечатки хранятся в памяти экземпляра сервиса. Повтор должен применяться заново,
+ * если после запроса товары изменились, поэтому каждый import забывает отпечатки запросов с теми же товарами,
+ * а удаление товаров сбрасывает все отпечатки.
+ */
+class ImportDigestStore {
+
+    private final ImportProperties.Dedup properties;
+
+    private final LongSupplier clock;
+
+    /**
+     * Отпечаток в хранилище.
+     *
+     * @param expiresAt время устаревания
+     * @param ids       идентификаторы товаров запроса
+     */
+    private record Entry(long expiresAt, Collection<String> ids) {
+    }
+
+    // Время жизни у всех отпечатков одинаковое, поэтому порядок добавления совпадает с порядком устаревания.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    // Отпечаток последнего запроса с товаром. Каждый товар входит не больше чем в один хранимый отпечаток.
+    private final Map<String, String> digestsById = new HashMap<>();
+
+    // Номер сброса отпечатков. Запрос, во время применения которого прошел сброс, не запоминается.
+    private long generation;
+
+    ImportDigestStore(ImportProperties.Dedup properties) {
+        this(properties, System::currentTimeMillis);
+    }
+
+    ImportDigestStore(ImportProperties.Dedup properties, LongSupplier clock) {
+        this.properties = properties;
+        this.clock = clock;
+    }
+
+    boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Проверяет, применялся ли запрос с таким отпечатком в течение ttl.
+     *
+     * @param digest отпечаток запроса.
+     * @return true, если запрос уже применялся, false - иначе.
+     */
+    synchronized boolean contains(String digest) {
+        evictExpired();
+        return entries.containsKey(digest);
+    }
+
+    /**
+     * Возвращает номер сброса отпечатков, который нужно получить до применения запроса.
+     *
+     * @return номер сброса.
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Запоминает отпечаток примененного запроса.
+     *
+     * @param digest отпечаток запроса.
+     * @param ids    идентификаторы товаров запроса.
+     */
+    void add(String digest, Collection<String> ids) {
+        add(digest, ids, generation());
+    }
+
+    /**
+     * Забывает отпечатки запросов с теми же товарами и запоминает отпечаток примененного запроса,
+     * если с начала его применения отпечатки не сбрасывались.
+     *
+     * @param digest     отпечаток запроса.
+     * @param ids        идентификаторы товаров запроса.
+     * @param generation номер сброса, полученный до применения запроса.
+     */
+    synchronized void add(String digest, Collection<String> ids, long generation) {
+        forget(ids);
+        if (generation != this.generation) {
+            return;
+        }
+        evictExpired();
+        remove(digest);
+        entries.put(digest, new Entry(clock.getAsLong() + properties.getTtlMs(), List.copyOf(ids)));
+        ids.forEach(id -> digestsById.put(id, digest));
+        while (entries.size() > properties.getMaxEntries()) {
+            remove(entries.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Забывает отпечатки запросов, в которых есть товары с заданными идентификаторами. Вызывается, когда
+     * товары изменил запрос, отпечаток которого не запоминается, например, упавший на середине.
+     *
+     * @param ids идентификаторы измененных товаров.
+     */
+    synchronized void forget(Collection<String> ids) {
+        for (var id : ids) {
+            var digest = digestsById.get(id);
+            if (digest != null) {
+                remove(digest);
+            }
+        }
+    }
+
+    /**
+     * Забывает все отпечатки, в том числе запросов, которые применяются прямо сейчас.
+     */
+    synchronized void clear() {
+        entries.clear();
+        digestsById.clear();
+        ++generation;
+    }
+
+    private void evictExpired() {
+        long now = clock.getAsLong();
+        var iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (entry.getValue().expiresAt() > now) {
+                break;
+            }
+            iterator.remove();
+            entry.getValue().ids().forEach(id -> digestsById.remove(id, entry.getKey()));
+        }
+    }
+
+    private void remove(String digest) {
+        var entry = entries.remove(digest);
+        if (entry != null) {
+            entry.ids().forEach(id -> digestsById.remove(id, digest));
+        }
+    }
+
+    /**
+     * Возвращает идентификаторы товаров запроса.
+     *
+     * @param shopUnitImportRequest import запрос.
+     * @return идентификаторы товаров.
+     */
+    static List<String> ids(ShopUnitImportRequest shopUnitImportRequest) {
+        return shopUnitImportRequest.getItems().stream()
+                .map(ShopUnitImport::getId)
+                .toList();
+    }
+
+    /**
+     * Вычисляет SHA-256 отпечаток запроса по дате обновления и всем полям товаров в порядке их следования.
+     *
+     * @param shopUnitImportRequest import запрос.
+     * @return отпечаток в шестнадцатеричном виде.
+     */
+    static String digest(ShopUnitImportRequest shopUnitImportRequest) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        update(messageDigest, shopUnitImportRequest.getUpdateDate());
+        for (var item : shopUnitImportRequest.getItems()) {
+            update(messageDigest, item.getId());
+            update(messageDigest, item.getName());
+            update(messageDigest, item.getParentId());
+            update(messageDigest, item.getType() == null ? null : item.getType().name());
+            update(messageDigest, item.getPrice() == null ? null : item.getPrice().toString());
+        }
+        return HexFormat.of().formatHex(messageDigest.digest());
+    }
+
+    private static void update(MessageDigest messageDigest, String value) {
+        // Длина перед значением не дает соседним полям склеиться в одинаковую строку.
+        if (value == null) {
+            messageDigest.update(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array());
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        messageDigest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        messageDigest.update(bytes);
+    }
+}
@@ -0,0 +1,175 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.models.*;
+import com.karim.shopapi.repositories.ImportJobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сервис асинхронного импорта. Запрос сохраняется в коллекцию задач и обрабатывается одним фоновым потоком,
+ * поэтому задачи переживают перезапуск сервиса. Размер тела задачи ограничен размером документа бд,
+ * для больших выгрузок предназначен потоковый импорт.
+ */
+@Slf4j
+@Service
+public class ImportJobService {
+
+    private final ShopUnitService shopUnitService;
+
+    private final ImportJobRepository importJobRepository;
+
+    private final ImportProperties importProperties;
+
+    // Идентификатор экземпляра, за которым закрепляются забранные задачи.
+    private final String owner = UUID.randomUUID().toString();
+
+    // Поток разбирает очередь задач до конца, поэтому в очереди исполнителя достаточно одного сигнала.
+    private final ThreadPoolExecutor worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), runnable -> new Thread(runnable, "import-job-worker"),
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    public ImportJobService(ShopUnitService shopUnitService, ImportJobRepository importJobRepository,
+                            ImportProperties importProperties) {
+        this.shopUnitService = shopUnitService;
+        this.importJobRepository = importJobRepository;
+        this.importProperties = importProperties;
+    }
+
+    /**
+     * Запускает разбор очереди. Задачи, прерванные остановкой экземпляра, забираются заново, когда истекает
+     * их аренда, а задачи живых экземпляров не трогаются. Повторный импорт тех же товаров с той же датой
+     * не меняет результата, поэтому задача просто выполняется заново.
+     */
+    @PostConstruct
+    void recover() {
+        signal();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        worker.shutdown();
+        worker.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Ставит запрос import в очередь.
+     *
+     * @param shopUnitImportRequest Запрос, содержащий новые или обновленные товары.
+     * @return созданная задача.
+     */
+    public ImportJob submit(ShopUnitImportRequest shopUnitImportRequest) {
+        ShopUnitImportValidator.validateDateIsInISO(shopUnitImportRequest.getUpdateDate());
+        var job = new ImportJob();
+        job.setId(UUID.randomUUID().toString());
+        job.setStatus(ImportJobStatus.PENDING);
+        job.setRequest(shopUnitImportRequest);
+        job.setItemsTotal(shopUnitImportRequest.getItems().size());
+        job.setCreatedAt(Instant.now().toString());
+        importJobRepository.insert(job);
+        signal();
+        return job;
+    }
+
+    /**
+     * Получает задачу по идентификатору.
+     *
+     * @param jobId идентификатор задачи.
+     * @return Искомая задача.
+     */
+    public ImportJob getImportJob(String jobId) {
+        return importJobRepository.findById(jobId)
+                .orElseThrow(() -> new ApiException(String.format("Import job doesn't exist, job id = %s", jobId),
+                        ErrorType.NOTFOUND));
+    }
+
+    /**
+     * Периодически проверяет очередь, чтобы забрать задачи, поставленные другими экземплярами сервиса.
+     */
+    @Scheduled(fixedDelayString = "${shopapi.imports.job-poll-interval-ms:1000}")
+    public void poll() {
+        signal();
+    }
+
+    /**
+     * Продлевает аренду задач, которые обрабатывает экземпляр, пока он жив.
+     */
+    @Scheduled(fixedDelayString = "${shopapi.imports.job-heartbeat-interval-ms:10000}")
+    public void heartbeat() {
+        importJobRepository.renewLeases(owner, leaseExpiresAt());
+    }
+
+    private long leaseExpiresAt() {
+        return System.currentTimeMillis() + importProperties.getJobLeaseMs();
+    }
+
+    private void signal() {
+        if (!worker.isShutdown()) {
+            worker.execute(this::drain);
+        }
+    }
+
+    void drain() {
+        Optional<ImportJob> job;
+        while (!worker.isShutdown() && (job = importJobRepository.claimNextPending(owner, Instant.now().toString(),
+                System.currentTimeMillis(), leaseExpiresAt())).isPresent()) {
+            run(job.get());
+        }
+    }
+
+    /**
+     * Проверяет запрос целиком и применяет его порциями в порядке top sort, сохраняя прогресс после каждой
+     * порции. Родители из запроса попадают в более раннюю порцию, чем их дети. Если аренда задачи истекла
+     * и ее забрал другой экземпляр, обработка прекращается.
+     *
+     * @param job задача в статусе RUNNING.
+     */
+    void run(ImportJob job) {
+        var request = job.getRequest();
+        long start = System.nanoTime();
+        try {
+            List<Integer> topSortOrderedIndexes = shopUnitService.validateImport(request);
+            int chunkSize = importProperties.getJobChunkSize();
+            int processed = 0;
+            while (processed < topSortOrderedIndexes.size()) {
+                int end = Math.min(processed + chunkSize, topSortOrderedIndexes.size());
+                List<ShopUnitImport> items = new ArrayList<>(end - processed);
+                for (int i : topSortOrderedIndexes.subList(processed, end)) {
+                    items.add(request.getItems().get(i));
+                }
+                var chunk = new ShopUnitImportRequest();
+                chunk.setItems(items);
+                chunk.setUpdateDate(request.getUpdateDate());
+                shopUnitService.importShopUnit(chunk);
+                processed = end;
+                double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+                if (!importJobRepository.updateProgress(job.getId(), owner, processed, processed / seconds,
+                        leaseExpiresAt())) {
+                    log.warn("Import job {} lease expired, the job was taken over by another instance", job.getId());
+                    return;
+                }
+            }
+            importJobRepository.finish(job.getId(), owner, ImportJobStatus.DONE, Instant.now().toString(), null);
+        } catch (ApiException ex) {
+            importJobRepository.finish(job.getId(), owner, ImportJobStatus.FAILED, Instant.now().toString(),
+                    ex.getMessage());
+        } catch (RuntimeException ex) {
+            log.error("Import job {} failed", job.getId(), ex);
+            importJobRepository.finish(job.getId(), owner, ImportJobStatus.FAILED, Instant.now().toString(),
+                    "Internal error");
+        }
+    }
+}
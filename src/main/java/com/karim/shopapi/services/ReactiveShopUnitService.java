@@ -0,0 +1,140 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.engine.CatalogueEngine;
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.models.ErrorType;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.repositories.ReactiveShopUnitRepository;
+import com.karim.shopapi.repositories.ShopUnitReadRepository;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Неблокирующий сервис для запросов чтения. Поддерево товара собирается по уровням: дети всех категорий
+ * уровня читаются одним запросом, поэтому кол-во обращений к бд равно глубине поддерева. Реактивный драйвер
+ * читает с primary, поэтому, если чтения идут с реплик или через кеш поддеревьев, запросы выполняет
+ * {@link ShopUnitService} на пуле для блокирующих вызовов.
+ */
+@Service
+public class ReactiveShopUnitService {
+
+    private final ReactiveShopUnitRepository reactiveShopUnitRepository;
+
+    private final AggregateDeltaBuffer aggregateDeltaBuffer;
+
+    private final CatalogueEngine catalogueEngine;
+
+    private final ShopUnitService shopUnitService;
+
+    public ReactiveShopUnitService(ReactiveShopUnitRepository reactiveShopUnitRepository,
+                                   AggregateDeltaBuffer aggregateDeltaBuffer, CatalogueEngine catalogueEngine,
+                                   ShopUnitService shopUnitService) {
+        this.reactiveShopUnitRepository = reactiveShopUnitRepository;
+        this.aggregateDeltaBuffer = aggregateDeltaBuffer;
+        this.catalogueEngine = catalogueEngine;
+        this.shopUnitService = shopUnitService;
+    }
+
+    /**
+     * Получает товар по переданному идентификатору вместе со всем поддеревом.
+     *
+     * @param id идентификатор товара.
+     * @return Искомый товар.
+     */
+    public Mono<ShopUnit> getShopUnitById(String id) {
+        if (!ShopUnitImportValidator.isValidUUID(id)) {
+            return Mono.error(new ApiException(String.format("id is not in UUID format, id = %s", id),
+                    ErrorType.VALIDATION));
+        }
+        if (catalogueEngine.isEnabled()) {
+            return Mono.fromCallable(() -> ShopUnitService.recordTreeSize(catalogueEngine.getShopUnitById(id)));
+        }
+        if (shopUnitService.isReadRouted()) {
+            return blocking(() -> shopUnitService.getShopUnitById(id));
+        }
+        return reactiveShopUnitRepository.findWithoutChildrenById(id)
+                .switchIfEmpty(Mono.error(() -> new ApiException(id)))
+                .flatMap(shopUnit -> loadChildren(List.of(shopUnit)).thenReturn(shopUnit))
+                .doOnNext(aggregateDeltaBuffer::mergePending)
+                .map(ShopUnitService::recordTreeSize);
+    }
+
+    /**
+     * Получает товары, обновленные или добавленные за последние 24 часа перед заданной датой. Как и в
+     * GET /sales, категории возвращаются вместе с поддеревом.
+     *
+     * @param dateTime заданная дата.
+     * @return искомые товары.
+     */
+    public Flux<ShopUnit> getSales(String dateTime) {
+        try {
+            ShopUnitImportValidator.validateDateIsInISO(dateTime);
+        } catch (ApiException ex) {
+            return Flux.error(ex);
+        }
+        var window = SalesWindow.of(dateTime);
+        if (catalogueEngine.isEnabled()) {
+            // Товары движка разделяются с кешем индекса, поэтому не изменяются.
+            return Flux.defer(() -> Flux.fromIterable(catalogueEngine.findAllByDateBetween(window.from(),
+                    window.to())));
+        }
+        if (shopUnitService.isReadRouted()) {
+            return blocking(() -> shopUnitService.getSales(dateTime).getItems()).flatMapIterable(items -> items);
+        }
+        return reactiveShopUnitRepository.findAllByDateBetween(window.from(), window.to())
+                .concatMap(shopUnit -> loadChildren(List.of(shopUnit)).thenReturn(shopUnit))
+                .doOnNext(aggregateDeltaBuffer::mergePending);
+    }
+
+    /**
+     * Выполняет блокирующее чтение на пуле для блокирующих вызовов. Признак чтения с primary по токену
+     * согласованности хранится в потоке запроса, поэтому переносится в поток чтения.
+     *
+     * @param read чтение через {@link ShopUnitService}.
+     * @return результат чтения.
+     */
+    private static <T> Mono<T> blocking(Callable<T> read) {
+        boolean primaryRequired = ShopUnitReadRepository.isPrimaryRequired();
+        return Mono.fromCallable(() -> {
+            ShopUnitReadRepository.requirePrimary(primaryRequired);
+            try {
+                return read.call();
+            } finally {
+                ShopUnitReadRepository.requirePrimary(false);
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Дочитывает детей уровня и рекурсивно следующие уровни. Уровни читаются только по parentId, без rootId,
+     * поэтому на шардированной коллекции каждый уровень уходит на все шарды.
+     *
+     * @param level товары одного уровня поддерева.
+     * @return сигнал завершения загрузки.
+     */
+    private Mono<Void> loadChildren(List<ShopUnit> level) {
+        Map<String, ShopUnit> categories = new HashMap<>();
+        for (var shopUnit : level) {
+            if (shopUnit.getType() == ShopUnitType.OFFER) {
+                shopUnit.setChildren(null);
+            } else {
+                categories.put(shopUnit.getId(), shopUnit);
+            }
+        }
+        if (categories.isEmpty()) {
+            return Mono.empty();
+        }
+        return reactiveShopUnitRepository.findAllByParentIdIn(categories.keySet())
+                .doOnNext(child -> categories.get(child.getParentId()).getChildren().add(child))
+                .collectList()
+                .flatMap(this::loadChildren);
+    }
+}
@@ -0,0 +1,27 @@
+package com.karim.shopapi.services;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Промежуток запроса sales: последние 24 часа включительно перед заданной датой. Границы сравниваются
+ * не включительно, поэтому каждая раздвинута на секунду.
+ *
+ * @param from Начало промежутка(не включительно).
+ * @param to   Конец промежутка(не включительно).
+ */
+record SalesWindow(String from, String to) {
+
+    /**
+     * Вычисляет промежуток для даты в формате ISO 8601.
+     *
+     * @param dateTime заданная дата.
+     * @return промежуток.
+     */
+    static SalesWindow of(String dateTime) {
+        var toDateTime = LocalDateTime.parse(dateTime, DateTimeFormatter.ISO_DATE_TIME).plusSeconds(1);
+        var fromDateTime = toDateTime.minusDays(1).minusSeconds(1);
+        return new SalesWindow(fromDateTime.format(DateTimeFormatter.ISO_DATE_TIME),
+                toDateTime.format(DateTimeFormatter.ISO_DATE_TIME));
+    }
+}
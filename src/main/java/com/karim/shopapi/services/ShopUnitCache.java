@@ -0,0 +1,161 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ReadProperties;
+import com.karim.shopapi.models.ShopUnit;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Кеш поддеревьев для GET /nodes/{id}. Для каждого закешированного дерева запоминаются все его вершины,
+ * поэтому изменение товара сбрасывает деревья всех закешированных предков. Изменения со всех экземпляров
+ * сервиса приходят из потока изменений коллекции({@link ShopUnitChangeListener}), и пока он не открыт,
+ * кеш не используется.
+ */
+@Component
+public class ShopUnitCache {
+
+    /**
+     * Закешированное поддерево.
+     *
+     * @param shopUnit  корень поддерева
+     * @param expiresAt время, после которого поддерево читается заново, мс
+     */
+    private record Entry(ShopUnit shopUnit, long expiresAt) {
+    }
+
+    private final ReadProperties.Cache properties;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Идентификаторы закешированных деревьев, в которые входит товар. Меняется под блокировкой кеша.
+    private final Map<String, Set<String>> containingRoots = new HashMap<>();
+
+    // Увеличивается при каждом сбросе, чтобы не положить в кеш дерево, прочитанное до изменения.
+    private long version;
+
+    private volatile boolean active;
+
+    public ShopUnitCache(ReadProperties readProperties) {
+        this.properties = readProperties.getCache();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Получает поддерево из кеша или загружает его.
+     *
+     * @param id     идентификатор товара.
+     * @param loader загружает товар вместе с поддеревом.
+     * @return Искомый товар или пустой Optional, если товара нет.
+     */
+    public Optional<ShopUnit> get(String id, Function<String, Optional<ShopUnit>> loader) {
+        if (!active) {
+            return loader.apply(id);
+        }
+        var entry = entries.get(id);
+        if (entry != null && entry.expiresAt() > System.currentTimeMillis()) {
+            return Optional.of(entry.shopUnit());
+        }
+        long loadVersion = version();
+        var shopUnit = loader.apply(id);
+        shopUnit.ifPresent(loaded -> put(id, loaded, loadVersion));
+        return shopUnit;
+    }
+
+    /**
+     * Сбрасывает все закешированные деревья, в которые входит товар.
+     *
+     * @param id идентификатор измененного товара.
+     * @return кол-во сброшенных деревьев.
+     */
+    public synchronized int evict(String id) {
+        ++version;
+        var roots = containingRoots.get(id);
+        if (roots == null) {
+            return 0;
+        }
+        var evicted = List.copyOf(roots);
+        evicted.forEach(this::remove);
+        return evicted.size();
+    }
+
+    public synchronized void clear() {
+        ++version;
+        entries.clear();
+        containingRoots.clear();
+    }
+
+    /**
+     * Включает кеш, когда изменения начинают приходить, и выключает со сбросом, когда они могут теряться.
+     *
+     * @param active true, если поток изменений открыт.
+     */
+    public synchronized void setActive(boolean active) {
+        if (!active) {
+            clear();
+        }
+        this.active = active;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private synchronized long version() {
+        return version;
+    }
+
+    private synchronized void put(String id, ShopUnit shopUnit, long loadVersion) {
+        if (!active || loadVersion != version) {
+            return;
+        }
+        remove(id);
+        if (entries.size() >= properties.getMaxEntries()) {
+            long now = System.currentTimeMillis();
+            entries.entrySet().stream()
+                    .filter(entry -> entry.getValue().expiresAt() <= now)
+                    .map(Map.Entry::getKey)
+                    .toList()
+                    .forEach(this::remove);
+            if (entries.size() >= properties.getMaxEntries()) {
+                return;
+            }
+        }
+        entries.put(id, new Entry(shopUnit, System.currentTimeMillis() + properties.getTtlMs()));
+        forEachNode(shopUnit, node -> containingRoots.computeIfAbsent(node.getId(), key -> new HashSet<>()).add(id));
+    }
+
+    private void remove(String rootId) {
+        var entry = entries.remove(rootId);
+        if (entry == null) {
+            return;
+        }
+        forEachNode(entry.shopUnit(), node -> {
+            var roots = containingRoots.get(node.getId());
+            if (roots != null) {
+                roots.remove(rootId);
+                if (roots.isEmpty()) {
+                    containingRoots.remove(node.getId());
+                }
+            }
+        });
+    }
+
+    private static void forEachNode(ShopUnit root, Consumer<ShopUnit> action) {
+        Deque<ShopUnit> shopUnits = new ArrayDeque<>();
+        shopUnits.push(root);
+        while (!shopUnits.isEmpty()) {
+            var current = shopUnits.pop();
+            action.accept(current);
+            if (current.getChildren() != null) {
+                current.getChildren().forEach(shopUnits::push);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.metrics.StageRecorder;
+import com.karim.shopapi.models.ShopUnit;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Читает поток изменений коллекции товаров и сбрасывает затронутые деревья в {@link ShopUnitCache}.
+ * Изменения, сделанные любым экземпляром сервиса, доходят до всех экземпляров, поэтому их можно запускать
+ * несколько за балансировщиком. Поток изменений доступен только на наборе реплик. Если он обрывается,
+ * кеш очищается и не используется, пока поток не будет открыт заново.
+ */
+@Slf4j
+@Component
+public class ShopUnitChangeListener {
+
+    private static final long RETRY_INTERVAL_MS = 1000;
+
+    private final ShopUnitCache shopUnitCache;
+
+    private final MongoTemplate mongoTemplate;
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    public ShopUnitChangeListener(ShopUnitCache shopUnitCache, ObjectProvider<MongoTemplate> mongoTemplate) {
+        this.shopUnitCache = shopUnitCache;
+        this.mongoTemplate = mongoTemplate.getIfAvailable();
+    }
+
+    @PostConstruct
+    void start() {
+        if (!shopUnitCache.isEnabled() || mongoTemplate == null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "shop-unit-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    private void run() {
+        while (running) {
+            try (var cursor = watch()) {
+                shopUnitCache.setActive(true);
+                log.info("Watching {} for cache invalidation", mongoTemplate.getCollectionName(ShopUnit.class));
+                while (running) {
+                    var change = cursor.tryNext();
+                    if (change == null) {
+                        continue;
+                    }
+                    onChange(change);
+                    if (change.getOperationType() == OperationType.INVALIDATE) {
+                        // После invalidate сервер закрывает поток, поэтому он открывается заново.
+                        break;
+                    }
+                }
+            } catch (MongoException ex) {
+                shopUnitCache.setActive(false);
+                if (!running) {
+                    break;
+                }
+                log.warn("Change stream failed, shop unit cache is off until it reopens", ex);
+                try {
+                    Thread.sleep(RETRY_INTERVAL_MS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        shopUnitCache.setActive(false);
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> watch() {
+        // Для сброса достаточно идентификатора, поэтому сами документы в поток не попадают.
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(ShopUnit.class))
+                .watch(List.of(Aggregates.project(Projections.include("operationType", "documentKey"))))
+                .maxAwaitTime(1, TimeUnit.SECONDS)
+                .cursor();
+    }
+
+    /**
+     * Сбрасывает деревья, затронутые изменением. Изменение товара сбрасывает закешированные деревья его
+     * предков, удаление или переименование коллекции - весь кеш.
+     *
+     * @param change событие потока изменений.
+     */
+    void onChange(ChangeStreamDocument<Document> change) {
+        switch (change.getOperationType()) {
+            case INSERT, UPDATE, REPLACE, DELETE -> {
+                var id = change.getDocumentKey() == null ? null : change.getDocumentKey().get("_id");
+                if (id != null && id.isString()) {
+                    StageRecorder.record("shopapi.cache.evicted", shopUnitCache.evict(id.asString().getValue()));
+                } else {
+                    shopUnitCache.clear();
+                }
+            }
+            default -> shopUnitCache.clear();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.metrics.StageRecorder;
+import com.karim.shopapi.models.*;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Проверки входных данных, общие для всех способов хранения товаров.
+ */
+public final class ShopUnitImportValidator {
+
+    private ShopUnitImportValidator() {
+    }
+
+    private final static Pattern UUID_REGEX_PATTERN =
+            Pattern.compile("^[{]?[0-9a-fA-F]{8}-([0-9a-fA-F]{4}-){3}[0-9a-fA-F]{12}[}]?$");
+
+    /**
+     * Проверяет, что строка является идентификатором в формате UUID.
+     *
+     * @param str строка
+     * @return true, если строка в формате UUID, false - иначе.
+     */
+    public static boolean isValidUUID(String str) {
+        if (str == null) {
+            return false;
+        }
+        return UUID_REGEX_PATTERN.matcher(str).matches();
+    }
+
+    static private String generateShopUnitNotExistString(String id) {
+        return String.format("Shop unit with input id doesn't exist, input id = %s", id);
+    }
+
+    /**
+     * Сортирует вершины графа g в порядке top-sort.
+     *
+     * @param node         текущая вершина
+     * @param g            граф
+     * @param used         массив индикаторов использованных вершин.
+     * @param topSortOrder список вершин в порядке top-sort.
+     */
+    static void topSort(int node, List<List<Integer>> g, boolean[] used, List<Integer> topSortOrder) {
+        if (!used[node]) {
+            used[node] = true;
+            for (int u : g.get(node)) {
+                if (used[u]) {
+                    continue;
+                }
+                topSort(u, g, used, topSortOrder);
+            }
+            topSortOrder.add(node);
+        }
+    }
+
+    /**
+     * Валидирует тело поступившего import запроса и возвращает список индексов элементов
+     * из items в порядке top sort.
+     *
+     * @param shopUnitImportRequest Тело поступившего import запроса
+     * @param lookup                Источник уже сохраненных товаров
+     * @return список индексов элементов из items в порядке top sort
+     */
+    public static List<Integer> validateImport(ShopUnitImportRequest shopUnitImportRequest, ShopUnitLookup lookup) {
+        Map<String, ShopUnitType> idToShopUnitType;
+        idToShopUnitType = getIdToShopUnitTypeMap(shopUnitImportRequest);
+        validateDateIsInISO(shopUnitImportRequest.getUpdateDate());
+
+        Map<String, Integer> fromIdToIndex = new HashMap<>();
+        for (int i = 0; i < shopUnitImportRequest.getItems().size(); ++i) {
+            fromIdToIndex.put(shopUnitImportRequest.getItems().get(i).getId(), i);
+        }
+        List<List<Integer>> fromVToVertices = new ArrayList<>();
+        for (int i = 0; i < idToShopUnitType.size(); ++i) {
+            fromVToVertices.add(new ArrayList<>());
+        }
+
+        for (var item : shopUnitImportRequest.getItems()) {
+            // Проверяет, что индекс является UUID.
+            if (!isValidUUID(item.getId()) || (item.getParentId() != null && !isValidUUID(item.getParentId()))) {
+                throw new ApiException(String.format("id of item is not in UUID format, id = %s", item.getId()),
+                        ErrorType.VALIDATION);
+            }
+
+            // у категорий поле price должно содержать null
+            if (item.getType() == ShopUnitType.CATEGORY && item.getPrice() != null) {
+                throw new ApiException(String.format("price of category is not null, id = %s", item.getId()),
+                        ErrorType.VALIDATION);
+            }
+
+            // цена товара не может быть null и должна быть больше либо равна нулю.
+            if (item.getType() == ShopUnitType.OFFER && (item.getPrice() == null || item.getPrice() < 0)) {
+                throw new ApiException(String.format("price of OFFER should be not null and >= 0 integer, id = %s",
+                        item.getId()), ErrorType.VALIDATION);
+            }
+
+            if (lookup.existsById(item.getId())) {
+                ShopUnit oldShopUnit = lookup.findShopUnitById(item.getId())
+                        .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(item.getId()),
+                                ErrorType.VALIDATION));
+                // Изменение типа элемента с товара на категорию или с категории на товар не допускается
+                if (item.getType() != oldShopUnit.getType()) {
+                    throw new ApiException(String.format("Changing the type of shop unit is forbidden, id = %s",
+                            oldShopUnit.getId()), ErrorType.VALIDATION);
+                }
+
+                if (Objects.equals(item.getParentId(), oldShopUnit.getParentId())) {
+                    continue;
+                }
+                if (item.getParentId() != null) {
+                    if (idToShopUnitType.containsKey(item.getParentId())) {
+                        // родителем товара или категории может быть только категория
+                        if (idToShopUnitType.get(item.getParentId()) != ShopUnitType.CATEGORY) {
+                            throw new ApiException(String.format("Only the category can be a parent, new " +
+                                    "parent id = %s", item.getParentId()), ErrorType.VALIDATION);
+                        }
+                        fromVToVertices.get(fromIdToIndex.get(item.getParentId()))
+                                .add(fromIdToIndex.get(item.getId()));
+                    } else {
+                        var newParent = lookup.findShopUnitById(item.getParentId())
+                                .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(
+                                        item.getParentId()), ErrorType.VALIDATION));
+
+                        // родителем товара или категории может быть только категория
+                        if (newParent.getType() != ShopUnitType.CATEGORY) {
+                            throw new ApiException(String.format("Only the category can be a parent, new parent" +
+                                    " id = %s", newParent.getId()), ErrorType.VALIDATION);
+                        }
+                    }
+                }
+            } else {
+                if (item.getParentId() != null) {
+                    if (idToShopUnitType.containsKey(item.getParentId())) {
+                        if (idToShopUnitType.get(item.getParentId()) != ShopUnitType.CATEGORY) {
+                            throw new ApiException(String.format("Only the category can be a parent, new parent" +
+                                    " id = %s", item.getParentId()), ErrorType.VALIDATION);
+                        }
+                        fromVToVertices.get(fromIdToIndex.get(item.getParentId()))
+                                .add(fromIdToIndex.get(item.getId()));
+                    } else {
+                        ShopUnit parent = lookup.findShopUnitById(item.getParentId())
+                                .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(item.getParentId()),
+                                        ErrorType.VALIDATION));
+
+                        // родителем товара или категории может быть только категория
+                        if (parent.getType() != ShopUnitType.CATEGORY) {
+                            throw new ApiException(String.format("Only the category can be a parent, new parent" +
+                                    " id = %s", parent.getId()), ErrorType.VALIDATION);
+                        }
+                    }
+                }
+            }
+        }
+
+        return StageRecorder.time("topsort", () -> {
+            boolean[] used = new boolean[idToShopUnitType.size()];
+            List<Integer> topSortOrder = new ArrayList<>();
+            for (int i = 0; i < idToShopUnitType.size(); ++i) {
+                topSort(i, fromVToVertices, used, topSortOrder);
+            }
+            Collections.reverse(topSortOrder);
+            return topSortOrder;
+        });
+    }
+
+    /**
+     * Генерирует словарь (id, ShopUnit) по списку ShopUnit'ов.
+     *
+     * @param shopUnitImportRequest тело запроса import со списком ShopUnit'ов
+     * @return словарь (id, ShopUnit)
+     * @throws ApiException исключение, если невозможно сгенерировать словарь.
+     */
+    private static Map<String, ShopUnitType> getIdToShopUnitTypeMap(ShopUnitImportRequest shopUnitImportRequest)
+            throws ApiException {
+        Map<String, ShopUnitType> idToShopUnitType;
+        try {
+            idToShopUnitType = shopUnitImportRequest.getItems().stream()
+                    .collect(Collectors.toMap(ShopUnitImport::getId, ShopUnitImport::getType));
+        } catch (IllegalStateException ex) {
+            // в одном запросе не может быть двух элементов с одинаковым id
+            throw new ApiException("2 shop units with equal id",
+                    ErrorType.VALIDATION);
+        }
+        return idToShopUnitType;
+    }
+
+    /**
+     * Проверяет, что импорт товара ничего не изменит: название, родитель, цена товара и дата обновления
+     * совпадают с сохраненными.
+     *
+     * @param item       товар из запроса
+     * @param shopUnit   сохраненный товар
+     * @param updateDate дата обновления из запроса
+     * @return true, если импорт товара ничего не изменит, false - иначе.
+     */
+    public static boolean isUnchanged(ShopUnitImport item, ShopUnit shopUnit, String updateDate) {
+        return Objects.equals(updateDate, shopUnit.getDate()) &&
+                Objects.equals(item.getName(), shopUnit.getName()) &&
+                Objects.equals(item.getParentId(), shopUnit.getParentId()) &&
+                item.getType() == shopUnit.getType() &&
+                (item.getType() != ShopUnitType.OFFER || Objects.equals(item.getPrice(), shopUnit.getPrice()));
+    }
+
+    /**
+     * Проверяет, что дата в формате ISO 8601.
+     *
+     * @param updateDate дата
+     * @throws ApiException исключение, если дата не в формате ISO 8601.
+     */
+    public static void validateDateIsInISO(String updateDate) throws ApiException {
+        if (updateDate != null) {
+            try {
+                LocalDateTime.parse(updateDate, DateTimeFormatter.ISO_DATE_TIME);
+            } catch (DateTimeParseException ex) {
+                throw new ApiException(String.format("date is not in ISO 8601 format: %s", updateDate),
+                        ErrorType.VALIDATION);
+            }
+        } else {
+            throw new ApiException(String.format("date is not in ISO 8601 format: %s", updateDate),
+                    ErrorType.VALIDATION);
+        }
+    }
+}
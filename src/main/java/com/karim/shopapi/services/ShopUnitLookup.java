@@ -0,0 +1,47 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+
+import java.util.Optional;
+
+/**
+ * Источник уже сохраненных товаров, по которому валидируется import запрос.
+ */
+public interface ShopUnitLookup {
+    /**
+     * Проверяет, существует ли товар с заданным идентификатором.
+     *
+     * @param id идентификатор товара.
+     * @return true, если товар существует, false - иначе.
+     */
+    boolean existsById(String id);
+
+    /**
+     * Получает товар по идентификатору.
+     *
+     * @param id идентификатор товара.
+     * @return Искомый товар.
+     */
+    Optional<ShopUnit> findShopUnitById(String id);
+
+    /**
+     * Создает источник товаров, обращающийся к бд.
+     *
+     * @param shopUnitRepository репозиторий товаров.
+     * @return источник товаров.
+     */
+    static ShopUnitLookup of(ShopUnitRepository shopUnitRepository) {
+        return new ShopUnitLookup() {
+            @Override
+            public boolean existsById(String id) {
+                return shopUnitRepository.existsById(id);
+            }
+
+            @Override
+            public Optional<ShopUnit> findShopUnitById(String id) {
+                return shopUnitRepository.findShopUnitById(id);
+            }
+        };
+    }
+}
@@ -1,38 +1,91 @@
 package com.karim.shopapi.services;
 
+import com.karim.shopapi.config.AggregateReadModelProperties;
+import com.karim.shopapi.config.AggregateWriteBehindProperties;
+import com.karim.shopapi.config.CatalogueEngineProperties;
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.config.ReadProperties;
+import com.karim.shopapi.engine.CatalogueEngine;
 import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.metrics.StageRecorder;
 import com.karim.shopapi.models.*;
+import com.karim.shopapi.repositories.ImportWrites;
+import com.karim.shopapi.repositories.ShopUnitReadRepository;
 import com.karim.shopapi.repositories.ShopUnitRepository;
-import lombok.AllArgsConstructor;
 import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
+import javax.annotation.PreDestroy;
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * Сервис, переводящий запросы контроллера в запросы к базе данных.
  */
-@AllArgsConstructor
 @Service
 public class ShopUnitService {
 
     private final ShopUnitRepository shopUnitRepository;
 
+    // Чтения GET /nodes/{id} и /sales, которые можно обслужить с реплик.
+    private final ShopUnitReadRepository shopUnitReadRepository;
+
+    private final AggregateDeltaBuffer aggregateDeltaBuffer;
+
+    private final CatalogueEngine catalogueEngine;
+
+    private final SubtreeLoader subtreeLoader;
+
+    private final ShopUnitCache shopUnitCache;
+
+    private final AggregateReadModel aggregateReadModel;
+
+    private final ImportCoalescer importCoalescer;
+
+    private final ImportDigestStore importDigestStore;
+
     private final ModelMapper modelMapper = new ModelMapper();
 
-    private final static Pattern UUID_REGEX_PATTERN =
-            Pattern.compile("^[{]?[0-9a-fA-F]{8}-([0-9a-fA-F]{4}-){3}[0-9a-fA-F]{12}[}]?$");
+    public ShopUnitService(ShopUnitRepository shopUnitRepository) {
+        this(shopUnitRepository, new AggregateDeltaBuffer(shopUnitRepository, new AggregateWriteBehindProperties()),
+                new CatalogueEngine(shopUnitRepository, new CatalogueEngineProperties()), new ImportProperties(),
+                new SubtreeLoader(shopUnitRepository, new ReadProperties()));
+    }
 
-    private static boolean isValidUUID(String str) {
-        if (str == null) {
-            return false;
-        }
-        return UUID_REGEX_PATTERN.matcher(str).matches();
+    public ShopUnitService(ShopUnitRepository shopUnitRepository, AggregateDeltaBuffer aggregateDeltaBuffer,
+                           CatalogueEngine catalogueEngine, ImportProperties importProperties,
+                           SubtreeLoader subtreeLoader) {
+        this(shopUnitRepository, new ShopUnitReadRepository(shopUnitRepository), aggregateDeltaBuffer,
+                catalogueEngine, importProperties, subtreeLoader);
+    }
+
+    public ShopUnitService(ShopUnitRepository shopUnitRepository, ShopUnitReadRepository shopUnitReadRepository,
+                           AggregateDeltaBuffer aggregateDeltaBuffer, CatalogueEngine catalogueEngine,
+                           ImportProperties importProperties, SubtreeLoader subtreeLoader) {
+        this(shopUnitRepository, shopUnitReadRepository, aggregateDeltaBuffer, catalogueEngine, importProperties,
+                subtreeLoader, new ShopUnitCache(new ReadProperties()),
+                new AggregateReadModel(shopUnitRepository, new AggregateReadModelProperties()));
+    }
+
+    @Autowired
+    public ShopUnitService(ShopUnitRepository shopUnitRepository, ShopUnitReadRepository shopUnitReadRepository,
+                           AggregateDeltaBuffer aggregateDeltaBuffer, CatalogueEngine catalogueEngine,
+                           ImportProperties importProperties, SubtreeLoader subtreeLoader,
+                           ShopUnitCache shopUnitCache, AggregateReadModel aggregateReadModel) {
+        this.shopUnitRepository = shopUnitRepository;
+        this.shopUnitReadRepository = shopUnitReadRepository;
+        this.aggregateDeltaBuffer = aggregateDeltaBuffer;
+        this.catalogueEngine = catalogueEngine;
+        this.subtreeLoader = subtreeLoader;
+        this.shopUnitCache = shopUnitCache;
+        this.aggregateReadModel = aggregateReadModel;
+        this.importCoalescer = new ImportCoalescer(this, importProperties.getCoalescing());
+        this.importDigestStore = new ImportDigestStore(importProperties.getDedup());
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        importCoalescer.close();
     }
 
     /**
@@ -42,50 +95,180 @@ public class ShopUnitService {
      * @return Искомый товар.
      */
     public ShopUnit getShopUnitById(String id) {
-        if (!isValidUUID(id)) {
+        if (!ShopUnitImportValidator.isValidUUID(id)) {
             throw new ApiException(String.format("id is not in UUID format, id = %s", id),
                     ErrorType.VALIDATION);
         }
-        var shopUnit = shopUnitRepository.findShopUnitById(id)
+        if (catalogueEngine.isEnabled()) {
+            return recordTreeSize(catalogueEngine.getShopUnitById(id));
+        }
+        // Закешированное дерево общее для всех запросов, поэтому в него нельзя добавлять агрегаты из буфера.
+        // Клиент с токеном согласованности читает мимо кеша, чтобы сразу увидеть свои изменения.
+        var shopUnit = (shopUnitCache.isEnabled() && !aggregateDeltaBuffer.isEnabled() &&
+                !ShopUnitReadRepository.isPrimaryRequired() ? shopUnitCache.get(id, this::loadCachedShopUnit)
+                : loadShopUnit(id))
                 .orElseThrow(() -> new ApiException(id));
-        convertEmptyChildrenListToNull(shopUnit);
-        return shopUnit;
+        aggregateDeltaBuffer.mergePending(shopUnit);
+        return recordTreeSize(shopUnit);
     }
 
     /**
-     * Переводит пустые списки children в null у товаров типа OFFER.
+     * Записывает кол-во товаров в возвращаемом дереве в метрику shopapi.nodes.tree.size.
      *
-     * @param shopUnit Корневой товар, с которого начинается обработка.
+     * @param shopUnit корень дерева.
+     * @return Переданный товар.
      */
-    private void convertEmptyChildrenListToNull(ShopUnit shopUnit) {
-        Stack<ShopUnit> shopUnits = new Stack<>();
+    static ShopUnit recordTreeSize(ShopUnit shopUnit) {
+        int size = 0;
+        Deque<ShopUnit> shopUnits = new ArrayDeque<>();
         shopUnits.push(shopUnit);
-        while (!shopUnits.empty()) {
-            var current = shopUnits.peek();
-            shopUnits.pop();
-            if (current.getType() == ShopUnitType.OFFER) {
-                current.setChildren(null);
-            } else {
-                for (var child : current.getChildren()) {
-                    shopUnits.push(child);
-                }
+        while (!shopUnits.isEmpty()) {
+            var current = shopUnits.pop();
+            ++size;
+            if (current.getChildren() != null) {
+                current.getChildren().forEach(shopUnits::push);
             }
         }
+        StageRecorder.record("shopapi.nodes.tree.size", size);
+        return shopUnit;
+    }
+
+    /**
+     * @return true, если чтения идут с реплик или через кеш поддеревьев. Неблокирующие чтения тогда выполняются
+     * через этот сервис, чтобы к ним применялись те же маршрутизация, токен согласованности и кеш.
+     */
+    boolean isReadRouted() {
+        return shopUnitReadRepository.isRoutedToReplicas() || shopUnitCache.isEnabled();
+    }
+
+    /**
+     * Загружает дерево для кеша с primary. Дерево с отстающей реплики могло быть прочитано уже после сброса
+     * кеша по его изменению и осталось бы в кеше устаревшим до конца ttl.
+     */
+    private Optional<ShopUnit> loadCachedShopUnit(String id) {
+        ShopUnitReadRepository.requirePrimary(true);
+        try {
+            return loadShopUnit(id);
+        } finally {
+            ShopUnitReadRepository.requirePrimary(false);
+        }
+    }
+
+    private Optional<ShopUnit> loadShopUnit(String id) {
+        return StageRecorder.time("read", () -> subtreeLoader.isEnabled() ? subtreeLoader.load(id)
+                : shopUnitReadRepository.get().findShopUnitById(id));
     }
 
     static private String generateShopUnitNotExistString(String id) {
         return String.format("Shop unit with input id doesn't exist, input id = %s", id);
     }
 
+    /**
+     * Проверяет запрос import, не применяя его.
+     *
+     * @param shopUnitImportRequest Запрос, содержащий новые или обновленные товары.
+     * @return список индексов элементов из items в порядке top sort.
+     */
+    public List<Integer> validateImport(ShopUnitImportRequest shopUnitImportRequest) {
+        if (catalogueEngine.isEnabled()) {
+            return catalogueEngine.validateImport(shopUnitImportRequest);
+        }
+        return ShopUnitImportValidator.validateImport(shopUnitImportRequest, ShopUnitLookup.of(shopUnitRepository));
+    }
+
     /**
      * Обновляет или добавляет новый товар.
      *
      * @param shopUnitImportRequest Запрос, содержащий новые или обновленные товары.
      */
     public void importShopUnit(ShopUnitImportRequest shopUnitImportRequest) {
+        String digest = null;
+        long digestGeneration = 0;
+        if (importDigestStore.isEnabled()) {
+            digest = ImportDigestStore.digest(shopUnitImportRequest);
+            digestGeneration = importDigestStore.generation();
+            if (importDigestStore.contains(digest)) {
+                // Повтор недавно примененного запроса ничего не изменит.
+                return;
+            }
+        }
+        try {
+            if (catalogueEngine.isEnabled()) {
+                catalogueEngine.importShopUnit(shopUnitImportRequest);
+            } else if (importCoalescer.isEnabled()) {
+                importCoalescer.importShopUnit(shopUnitImportRequest);
+            } else {
+                importShopUnit(shopUnitImportRequest, null);
+            }
+        } catch (RuntimeException ex) {
+            if (digest != null) {
+                // Запрос мог успеть изменить часть товаров.
+                importDigestStore.forget(ImportDigestStore.ids(shopUnitImportRequest));
+            }
+            throw ex;
+        }
+        if (digest != null) {
+            // Отпечатки прошлых запросов с этими товарами больше не описывают их состояние.
+            importDigestStore.add(digest, ImportDigestStore.ids(shopUnitImportRequest), digestGeneration);
+        }
+    }
+
+    /**
+     * Применяет пакет import запросов, пришедших почти одновременно. Каждый запрос валидируется и применяется
+     * отдельно, а изменения агрегатов общих предков копятся и записываются в бд один раз на пакет.
+     *
+     * @param shopUnitImportRequests запросы в порядке поступления.
+     * @return ошибки запросов в том же порядке, null для успешно примененных.
+     */
+    List<RuntimeException> importShopUnitBatch(List<ShopUnitImportRequest> shopUnitImportRequests) {
+        var batch = new ImportBatch();
+        List<RuntimeException> errors = new ArrayList<>(shopUnitImportRequests.size());
+        for (var shopUnitImportRequest : shopUnitImportRequests) {
+            try {
+                importShopUnit(shopUnitImportRequest, batch);
+                errors.add(null);
+            } catch (RuntimeException ex) {
+                // Изменения предыдущих запросов пакета все равно записываются.
+                errors.add(ex);
+            }
+        }
+        ImportWrites.run(() -> {
+            for (var entry : batch.pending().entrySet()) {
+                var delta = entry.getValue();
+                if (aggregateDeltaBuffer.isEnabled()) {
+                    aggregateDeltaBuffer.add(entry.getKey(), delta.rootId(), delta.priceDelta(),
+                            delta.offersCntDelta(), delta.date());
+                } else {
+                    shopUnitRepository.incrementAggregates(entry.getKey(), delta.rootId(), delta.priceDelta(),
+                            delta.offersCntDelta(), delta.date());
+                }
+            }
+        });
+        return errors;
+    }
+
+    /**
+     * Обновляет или добавляет новый товар.
+     *
+     * @param shopUnitImportRequest Запрос, содержащий новые или обновленные товары.
+     * @param batch                 пакет, в котором копятся изменения агрегатов предков, или null.
+     */
+    private void importShopUnit(ShopUnitImportRequest shopUnitImportRequest, ImportBatch batch) {
         // Получает индексы в порядке top-sort для того, чтобы правильно обработать товары: сначала будут
         // добавляться или обновляться те, у которых нет родителей, а затем - те, у которых есть родители.
-        List<Integer> topSortOrderedIndexes = validateImport(shopUnitImportRequest);
+        int items = shopUnitImportRequest.getItems().size();
+        List<Integer> topSortOrderedIndexes;
+        try (var stage = StageRecorder.start("validate").attribute(StageRecorder.ITEMS, items)) {
+            topSortOrderedIndexes = ShopUnitImportValidator.validateImport(shopUnitImportRequest,
+                    ShopUnitLookup.of(shopUnitRepository));
+        }
+        try (var stage = StageRecorder.start("apply").attribute(StageRecorder.ITEMS, items)) {
+            ImportWrites.run(() -> applyImport(shopUnitImportRequest, topSortOrderedIndexes, batch));
+        }
+    }
+
+    private void applyImport(ShopUnitImportRequest shopUnitImportRequest, List<Integer> topSortOrderedIndexes,
+                             ImportBatch batch) {
         for (int i : topSortOrderedIndexes) {
             var item = shopUnitImportRequest.getItems().get(i);
             if (shopUnitRepository.existsById(item.getId())) {
@@ -94,9 +277,13 @@ public class ShopUnitService {
                 // Обновляет дату
                 updatedItem.setDate(shopUnitImportRequest.getUpdateDate());
 
-                ShopUnit oldShopUnit = shopUnitRepository.findShopUnitById(item.getId())
+                ShopUnit oldShopUnit = findShopUnitById(item.getId(), batch)
                         .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(item.getId()),
                                 ErrorType.VALIDATION));
+                if (ShopUnitImportValidator.isUnchanged(item, oldShopUnit, updatedItem.getDate())) {
+                    // Товар уже в этом состоянии, поэтому ни он, ни его предки не перезаписываются.
+                    continue;
+                }
                 // Восстанавливаем количество детей, их суммарную стоимость и цену категории.
                 if (updatedItem.getType() == ShopUnitType.CATEGORY) {
                     updatedItem.setChildrenOffersCnt(oldShopUnit.getChildrenOffersCnt());
@@ -109,99 +296,109 @@ public class ShopUnitService {
                 }
                 if (updatedItem.getParentId() != null) {
                     if (oldShopUnit.getParentId() != null) {
-                        var oldParent = shopUnitRepository.findShopUnitById(oldShopUnit.getParentId())
+                        var oldParent = findShopUnitById(oldShopUnit.getParentId(), batch)
                                 .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(
                                         oldShopUnit.getParentId()), ErrorType.VALIDATION));
                         // Проверяет, не изменился ли у обновленного объекта родитель.
                         if (!Objects.equals(updatedItem.getParentId(), oldShopUnit.getParentId())) {
-                            var newParent = shopUnitRepository.findShopUnitById(updatedItem.getParentId())
-                                    .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(
-                                            updatedItem.getParentId()), ErrorType.VALIDATION));
                             // Удаляет shopUnit из детей старого родителя.
-                            oldParent.getChildren().remove(oldShopUnit);
+                            removeChild(oldParent, oldShopUnit);
                             // Уменьшает суммарную стоимость старого родителя на price shopUnit'a, если это товар, или
                             // на childrenPriceSum если это категория.
                             if (oldShopUnit.getType() == ShopUnitType.CATEGORY) {
                                 pushItemPrice(-oldShopUnit.getChildrenPriceSum(), -oldShopUnit.getChildrenOffersCnt(),
-                                        updatedItem.getDate(), oldParent, false);
+                                        updatedItem.getDate(), oldParent, false, batch);
                             } else {
                                 pushItemPrice(-oldShopUnit.getPrice(), -1, updatedItem.getDate(),
-                                        oldParent, false);
+                                        oldParent, false, batch);
                             }
+                            // Сохраняет изменения, произведенные со старым родителем в бд.
+                            save(oldParent, batch);
 
-                            // TODO можно объединить с предыдущим if else блоком
+                            // Новый родитель читается после записи старого, так как один из них может быть
+                            // предком другого.
+                            var newParent = findShopUnitById(updatedItem.getParentId(), batch)
+                                    .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(
+                                            updatedItem.getParentId()), ErrorType.VALIDATION));
                             newParent.getChildren().add(updatedItem);
                             if (updatedItem.getType() == ShopUnitType.OFFER) {
                                 pushItemPrice(updatedItem.getPrice(), 1, updatedItem.getDate(),
-                                        newParent, false);
+                                        newParent, false, batch);
                             } else {
-                                pushItemPrice(updatedItem.getChildrenPriceSum(), 0,
-                                        updatedItem.getDate(), newParent, false);
+                                pushItemPrice(updatedItem.getChildrenPriceSum(), updatedItem.getChildrenOffersCnt(),
+                                        updatedItem.getDate(), newParent, false, batch);
                             }
+                            save(newParent, batch);
                         } else {
-                            oldParent.getChildren().remove(oldShopUnit);
-                            oldParent.getChildren().add(updatedItem);
+                            // Родитель не изменился: список его детей остается прежним, меняются только агрегаты.
                             if (updatedItem.getType() == ShopUnitType.OFFER) {
                                 pushItemPrice(updatedItem.getPrice() - oldShopUnit.getPrice(), 0,
-                                        updatedItem.getDate(), oldParent, false);
+                                        updatedItem.getDate(), oldParent, false, batch);
                             } else {
                                 pushItemPrice(updatedItem.getChildrenPriceSum() -
                                                 oldShopUnit.getChildrenPriceSum(), -oldShopUnit.getChildrenOffersCnt(),
-                                        updatedItem.getDate(), oldParent, false);
+                                        updatedItem.getDate(), oldParent, false, batch);
                             }
+                            updateAggregates(oldParent, batch);
                         }
-                        // Сохраняет изменения, произведенные со старым родителем в бд.
-                        shopUnitRepository.save(oldParent);
                     } else {
-                        var newParent = shopUnitRepository.findShopUnitById(updatedItem.getParentId())
+                        var newParent = findShopUnitById(updatedItem.getParentId(), batch)
                                 .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(
                                         updatedItem.getParentId()), ErrorType.VALIDATION));
 
                         newParent.getChildren().add(updatedItem);
                         if (updatedItem.getType() == ShopUnitType.OFFER) {
                             pushItemPrice(updatedItem.getPrice(), 1, updatedItem.getDate(),
-                                    newParent, false);
+                                    newParent, false, batch);
                         } else {
                             pushItemPrice(updatedItem.getChildrenPriceSum(), updatedItem.getChildrenOffersCnt(),
-                                    updatedItem.getDate(), newParent, false);
+                                    updatedItem.getDate(), newParent, false, batch);
                         }
-                        shopUnitRepository.save(newParent);
+                        save(newParent, batch);
                     }
                 } else {
                     if (oldShopUnit.getParentId() != null) {
-                        var oldParent = shopUnitRepository.findShopUnitById(oldShopUnit.getParentId())
+                        var oldParent = findShopUnitById(oldShopUnit.getParentId(), batch)
                                 .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(
                                         oldShopUnit.getParentId()), ErrorType.VALIDATION));
-                        oldParent.getChildren().remove(oldShopUnit);
+                        removeChild(oldParent, oldShopUnit);
                         if (oldShopUnit.getType() == ShopUnitType.OFFER) {
                             pushItemPrice(-oldShopUnit.getPrice(), -1, updatedItem.getDate(),
-                                    oldParent, false);
+                                    oldParent, false, batch);
                         } else {
                             pushItemPrice(-oldShopUnit.getChildrenPriceSum(), -oldShopUnit.getChildrenOffersCnt(),
-                                    updatedItem.getDate(), oldParent, false);
+                                    updatedItem.getDate(), oldParent, false, batch);
                         }
                         // Сохраняет изменения, произведенные со старым родителем в бд.
-                        shopUnitRepository.save(oldParent);
+                        save(oldParent, batch);
                     }
                 }
-                shopUnitRepository.save(updatedItem);
+                updatedItem.setRootId(rootIdOf(updatedItem, oldShopUnit, batch));
+                if (!Objects.equals(updatedItem.getRootId(), oldShopUnit.getRootId())) {
+                    // Ключ шардирования не меняется при сохранении, поэтому поддерево переносится отдельно.
+                    shopUnitRepository.moveSubtreeToRoot(updatedItem.getId(), oldShopUnit.getRootId(),
+                            updatedItem.getRootId());
+                }
+                save(updatedItem, batch);
             } else {
                 var newItem = modelMapper.map(item, ShopUnit.class);
                 newItem.setDate(shopUnitImportRequest.getUpdateDate());
+                newItem.setRootId(newItem.getId());
                 if (item.getParentId() != null) {
-                    ShopUnit parent = shopUnitRepository.findShopUnitById(item.getParentId())
+                    ShopUnit parent = findShopUnitById(item.getParentId(), batch)
                             .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(item.getParentId()),
                                     ErrorType.VALIDATION));
+                    newItem.setRootId(parent.getRootId());
 
                     // Проталкивает цену нового shopUnit'a вверх родителю пока родитель не станет null.
                     if (newItem.getType() == ShopUnitType.OFFER) {
-                        pushItemPrice(newItem.getPrice(), 1, newItem.getDate(), parent, false);
+                        pushItemPrice(newItem.getPrice(), 1, newItem.getDate(), parent, false, batch);
                     } else {
                         pushItemPrice(newItem.getChildrenPriceSum(), newItem.getChildrenOffersCnt(), newItem.getDate(),
-                                parent, false);
+                                parent, false, batch);
                     }
                     parent.getChildren().add(newItem);
-                    shopUnitRepository.save(parent);
+                    save(parent, batch);
                 }
                 shopUnitRepository.insert(newItem);
             }
@@ -219,6 +416,30 @@ public class ShopUnitService {
      */
     protected void pushItemPrice(long price, long childrenOffersCnt, String updateTime, ShopUnit parent,
                                  boolean delete) {
+        pushItemPrice(price, childrenOffersCnt, updateTime, parent, delete, null);
+    }
+
+    private void pushItemPrice(long price, long childrenOffersCnt, String updateTime, ShopUnit parent,
+                               boolean delete, ImportBatch batch) {
+        if (aggregateReadModel.isEnabled()) {
+            // Агрегаты родителя и предков пересчитает потребитель потока изменений.
+            return;
+        }
+        try (var stage = StageRecorder.start("propagate")) {
+            int ancestors = 1 + pushItemPriceToAncestors(price, childrenOffersCnt, updateTime, parent, delete, batch);
+            stage.attribute(StageRecorder.DEPTH, ancestors);
+            StageRecorder.record("shopapi.propagate.ancestors", ancestors);
+        }
+    }
+
+    /**
+     * Обновляет агрегаты родителя и всех его предков.
+     *
+     * @return кол-во обновленных предков родителя.
+     */
+    private int pushItemPriceToAncestors(long price, long childrenOffersCnt, String updateTime, ShopUnit parent,
+                                         boolean delete, ImportBatch batch) {
+        int ancestors = 0;
         parent.setChildrenPriceSum(parent.getChildrenPriceSum() + price);
         if (!delete) {
             parent.setDate(updateTime);
@@ -229,13 +450,18 @@ public class ShopUnitService {
         } else {
             parent.setPrice(null);
         }
+        if (aggregateDeltaBuffer.isEnabled()) {
+            // Сам родитель сохраняется без агрегатов, поэтому их изменение тоже идет через буфер.
+            addDelta(parent, price, childrenOffersCnt, delete ? null : updateTime, batch);
+        }
         var current = parent;
         while (current.getParentId() != null) {
             var child = current;
             var currentParentId = current.getParentId();
-            current = shopUnitRepository.findShopUnitById(current.getParentId())
+            current = findShopUnitById(current.getParentId(), batch)
                     .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(currentParentId),
                             ErrorType.VALIDATION));
+            ++ancestors;
             current.setChildrenPriceSum(current.getChildrenPriceSum() + price);
             current.setChildrenOffersCnt(current.getChildrenOffersCnt() + childrenOffersCnt);
             if (!delete) {
@@ -246,226 +472,160 @@ public class ShopUnitService {
             } else {
                 current.setPrice(null);
             }
-            shopUnitRepository.save(current);
+            if (batch != null || aggregateDeltaBuffer.isEnabled()) {
+                addDelta(current, price, childrenOffersCnt, delete ? null : updateTime, batch);
+            } else {
+                // У предков меняются только агрегаты, поэтому документ целиком не перезаписывается.
+                shopUnitRepository.updateAggregates(current);
+            }
         }
+        return ancestors;
     }
 
-    /**
-     * Сортирует вершины графа g в порядке top-sort.
-     *
-     * @param node         текущая вершина
-     * @param g            граф
-     * @param used         массив индикаторов использованных вершин.
-     * @param topSortOrder список вершин в порядке top-sort.
-     */
-    private static void topSort(int node, List<List<Integer>> g, boolean[] used, List<Integer> topSortOrder) {
-        if (!used[node]) {
-            used[node] = true;
-            for (int u : g.get(node)) {
-                if (used[u]) {
-                    continue;
-                }
-                topSort(u, g, used, topSortOrder);
-            }
-            topSortOrder.add(node);
+    private void addDelta(ShopUnit category, long price, long childrenOffersCnt, String date, ImportBatch batch) {
+        if (batch != null) {
+            // Изменение агрегатов запишется в бд вместе с остальными запросами пакета.
+            batch.add(category.getId(), category.getRootId(), price, childrenOffersCnt, date);
+        } else {
+            // Изменение агрегатов копится в памяти и попадет в бд при ближайшем сбросе буфера.
+            aggregateDeltaBuffer.add(category.getId(), category.getRootId(), price, childrenOffersCnt, date);
         }
     }
 
     /**
-     * Валидирует тело поступившего import запроса и возвращает список индексов элементов
-     * из items в порядке top sort.
+     * Определяет корень дерева, в котором окажется обновленный товар.
      *
-     * @param shopUnitImportRequest Тело поступившего import запроса
-     * @return список индексов элементов из items в порядке top sort
+     * @param updatedItem товар после обновления.
+     * @param oldShopUnit товар до обновления.
+     * @param batch       пакет, в котором копятся изменения агрегатов предков, или null.
+     * @return идентификатор корня.
      */
-    private List<Integer> validateImport(ShopUnitImportRequest shopUnitImportRequest) {
-        Map<String, ShopUnitType> idToShopUnitType;
-        idToShopUnitType = getIdToShopUnitTypeMap(shopUnitImportRequest);
-        validateDateIsInISO(shopUnitImportRequest.getUpdateDate());
-
-        Map<String, Integer> fromIdToIndex = new HashMap<>();
-        for (int i = 0; i < shopUnitImportRequest.getItems().size(); ++i) {
-            fromIdToIndex.put(shopUnitImportRequest.getItems().get(i).getId(), i);
+    private String rootIdOf(ShopUnit updatedItem, ShopUnit oldShopUnit, ImportBatch batch) {
+        if (updatedItem.getParentId() == null) {
+            return updatedItem.getId();
         }
-        List<List<Integer>> fromVToVertices = new ArrayList<>();
-        for (int i = 0; i < idToShopUnitType.size(); ++i) {
-            fromVToVertices.add(new ArrayList<>());
+        if (Objects.equals(updatedItem.getParentId(), oldShopUnit.getParentId())) {
+            return oldShopUnit.getRootId();
         }
+        return findShopUnitById(updatedItem.getParentId(), batch).map(ShopUnit::getRootId).orElse(null);
+    }
 
-        for (var item : shopUnitImportRequest.getItems()) {
-            // Проверяет, что индекс является UUID.
-            if (!isValidUUID(item.getId()) || (item.getParentId() != null && !isValidUUID(item.getParentId()))) {
-                throw new ApiException(String.format("id of item is not in UUID format, id = %s", item.getId()),
-                        ErrorType.VALIDATION);
-            }
-
-            // у категорий поле price должно содержать null
-            if (item.getType() == ShopUnitType.CATEGORY && item.getPrice() != null) {
-                throw new ApiException(String.format("price of category is not null, id = %s", item.getId()),
-                        ErrorType.VALIDATION);
-            }
-
-            // цена товара не может быть null и должна быть больше либо равна нулю.
-            if (item.getType() == ShopUnitType.OFFER && (item.getPrice() == null || item.getPrice() < 0)) {
-                throw new ApiException(String.format("price of OFFER should be not null and >= 0 integer, id = %s",
-                        item.getId()), ErrorType.VALIDATION);
-            }
-
-            if (shopUnitRepository.existsById(item.getId())) {
-                var updatedItem = modelMapper.map(item, ShopUnit.class);
-                ShopUnit oldShopUnit = shopUnitRepository.findShopUnitById(item.getId())
-                        .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(item.getId()),
-                                ErrorType.VALIDATION));
-                // Изменение типа элемента с товара на категорию или с категории на товар не допускается
-                if (updatedItem.getType() != oldShopUnit.getType()) {
-                    throw new ApiException(String.format("Changing the type of shop unit is forbidden, id = %s",
-                            oldShopUnit.getId()), ErrorType.VALIDATION);
-                }
-
-                if (Objects.equals(updatedItem.getParentId(), oldShopUnit.getParentId())) {
-                    continue;
-                }
-                if (updatedItem.getParentId() != null) {
-                    if (idToShopUnitType.containsKey(updatedItem.getParentId())) {
-                        // родителем товара или категории может быть только категория
-                        if (idToShopUnitType.get(updatedItem.getParentId()) != ShopUnitType.CATEGORY) {
-                            throw new ApiException(String.format("Only the category can be a parent, new " +
-                                    "parent id = %s", updatedItem.getParentId()), ErrorType.VALIDATION);
-                        }
-                        fromVToVertices.get(fromIdToIndex.get(updatedItem.getParentId()))
-                                .add(fromIdToIndex.get(updatedItem.getId()));
-                    } else {
-                        var newParent = shopUnitRepository.findShopUnitById(updatedItem.getParentId())
-                                .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(
-                                        updatedItem.getParentId()), ErrorType.VALIDATION));
+    /**
+     * Читает товар для изменения. Агрегаты дополняются еще не записанными изменениями буфера и пакета,
+     * поэтому при переносе и удалении категории из предков вычитаются ее актуальные агрегаты.
+     */
+    private Optional<ShopUnit> findShopUnitById(String id, ImportBatch batch) {
+        var shopUnit = shopUnitRepository.findShopUnitById(id);
+        shopUnit.ifPresent(found -> aggregateDeltaBuffer.mergePending(List.of(found)));
+        return batch == null ? shopUnit : batch.merge(shopUnit);
+    }
 
-                        // родителем товара или категории может быть только категория
-                        if (newParent.getType() != ShopUnitType.CATEGORY) {
-                            throw new ApiException(String.format("Only the category can be a parent, new parent" +
-                                    " id = %s", newParent.getId()), ErrorType.VALIDATION);
-                        }
-                    }
-                }
-            } else {
-                if (item.getParentId() != null) {
-                    if (idToShopUnitType.containsKey(item.getParentId())) {
-                        if (idToShopUnitType.get(item.getParentId()) != ShopUnitType.CATEGORY) {
-                            throw new ApiException(String.format("Only the category can be a parent, new parent" +
-                                    " id = %s", item.getParentId()), ErrorType.VALIDATION);
-                        }
-                        fromVToVertices.get(fromIdToIndex.get(item.getParentId()))
-                                .add(fromIdToIndex.get(item.getId()));
-                    } else {
-                        ShopUnit parent = shopUnitRepository.findShopUnitById(item.getParentId())
-                                .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(item.getParentId()),
-                                        ErrorType.VALIDATION));
-
-                        // родителем товара или категории может быть только категория
-                        if (parent.getType() != ShopUnitType.CATEGORY) {
-                            throw new ApiException(String.format("Only the category can be a parent, new parent" +
-                                    " id = %s", parent.getId()), ErrorType.VALIDATION);
-                        }
-                    }
-                }
-            }
+    private void save(ShopUnit shopUnit, ImportBatch batch) {
+        if (aggregateDeltaBuffer.isEnabled()) {
+            // Агрегаты в бд меняет только сброс буфера, и запись документа целиком затерла бы его изменения.
+            shopUnitRepository.saveWithoutAggregates(shopUnit);
+            return;
         }
-
-        boolean[] used = new boolean[idToShopUnitType.size()];
-        List<Integer> topSortOrder = new ArrayList<>();
-        for (int i = 0; i < idToShopUnitType.size(); ++i) {
-            topSort(i, fromVToVertices, used, topSortOrder);
+        shopUnitRepository.save(shopUnit);
+        if (batch != null) {
+            batch.written(shopUnit);
         }
-        Collections.reverse(topSortOrder);
-        return topSortOrder;
     }
 
-    /**
-     * Генерирует словарь (id, ShopUnit) по списку ShopUnit'ов.
-     *
-     * @param shopUnitImportRequest тело запроса import со списком ShopUnit'ов
-     * @return словарь (id, ShopUnit)
-     * @throws ApiException исключение, если невозможно сгенерировать словарь.
-     */
-    private static Map<String, ShopUnitType> getIdToShopUnitTypeMap(ShopUnitImportRequest shopUnitImportRequest)
-            throws ApiException {
-        Map<String, ShopUnitType> idToShopUnitType;
-        try {
-            idToShopUnitType = shopUnitImportRequest.getItems().stream()
-                    .collect(Collectors.toMap(ShopUnitImport::getId, ShopUnitImport::getType));
-        } catch (IllegalStateException ex) {
-            // в одном запросе не может быть двух элементов с одинаковым id
-            throw new ApiException("2 shop units with equal id",
-                    ErrorType.VALIDATION);
+    private void updateAggregates(ShopUnit shopUnit, ImportBatch batch) {
+        if (aggregateDeltaBuffer.isEnabled()) {
+            // Изменение агрегатов уже добавлено в буфер.
+            return;
+        }
+        shopUnitRepository.updateAggregates(shopUnit);
+        if (batch != null) {
+            batch.written(shopUnit);
         }
-        return idToShopUnitType;
     }
 
     /**
-     * Проверяет, что дата в формате ISO 8601.
+     * Удаляет товар из детей родителя. Дети сравниваются по идентификатору, так как агрегаты товара
+     * могли измениться внутри пакета.
      *
-     * @param updateDate дата
-     * @throws ApiException исключение, если дата не в формате ISO 8601.
+     * @param parent   родитель
+     * @param shopUnit товар
      */
-    private static void validateDateIsInISO(String updateDate) throws ApiException {
-        if (updateDate != null) {
-            try {
-                LocalDateTime.parse(updateDate, DateTimeFormatter.ISO_DATE_TIME);
-            } catch (DateTimeParseException ex) {
-                throw new ApiException(String.format("date is not in ISO 8601 format: %s", updateDate),
-                        ErrorType.VALIDATION);
-            }
-        } else {
-            throw new ApiException(String.format("date is not in ISO 8601 format: %s", updateDate),
-                    ErrorType.VALIDATION);
-        }
+    private static void removeChild(ShopUnit parent, ShopUnit shopUnit) {
+        parent.getChildren().removeIf(child -> Objects.equals(child.getId(), shopUnit.getId()));
     }
 
     /**
-     * Удаляет товар по идентификатору.
+     * Удаляет товар по идентификатору. После удаления повтор ранее примененного import запроса
+     * должен снова создать товары, поэтому отпечатки запросов сбрасываются.
      *
      * @param id идентификатор.
      */
     public void deleteShopUnitById(String id) {
-        if (!isValidUUID(id)) {
+        if (!ShopUnitImportValidator.isValidUUID(id)) {
             throw new ApiException(String.format("id is not in UUID format, id = %s", id),
                     ErrorType.VALIDATION);
         }
-        var shopUnitToDelete = shopUnitRepository.findShopUnitById(id)
+        try {
+            deleteShopUnit(id);
+        } finally {
+            if (importDigestStore.isEnabled()) {
+                importDigestStore.clear();
+            }
+        }
+    }
+
+    private void deleteShopUnit(String id) {
+        if (catalogueEngine.isEnabled()) {
+            catalogueEngine.deleteShopUnitById(id);
+            return;
+        }
+        var shopUnitToDelete = findShopUnitById(id, null)
                 .orElseThrow(() -> new ApiException(id));
+        ShopUnit parent = null;
         if (shopUnitToDelete.getParentId() != null) {
-            var parent = shopUnitRepository.findShopUnitById(shopUnitToDelete.getParentId())
+            parent = findShopUnitById(shopUnitToDelete.getParentId(), null)
                     .orElseThrow(() -> new ApiException(generateShopUnitNotExistString(shopUnitToDelete.getParentId()),
                             ErrorType.VALIDATION));
-            if (shopUnitToDelete.getType() == ShopUnitType.OFFER) {
-                pushItemPrice(-shopUnitToDelete.getPrice(), -1, null, parent, true);
-            } else {
-                pushItemPrice(-shopUnitToDelete.getChildrenPriceSum(), -shopUnitToDelete.getChildrenOffersCnt(),
-                        null, parent, true);
-            }
-            parent.getChildren().remove(shopUnitToDelete);
-            shopUnitRepository.save(parent);
         }
 
         // Проходит по всем детям с помощью dfs и удаляет их из бд.
         if (shopUnitToDelete.getType() == ShopUnitType.CATEGORY) {
-            deleteAllChildren(shopUnitToDelete);
+            try (var stage = StageRecorder.start("delete-traversal")) {
+                stage.attribute(StageRecorder.NODES, deleteAllChildren(shopUnitToDelete));
+            }
         } else {
             shopUnitRepository.delete(shopUnitToDelete);
         }
+
+        // Родитель записывается после удаления поддерева: модель чтения пересчитывает его по событию этой записи
+        // и к этому моменту уже не находит удаленный товар среди детей.
+        if (parent != null) {
+            if (shopUnitToDelete.getType() == ShopUnitType.OFFER) {
+                pushItemPrice(-shopUnitToDelete.getPrice(), -1, null, parent, true);
+            } else {
+                pushItemPrice(-shopUnitToDelete.getChildrenPriceSum(), -shopUnitToDelete.getChildrenOffersCnt(),
+                        null, parent, true);
+            }
+            removeChild(parent, shopUnitToDelete);
+            save(parent, null);
+        }
     }
 
     /**
      * Удаляет категорию и всех детей категории проходом dfs.
      *
      * @param shopUnitToDelete категория, у которой надо удалить всех детей.
+     * @return кол-во удаленных товаров вместе с самой категорией.
      */
-    private void deleteAllChildren(ShopUnit shopUnitToDelete) {
+    private int deleteAllChildren(ShopUnit shopUnitToDelete) {
+        int deleted = 0;
         Stack<ShopUnit> shopUnitsToDelete = new Stack<ShopUnit>();
         shopUnitsToDelete.push(shopUnitToDelete);
         while (!shopUnitsToDelete.empty()) {
             var current = shopUnitsToDelete.peek();
             shopUnitsToDelete.pop();
             shopUnitRepository.delete(current);
+            ++deleted;
             if (current.getType() == ShopUnitType.CATEGORY) {
                 if (current.getChildren() != null) {
                     for (var child : current.getChildren()) {
@@ -474,6 +634,7 @@ public class ShopUnitService {
                 }
             }
         }
+        return deleted;
     }
 
     /**
@@ -483,13 +644,17 @@ public class ShopUnitService {
      * @return искомый список товаров
      */
     public Sales getSales(String dateTime) {
-        validateDateIsInISO(dateTime);
-        var toDateTime = LocalDateTime.parse(dateTime, DateTimeFormatter.ISO_DATE_TIME).plusSeconds(1);
-        var fromDateTime = toDateTime.minusDays(1).minusSeconds(1);
+        ShopUnitImportValidator.validateDateIsInISO(dateTime);
+        var window = SalesWindow.of(dateTime);
         Sales sales = new Sales();
-        shopUnitRepository.findAllByDateBetween(fromDateTime.format(DateTimeFormatter.ISO_DATE_TIME),
-                        toDateTime.format(DateTimeFormatter.ISO_DATE_TIME))
+        if (catalogueEngine.isEnabled()) {
+            sales.setItems(catalogueEngine.findAllByDateBetween(window.from(), window.to()));
+            return sales;
+        }
+        StageRecorder.time("sales", () -> shopUnitReadRepository.get().findAllByDateBetween(window.from(),
+                        window.to()))
                 .ifPresent((items) -> sales.setItems(items));
+        aggregateDeltaBuffer.mergePending(sales.getItems());
         return sales;
     }
 }
@@ -0,0 +1,102 @@
+package com.karim.shopapi.services;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.models.*;
+import org.springframework.stereotype.Service;
+
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Сервис потокового импорта. Товары читаются из тела запроса по одному и импортируются порциями
+ * фиксированного размера, поэтому потребление памяти не зависит от размера выгрузки.
+ */
+@Service
+public class ShopUnitStreamImportService {
+
+    private final ShopUnitService shopUnitService;
+
+    private final Validator validator;
+
+    private final ImportProperties importProperties;
+
+    private final ObjectReader itemReader;
+
+    public ShopUnitStreamImportService(ShopUnitService shopUnitService, Validator validator,
+                                       ImportProperties importProperties, ObjectMapper objectMapper) {
+        this.shopUnitService = shopUnitService;
+        this.validator = validator;
+        this.importProperties = importProperties;
+        this.itemReader = objectMapper.readerFor(ShopUnitImport.class);
+    }
+
+    /**
+     * Импортирует товары из потока NDJSON или JSON массива. Внутри порции товары могут идти в любом порядке,
+     * а родитель из другой порции должен встретиться в потоке раньше детей. Обработка останавливается
+     * на первой порции с ошибкой, предыдущие порции остаются импортированными.
+     *
+     * @param body       поток товаров
+     * @param updateDate дата обновления всех товаров потока
+     * @return результаты обработки порций.
+     */
+    public List<ImportChunkResult> importStream(InputStream body, String updateDate) {
+        ShopUnitImportValidator.validateDateIsInISO(updateDate);
+        List<ImportChunkResult> results = new ArrayList<>();
+        int chunkSize = importProperties.getStreamChunkSize();
+        int chunk = 0;
+        try (MappingIterator<ShopUnitImport> items = itemReader.readValues(body)) {
+            boolean hasNext = items.hasNextValue();
+            while (hasNext) {
+                List<ShopUnitImport> chunkItems = new ArrayList<>(chunkSize);
+                try {
+                    while (chunkItems.size() < chunkSize && hasNext) {
+                        chunkItems.add(items.nextValue());
+                        hasNext = items.hasNextValue();
+                    }
+                } catch (IOException ex) {
+                    results.add(failed(chunk, chunkItems.size(), "Malformed item: " + ex.getMessage()));
+                    return results;
+                }
+                var result = importChunk(chunk, chunkItems, updateDate);
+                results.add(result);
+                if (result.getCode() != 200) {
+                    return results;
+                }
+                ++chunk;
+            }
+        } catch (IOException ex) {
+            results.add(failed(chunk, 0, "Malformed item: " + ex.getMessage()));
+        }
+        return results;
+    }
+
+    private ImportChunkResult importChunk(int chunk, List<ShopUnitImport> items, String updateDate) {
+        for (var item : items) {
+            if (item == null || !validator.validate(item).isEmpty()) {
+                return failed(chunk, items.size(), String.format("item is not valid, id = %s",
+                        item == null ? null : item.getId()));
+            }
+        }
+        var request = new ShopUnitImportRequest();
+        request.setItems(items);
+        request.setUpdateDate(updateDate);
+        try {
+            shopUnitService.importShopUnit(request);
+        } catch (ApiException ex) {
+            return new ImportChunkResult(chunk, items.size(), ex.getErrorType().getErrorStatus().value(),
+                    ex.getMessage());
+        }
+        return new ImportChunkResult(chunk, items.size(), 200, null);
+    }
+
+    private static ImportChunkResult failed(int chunk, int items, String message) {
+        return new ImportChunkResult(chunk, items, ErrorType.VALIDATION.getErrorStatus().value(), message);
+    }
+}
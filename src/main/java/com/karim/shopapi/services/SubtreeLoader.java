@@ -0,0 +1,154 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ReadProperties;
+import com.karim.shopapi.metrics.RepositoryCallCounter;
+import com.karim.shopapi.metrics.Stage;
+import com.karim.shopapi.metrics.StageRecorder;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.repositories.ShopUnitReadRepository;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import io.opentelemetry.context.Context;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Загружает поддерево товара по уровням. Дети всех категорий уровня читаются $in запросами по parentId,
+ * поэтому кол-во обращений к бд растет с глубиной дерева, а не с кол-вом вершин. Широкий уровень делится
+ * на части, которые читаются параллельно.
+ */
+@Component
+public class SubtreeLoader {
+
+    private final ShopUnitReadRepository shopUnitReadRepository;
+
+    private final ReadProperties.Subtree properties;
+
+    private final ThreadPoolExecutor executor;
+
+    public SubtreeLoader(ShopUnitRepository shopUnitRepository, ReadProperties readProperties) {
+        this(new ShopUnitReadRepository(shopUnitRepository), readProperties);
+    }
+
+    @Autowired
+    public SubtreeLoader(ShopUnitReadRepository shopUnitReadRepository, ReadProperties readProperties) {
+        this.shopUnitReadRepository = shopUnitReadRepository;
+        this.properties = readProperties.getSubtree();
+        if (isEnabled()) {
+            // Когда очередь заполнена, часть уровня читает сам поток запроса.
+            executor = new ThreadPoolExecutor(properties.getParallelism(), properties.getParallelism(), 0,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(properties.getParallelism() * 16),
+                    runnable -> {
+                        var thread = new Thread(runnable, "subtree-loader");
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+        } else {
+            executor = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Получает товар по идентификатору вместе со всем поддеревом. У товаров типа OFFER children равен null.
+     *
+     * @param id идентификатор товара.
+     * @return Искомый товар или пустой Optional, если товара нет.
+     */
+    public Optional<ShopUnit> load(String id) {
+        try (var stage = StageRecorder.start("subtree-load")) {
+            // Все уровни читаются через один репозиторий, чтобы поддерево было согласованным.
+            var repository = shopUnitReadRepository.get();
+            var root = repository.findWithoutChildrenById(id);
+            if (root.isPresent()) {
+                loadSubtree(repository, root.get(), stage);
+            }
+            return root;
+        }
+    }
+
+    private void loadSubtree(ShopUnitRepository repository, ShopUnit root, Stage stage) {
+        int depth = 0;
+        int nodes = 1;
+        List<ShopUnit> level = List.of(root);
+        while (!level.isEmpty()) {
+            ++depth;
+            Map<String, ShopUnit> categories = new HashMap<>();
+            for (var shopUnit : level) {
+                if (shopUnit.getType() == ShopUnitType.OFFER) {
+                    shopUnit.setChildren(null);
+                } else {
+                    categories.put(shopUnit.getId(), shopUnit);
+                }
+            }
+            if (categories.isEmpty()) {
+                break;
+            }
+            List<ShopUnit> nextLevel = new ArrayList<>();
+            for (var child : loadChildren(repository, root.getRootId(), new ArrayList<>(categories.keySet()))) {
+                categories.get(child.getParentId()).getChildren().add(child);
+                nextLevel.add(child);
+            }
+            nodes += nextLevel.size();
+            level = nextLevel;
+        }
+        stage.attribute(StageRecorder.DEPTH, depth).attribute(StageRecorder.NODES, nodes);
+    }
+
+    /**
+     * Читает детей категорий уровня, разбивая уровень на части по partitionSize.
+     *
+     * @param repository репозиторий, через который читается поддерево.
+     * @param rootId     идентификатор корня дерева или null, если у документов еще нет rootId.
+     * @param parentIds  идентификаторы категорий уровня.
+     * @return дети категорий.
+     */
+    private List<ShopUnit> loadChildren(ShopUnitRepository repository, String rootId, List<String> parentIds) {
+        int partitionSize = properties.getPartitionSize();
+        if (parentIds.size() <= partitionSize) {
+            return findChildren(repository, rootId, parentIds);
+        }
+        List<Future<List<ShopUnit>>> partitions = new ArrayList<>();
+        for (int from = 0; from < parentIds.size(); from += partitionSize) {
+            var partition = parentIds.subList(from, Math.min(from + partitionSize, parentIds.size()));
+            // Спаны запросов из пула остаются детьми спана загрузки, а вызовы репозитория считаются в запросе.
+            partitions.add(executor.submit(Context.current().wrap(RepositoryCallCounter.wrap(
+                    () -> findChildren(repository, rootId, partition)))));
+        }
+        List<ShopUnit> children = new ArrayList<>();
+        try {
+            for (var partition : partitions) {
+                children.addAll(partition.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading subtree", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+        return children;
+    }
+
+    private static List<ShopUnit> findChildren(ShopUnitRepository repository, String rootId, List<String> parentIds) {
+        // Все поддерево лежит в дереве корня, поэтому с rootId запрос уходит на один шард.
+        return rootId == null ? repository.findAllByParentIdIn(parentIds)
+                : repository.findAllByRootIdInAndParentIdIn(List.of(rootId), parentIds);
+    }
+}
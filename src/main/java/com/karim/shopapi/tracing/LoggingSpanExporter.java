@@ -0,0 +1,38 @@
+package com.karim.shopapi.tracing;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пишет завершенные спаны в лог: по строке на спан с идентификаторами трассы, спана и родителя,
+ * длительностью и атрибутами.
+ */
+@Slf4j
+public class LoggingSpanExporter implements SpanExporter {
+
+    @Override
+    public CompletableResultCode export(Collection<SpanData> spans) {
+        for (var span : spans) {
+            log.info("span {} trace={} id={} parent={} {} us {} {}", span.getName(), span.getTraceId(),
+                    span.getSpanId(), span.getParentSpanId(),
+                    TimeUnit.NANOSECONDS.toMicros(span.getEndEpochNanos() - span.getStartEpochNanos()),
+                    span.getStatus().getStatusCode(), span.getAttributes().asMap());
+        }
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return CompletableResultCode.ofSuccess();
+    }
+}
@@ -0,0 +1,35 @@
+package com.karim.shopapi.tracing;
+
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Открывает клиентский спан на каждый вызов метода репозитория, например, ShopUnitRepository.findShopUnitById.
+ */
+public class RepositorySpanInterceptor implements MethodInterceptor {
+
+    private final String repositoryName;
+
+    public RepositorySpanInterceptor(Class<?> repositoryInterface) {
+        this.repositoryName = repositoryInterface.getSimpleName();
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        var span = Tracing.tracer().spanBuilder(repositoryName + "." + invocation.getMethod().getName())
+                .setSpanKind(SpanKind.CLIENT)
+                .setAttribute("db.system", "mongodb")
+                .startSpan();
+        try (var scope = span.makeCurrent()) {
+            return invocation.proceed();
+        } catch (Throwable ex) {
+            span.recordException(ex);
+            span.setStatus(StatusCode.ERROR);
+            throw ex;
+        } finally {
+            span.end();
+        }
+    }
+}
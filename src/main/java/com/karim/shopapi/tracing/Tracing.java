@@ -0,0 +1,42 @@
+package com.karim.shopapi.tracing;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+
+/**
+ * Трассировщик OpenTelemetry, доступный сервисам, движку каталога и сериализатору без внедрения зависимостей,
+ * как и {@link com.karim.shopapi.metrics.StageRecorder}. Пока трассировка не включена, спаны ничего не делают.
+ */
+public final class Tracing {
+
+    public static final String INSTRUMENTATION_NAME = "com.karim.shopapi";
+
+    private static volatile OpenTelemetry openTelemetry = OpenTelemetry.noop();
+
+    private static volatile Tracer tracer = openTelemetry.getTracer(INSTRUMENTATION_NAME);
+
+    private Tracing() {
+    }
+
+    /**
+     * Подключает экспорт спанов.
+     *
+     * @param openTelemetry настроенный OpenTelemetry или {@link OpenTelemetry#noop()}, чтобы отключить трассировку.
+     */
+    public static void install(OpenTelemetry openTelemetry) {
+        Tracing.openTelemetry = openTelemetry;
+        tracer = openTelemetry.getTracer(INSTRUMENTATION_NAME);
+    }
+
+    public static Tracer tracer() {
+        return tracer;
+    }
+
+    /**
+     * @return Пропагатор контекста трассировки между сервисами(заголовок traceparent).
+     */
+    public static TextMapPropagator propagator() {
+        return openTelemetry.getPropagators().getTextMapPropagator();
+    }
+}
@@ -0,0 +1,75 @@
+package com.karim.shopapi.controllers;
+
+import com.karim.shopapi.repositories.ShopUnitReadRepository;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Юнит-тесты выбора primary для чтения своих записей.
+ */
+class ConsistencyTokenFilterUnitTest {
+    private final ShopUnitRepository primary = mock(ShopUnitRepository.class);
+
+    private final ShopUnitRepository replicas = mock(ShopUnitRepository.class);
+
+    private final ShopUnitReadRepository readRepository = new ShopUnitReadRepository(primary, replicas);
+
+    private final ConsistencyTokenFilter filter = new ConsistencyTokenFilter(60_000);
+
+    @Test
+    void writeResponseContainsToken() throws Exception {
+        var response = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest("POST", "/imports"), response, new MockFilterChain());
+
+        long token = Long.parseLong(response.getHeader(ConsistencyTokenFilter.HEADER));
+        assertTrue(System.currentTimeMillis() - token < 60_000);
+    }
+
+    @Test
+    void readWithFreshTokenUsesPrimary() throws Exception {
+        var request = new MockHttpServletRequest("GET", "/nodes/id");
+        request.addHeader(ConsistencyTokenFilter.HEADER, Long.toString(System.currentTimeMillis()));
+
+        assertSame(primary, readThrough(request));
+        assertSame(replicas, readRepository.get());
+    }
+
+    @Test
+    void readWithoutOrWithExpiredTokenUsesReplicas() throws Exception {
+        var expired = new MockHttpServletRequest("GET", "/nodes/id");
+        expired.addHeader(ConsistencyTokenFilter.HEADER, Long.toString(System.currentTimeMillis() - 120_000));
+        var invalid = new MockHttpServletRequest("GET", "/nodes/id");
+        invalid.addHeader(ConsistencyTokenFilter.HEADER, "not a token");
+
+        assertSame(replicas, readThrough(new MockHttpServletRequest("GET", "/nodes/id")));
+        assertSame(replicas, readThrough(expired));
+        assertSame(replicas, readThrough(invalid));
+    }
+
+    /**
+     * @return Репозиторий, выбранный для чтения внутри обработки запроса.
+     */
+    private ShopUnitRepository readThrough(MockHttpServletRequest request) throws Exception {
+        AtomicReference<ShopUnitRepository> chosen = new AtomicReference<>();
+        var servlet = new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) {
+                chosen.set(readRepository.get());
+            }
+        };
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain(servlet));
+        return chosen.get();
+    }
+}
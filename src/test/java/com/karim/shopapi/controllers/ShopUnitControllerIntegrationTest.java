@@ -5,7 +5,9 @@ import com.fasterxml.jackson.databind.ObjectWriter;
 import com.karim.shopapi.exceptions.ApiException;
 import com.karim.shopapi.models.Error;
 import com.karim.shopapi.models.*;
+import com.karim.shopapi.services.ImportJobService;
 import com.karim.shopapi.services.ShopUnitService;
+import com.karim.shopapi.services.ShopUnitStreamImportService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
@@ -15,6 +17,7 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
@@ -35,6 +38,12 @@ public class ShopUnitControllerIntegrationTest {
     @MockBean
     private ShopUnitService shopUnitService;
 
+    @MockBean
+    private ShopUnitStreamImportService shopUnitStreamImportService;
+
+    @MockBean
+    private ImportJobService importJobService;
+
     private final ObjectWriter writer = objectMapper.writer().withDefaultPrettyPrinter();
 
     @Test
@@ -92,6 +101,43 @@ public class ShopUnitControllerIntegrationTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    void returnsAcceptedWhenImportShopUnitIsAsync() throws Exception {
+        var validRequest = new ShopUnitImportRequest();
+        validRequest.setItems(new ArrayList<ShopUnitImport>());
+        validRequest.setUpdateDate(LocalDateTime.now().toString());
+        var job = new ImportJob();
+        job.setId("job_id");
+        job.setStatus(ImportJobStatus.PENDING);
+        when(importJobService.submit(validRequest)).thenReturn(job);
+
+        String requestJson = writer.writeValueAsString(validRequest);
+
+        var result = mockMvc.perform(MockMvcRequestBuilders.post("/imports")
+                        .param("async", "true")
+                        .contentType(APPLICATION_JSON_UTF8).content(requestJson))
+                .andExpect(status().isAccepted())
+                .andReturn();
+        String contentAsString = result.getResponse().getContentAsString();
+        var actualResult = objectMapper.readValue(contentAsString, ImportJob.class);
+        assertEquals(job, actualResult);
+        verify(shopUnitService, never()).importShopUnit(any());
+    }
+
+    @Test
+    void returnsNotFoundErrorWhenGetImportJobThrowsNotFoundException() throws Exception {
+        var notFoundId = "Not existing id";
+        when(importJobService.getImportJob(notFoundId)).thenThrow(new ApiException("Some exception message",
+                ErrorType.NOTFOUND));
+        var result = mockMvc.perform(MockMvcRequestBuilders.get("/imports/{jobId}", notFoundId))
+                .andExpect(status().isNotFound())
+                .andReturn();
+        String contentAsString = result.getResponse().getContentAsString();
+        var actualResult = objectMapper.readValue(contentAsString, Error.class);
+        var expectedError = new Error(ErrorType.NOTFOUND);
+        assertEquals(expectedError, actualResult);
+    }
+
     @Test
     void returnsOKWhenDeleteShopUnitByIdGetsValidId() throws Exception {
         var validId = "valid_id";
@@ -284,4 +330,22 @@ public class ShopUnitControllerIntegrationTest {
         var expectedError = new Error(ErrorType.VALIDATION);
         assertEquals(expectedError, actualResult);
     }
+
+    @Test
+    void importShopUnitStreamReturnsBadRequestWhenChunkFailed() throws Exception {
+        var updateDate = "2022-05-28T21:12:01.000Z";
+        var results = List.of(new ImportChunkResult(0, 2, 200, null),
+                new ImportChunkResult(1, 1, 400, "item is not valid, id = null"));
+        when(shopUnitStreamImportService.importStream(any(), eq(updateDate))).thenReturn(results);
+
+        var result = mockMvc.perform(MockMvcRequestBuilders.post("/imports/stream")
+                        .param("updateDate", updateDate)
+                        .contentType("application/x-ndjson").content("{}\n{}\n{}\n"))
+                .andDo(print())
+                .andExpect(status().isBadRequest())
+                .andReturn();
+        String contentAsString = result.getResponse().getContentAsString();
+        var actualResult = List.of(objectMapper.readValue(contentAsString, ImportChunkResult[].class));
+        assertEquals(results, actualResult);
+    }
 }
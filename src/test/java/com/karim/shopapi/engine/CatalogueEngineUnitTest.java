@@ -0,0 +1,265 @@
+package com.karim.shopapi.engine;
+
+import com.karim.shopapi.config.CatalogueEngineProperties;
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.models.*;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.*;
+
+/**
+ * Юнит-тесты движка, хранящего каталог в памяти.
+ */
+@ExtendWith(MockitoExtension.class)
+class CatalogueEngineUnitTest {
+    private static final String ROOT_ID = "3fa85f64-5717-4562-b3fc-2c963f66a111";
+    private static final String CATEGORY_ID = "3fa85f64-5717-4562-b3fc-2c963f66a222";
+    private static final String FIRST_OFFER_ID = "3fa85f64-5717-4562-b3fc-2c963f66a333";
+    private static final String SECOND_OFFER_ID = "3fa85f64-5717-4562-b3fc-2c963f66a444";
+
+    @Mock
+    ShopUnitRepository shopUnitRepository;
+
+    private CatalogueEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        var properties = new CatalogueEngineProperties();
+        properties.setMode(CatalogueEngineProperties.Mode.MEMORY);
+        engine = new CatalogueEngine(shopUnitRepository, properties);
+        engine.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        engine.stop();
+    }
+
+    private static ShopUnitImport item(String id, String parentId, ShopUnitType type, Long price) {
+        var item = new ShopUnitImport();
+        item.setId(id);
+        item.setName("name " + id);
+        item.setParentId(parentId);
+        item.setType(type);
+        item.setPrice(price);
+        return item;
+    }
+
+    private static ShopUnitImportRequest request(String date, ShopUnitImport... items) {
+        var request = new ShopUnitImportRequest();
+        request.setItems(new ArrayList<>(List.of(items)));
+        request.setUpdateDate(date);
+        return request;
+    }
+
+    @Test
+    void importShopUnitComputesCategoryPricesUpToRoot() {
+        engine.importShopUnit(request("2022-02-01T12:00:00.000Z",
+                item(SECOND_OFFER_ID, CATEGORY_ID, ShopUnitType.OFFER, 300L),
+                item(CATEGORY_ID, ROOT_ID, ShopUnitType.CATEGORY, null),
+                item(FIRST_OFFER_ID, CATEGORY_ID, ShopUnitType.OFFER, 100L),
+                item(ROOT_ID, null, ShopUnitType.CATEGORY, null)));
+
+        var root = engine.getShopUnitById(ROOT_ID);
+        var category = root.getChildren().get(0);
+        assertAll(
+                () -> assertEquals(200L, root.getPrice()),
+                () -> assertEquals(200L, category.getPrice()),
+                () -> assertEquals(2, category.getChildren().size()),
+                () -> assertNull(category.getChildren().get(0).getChildren())
+        );
+    }
+
+    @Test
+    void importShopUnitMovesPriceToNewParent() {
+        engine.importShopUnit(request("2022-02-01T12:00:00.000Z",
+                item(ROOT_ID, null, ShopUnitType.CATEGORY, null),
+                item(CATEGORY_ID, ROOT_ID, ShopUnitType.CATEGORY, null),
+                item(FIRST_OFFER_ID, CATEGORY_ID, ShopUnitType.OFFER, 100L)));
+        engine.importShopUnit(request("2022-02-02T12:00:00.000Z",
+                item(FIRST_OFFER_ID, ROOT_ID, ShopUnitType.OFFER, 50L)));
+
+        var root = engine.getShopUnitById(ROOT_ID);
+        var category = engine.getShopUnitById(CATEGORY_ID);
+        assertAll(
+                () -> assertEquals(50L, root.getPrice()),
+                () -> assertEquals("2022-02-02T12:00:00.000Z", root.getDate()),
+                () -> assertNull(category.getPrice()),
+                () -> assertEquals("2022-02-02T12:00:00.000Z", category.getDate())
+        );
+    }
+
+    @Test
+    void deleteShopUnitByIdRemovesSubtreeAndKeepsParentDate() {
+        engine.importShopUnit(request("2022-02-01T12:00:00.000Z",
+                item(ROOT_ID, null, ShopUnitType.CATEGORY, null),
+                item(CATEGORY_ID, ROOT_ID, ShopUnitType.CATEGORY, null),
+                item(FIRST_OFFER_ID, CATEGORY_ID, ShopUnitType.OFFER, 100L),
+                item(SECOND_OFFER_ID, ROOT_ID, ShopUnitType.OFFER, 300L)));
+
+        engine.deleteShopUnitById(CATEGORY_ID);
+
+        var root = engine.getShopUnitById(ROOT_ID);
+        ApiException ex = assertThrows(ApiException.class, () -> engine.getShopUnitById(FIRST_OFFER_ID));
+        assertAll(
+                () -> assertEquals(300L, root.getPrice()),
+                () -> assertEquals(1, root.getChildren().size()),
+                () -> assertEquals(ErrorType.NOTFOUND, ex.getErrorType())
+        );
+    }
+
+    @Test
+    void importShopUnitThrowsNotValidExceptionWhenParentIsOffer() {
+        engine.importShopUnit(request("2022-02-01T12:00:00.000Z",
+                item(FIRST_OFFER_ID, null, ShopUnitType.OFFER, 100L)));
+
+        ApiException ex = assertThrows(ApiException.class, () -> engine.importShopUnit(
+                request("2022-02-01T12:00:00.000Z", item(SECOND_OFFER_ID, FIRST_OFFER_ID, ShopUnitType.OFFER, 1L))));
+        var expectedMessage = String.format("Only the category can be a parent, new parent id = %s", FIRST_OFFER_ID);
+        assertAll(
+                () -> assertEquals(ErrorType.VALIDATION, ex.getErrorType()),
+                () -> assertEquals(expectedMessage, ex.getMessage())
+        );
+    }
+
+    @Test
+    void startRestoresCatalogueFromSnapshotAndJournalWithoutReadingDatabase(@TempDir Path snapshotDir)
+            throws InterruptedException {
+        var properties = new CatalogueEngineProperties();
+        properties.setMode(CatalogueEngineProperties.Mode.MEMORY);
+        properties.getSnapshot().setDir(snapshotDir.toString());
+        var firstEngine = new CatalogueEngine(shopUnitRepository, properties);
+        firstEngine.start();
+        firstEngine.importShopUnit(request("2022-02-01T12:00:00.000Z",
+                item(ROOT_ID, null, ShopUnitType.CATEGORY, null),
+                item(FIRST_OFFER_ID, ROOT_ID, ShopUnitType.OFFER, 100L)));
+        firstEngine.snapshot();
+        // Изменение после снимка попадает только в журнал.
+        firstEngine.importShopUnit(request("2022-02-02T12:00:00.000Z",
+                item(SECOND_OFFER_ID, ROOT_ID, ShopUnitType.OFFER, 300L)));
+        firstEngine.stop();
+        clearInvocations(shopUnitRepository);
+
+        var secondEngine = new CatalogueEngine(shopUnitRepository, properties);
+        secondEngine.start();
+        var root = secondEngine.getShopUnitById(ROOT_ID);
+        secondEngine.stop();
+
+        verify(shopUnitRepository, never()).findAllWithoutChildren();
+        assertAll(
+                () -> assertEquals(200L, root.getPrice()),
+                () -> assertEquals(2, root.getChildren().size()),
+                () -> assertEquals("2022-02-02T12:00:00.000Z", root.getDate())
+        );
+    }
+
+    @Test
+    void startResyncsDatabaseAfterCrashWithChangesStillInPersistQueue(@TempDir Path snapshotDir)
+            throws InterruptedException {
+        var properties = new CatalogueEngineProperties();
+        properties.setMode(CatalogueEngineProperties.Mode.MEMORY);
+        properties.getSnapshot().setDir(snapshotDir.toString());
+        var saving = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            saving.await();
+            return List.of();
+        }).when(shopUnitRepository).saveAll(anyIterable());
+        var crashedEngine = new CatalogueEngine(shopUnitRepository, properties);
+        crashedEngine.start();
+        crashedEngine.importShopUnit(request("2022-02-01T12:00:00.000Z",
+                item(ROOT_ID, null, ShopUnitType.CATEGORY, null),
+                item(FIRST_OFFER_ID, ROOT_ID, ShopUnitType.OFFER, 100L)));
+        // Снимок включает импорт, который еще ждет сохранения в очереди, когда сервис падает.
+        crashedEngine.snapshot();
+
+        var restartedRepository = mock(ShopUnitRepository.class);
+        List<String> savedIds = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            Iterable<ShopUnit> documents = invocation.getArgument(0);
+            documents.forEach(document -> savedIds.add(document.getId()));
+            return List.of();
+        }).when(restartedRepository).saveAll(anyIterable());
+        var restartedEngine = new CatalogueEngine(restartedRepository, properties);
+        restartedEngine.start();
+        var root = restartedEngine.getShopUnitById(ROOT_ID);
+        restartedEngine.stop();
+        saving.countDown();
+        crashedEngine.stop();
+
+        verify(restartedRepository).findAllWithoutChildren();
+        assertAll(
+                () -> assertEquals(100L, root.getPrice()),
+                () -> assertTrue(savedIds.containsAll(List.of(ROOT_ID, FIRST_OFFER_ID)))
+        );
+    }
+
+    @Test
+    void persistRetriesBatchUntilDatabaseAcceptsIt() throws InterruptedException {
+        doThrow(new IllegalStateException("database is down")).doReturn(List.of())
+                .when(shopUnitRepository).saveAll(anyIterable());
+
+        engine.importShopUnit(request("2022-02-01T12:00:00.000Z", item(ROOT_ID, null, ShopUnitType.CATEGORY, null)));
+        engine.stop();
+
+        verify(shopUnitRepository, times(2)).saveAll(anyIterable());
+        assertAll(
+                () -> assertTrue(engine.isPersisting()),
+                () -> assertEquals(0, engine.persistBacklog())
+        );
+    }
+
+    @Test
+    void importShopUnitFailsWhenPersistenceQueueIsFullWithoutBlockingReads() throws InterruptedException {
+        var properties = new CatalogueEngineProperties();
+        properties.setMode(CatalogueEngineProperties.Mode.MEMORY);
+        properties.setPersistenceQueueCapacity(1);
+        properties.setPersistenceQueueTimeoutMs(50);
+        var saving = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            saving.await();
+            return List.of();
+        }).when(shopUnitRepository).saveAll(anyIterable());
+        var slowEngine = new CatalogueEngine(shopUnitRepository, properties);
+        slowEngine.start();
+        slowEngine.importShopUnit(request("2022-02-01T12:00:00.000Z",
+                item(ROOT_ID, null, ShopUnitType.CATEGORY, null)));
+
+        ApiException ex = assertThrows(ApiException.class, () -> slowEngine.importShopUnit(
+                request("2022-02-01T12:00:00.000Z", item(FIRST_OFFER_ID, ROOT_ID, ShopUnitType.OFFER, 100L))));
+        var root = slowEngine.getShopUnitById(ROOT_ID);
+        saving.countDown();
+        slowEngine.stop();
+
+        assertAll(
+                () -> assertEquals(ErrorType.UNAVAILABLE, ex.getErrorType()),
+                () -> assertTrue(root.getChildren().isEmpty())
+        );
+    }
+
+    @Test
+    void importShopUnitIsRejectedAfterStop() throws InterruptedException {
+        engine.stop();
+
+        ApiException ex = assertThrows(ApiException.class, () -> engine.importShopUnit(
+                request("2022-02-01T12:00:00.000Z", item(ROOT_ID, null, ShopUnitType.CATEGORY, null))));
+        assertAll(
+                () -> assertEquals(ErrorType.UNAVAILABLE, ex.getErrorType()),
+                () -> assertThrows(ApiException.class, () -> engine.getShopUnitById(ROOT_ID))
+        );
+    }
+}
@@ -0,0 +1,67 @@
+package com.karim.shopapi.engine;
+
+import com.karim.shopapi.models.ShopUnit;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Юнит-тесты индекса товаров по часу обновления.
+ */
+class SalesIndexUnitTest {
+    private final Map<String, ShopUnit> shopUnits = new HashMap<>();
+
+    private final SalesIndex salesIndex = new SalesIndex();
+
+    private void put(String id, String date) {
+        var shopUnit = new ShopUnit();
+        shopUnit.setId(id);
+        shopUnit.setDate(date);
+        shopUnits.put(id, shopUnit);
+        salesIndex.put(id, date);
+    }
+
+    @Test
+    void findAllByDateBetweenFiltersBoundaryBuckets() {
+        put("before", "2022-02-01T11:59:59.000Z");
+        put("first", "2022-02-01T12:00:00.500Z");
+        put("inside", "2022-02-01T20:30:00.000Z");
+        put("last", "2022-02-02T12:00:00.000Z");
+        put("after", "2022-02-02T12:00:01.000Z");
+
+        var items = salesIndex.findAllByDateBetween("2022-02-01T12:00:00", "2022-02-02T12:00:01",
+                shopUnits::get);
+
+        assertEquals(3, items.size());
+        assertTrue(items.stream().map(ShopUnit::getId).allMatch(id -> id.equals("first") ||
+                id.equals("inside") || id.equals("last")));
+    }
+
+    @Test
+    void putMovesShopUnitToBucketOfNewDate() {
+        put("offer", "2022-02-01T12:00:00.000Z");
+        var firstWindow = salesIndex.findAllByDateBetween("2022-02-01T00:00:00", "2022-02-01T23:00:00",
+                shopUnits::get);
+        put("offer", "2022-02-03T12:00:00.000Z");
+        var secondWindow = salesIndex.findAllByDateBetween("2022-02-01T00:00:00", "2022-02-01T23:00:00",
+                shopUnits::get);
+
+        assertAll(
+                () -> assertEquals(1, firstWindow.size()),
+                () -> assertTrue(secondWindow.isEmpty())
+        );
+    }
+
+    @Test
+    void removeExcludesShopUnitFromCachedBucket() {
+        put("offer", "2022-02-01T12:00:00.000Z");
+        salesIndex.findAllByDateBetween("2022-02-01T00:00:00", "2022-02-01T23:00:00", shopUnits::get);
+        salesIndex.remove("offer");
+
+        assertTrue(salesIndex.findAllByDateBetween("2022-02-01T00:00:00", "2022-02-01T23:00:00",
+                shopUnits::get).isEmpty());
+    }
+}
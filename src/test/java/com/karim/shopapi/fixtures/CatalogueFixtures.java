@@ -0,0 +1,169 @@
+package com.karim.shopapi.fixtures;
+
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitImport;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+import com.karim.shopapi.models.ShopUnitType;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Генерирует каталоги для бенчмарков и нагрузочных тестов: полное дерево категорий заданной глубины и ширины,
+ * у категорий последнего уровня - заданное кол-во товаров. Генерация детерминирована.
+ */
+public final class CatalogueFixtures {
+
+    public static final String UPDATE_DATE = "2022-02-02T12:00:00.000Z";
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private final Random random = new Random(42);
+
+    private final List<ShopUnit> shopUnits = new ArrayList<>();
+
+    private final ShopUnit root;
+
+    private final List<ShopUnit> leafCategories;
+
+    /**
+     * @param depth             кол-во уровней категорий
+     * @param width             кол-во подкатегорий у каждой категории, кроме последнего уровня
+     * @param offersPerCategory кол-во товаров у категорий последнего уровня
+     */
+    public CatalogueFixtures(int depth, int width, int offersPerCategory) {
+        root = category(null);
+        List<ShopUnit> level = List.of(root);
+        for (int i = 1; i < depth; ++i) {
+            List<ShopUnit> nextLevel = new ArrayList<>();
+            for (var parent : level) {
+                for (int j = 0; j < width; ++j) {
+                    nextLevel.add(category(parent));
+                }
+            }
+            level = nextLevel;
+        }
+        leafCategories = level;
+        for (var parent : level) {
+            for (int j = 0; j < offersPerCategory; ++j) {
+                offer(parent);
+            }
+        }
+        recomputeAggregates();
+    }
+
+    public ShopUnit root() {
+        return root;
+    }
+
+    /**
+     * @return Все товары и категории, родители раньше детей.
+     */
+    public List<ShopUnit> shopUnits() {
+        return shopUnits;
+    }
+
+    /**
+     * @return Категории последнего уровня.
+     */
+    public List<ShopUnit> leafCategories() {
+        return leafCategories;
+    }
+
+    /**
+     * @return Категория последнего уровня.
+     */
+    public ShopUnit deepestCategory() {
+        var current = root;
+        while (!current.getChildren().isEmpty() && current.getChildren().get(0).getType() == ShopUnitType.CATEGORY) {
+            current = current.getChildren().get(0);
+        }
+        return current;
+    }
+
+    /**
+     * @return Товар категории последнего уровня.
+     */
+    public ShopUnit deepestOffer() {
+        return deepestCategory().getChildren().get(0);
+    }
+
+    /**
+     * Создает import запрос со всеми товарами каталога.
+     *
+     * @return Запрос, родители в котором идут после детей, чтобы top-sort было что упорядочивать.
+     */
+    public ShopUnitImportRequest importRequest() {
+        List<ShopUnitImport> items = new ArrayList<>();
+        for (int i = shopUnits.size() - 1; i >= 0; --i) {
+            items.add(toImport(shopUnits.get(i)));
+        }
+        var request = new ShopUnitImportRequest();
+        request.setItems(items);
+        request.setUpdateDate(UPDATE_DATE);
+        return request;
+    }
+
+    /**
+     * Переводит товар в элемент import запроса.
+     */
+    public static ShopUnitImport toImport(ShopUnit shopUnit) {
+        var item = new ShopUnitImport();
+        item.setId(shopUnit.getId());
+        item.setName(shopUnit.getName());
+        item.setParentId(shopUnit.getParentId());
+        item.setType(shopUnit.getType());
+        item.setPrice(shopUnit.getType() == ShopUnitType.OFFER ? shopUnit.getPrice() : null);
+        return item;
+    }
+
+    private ShopUnit category(ShopUnit parent) {
+        return add(ShopUnitType.CATEGORY, parent);
+    }
+
+    private void offer(ShopUnit parent) {
+        var offer = add(ShopUnitType.OFFER, parent);
+        offer.setPrice((long) random.nextInt(100_000));
+    }
+
+    private ShopUnit add(ShopUnitType type, ShopUnit parent) {
+        var shopUnit = new ShopUnit();
+        shopUnit.setId(new UUID(random.nextLong(), random.nextLong()).toString());
+        shopUnit.setName(type.name().toLowerCase() + " " + shopUnits.size());
+        // Даты разбросаны по суткам до UPDATE_DATE, чтобы запрос /sales попадал в разные часы.
+        shopUnit.setDate(DATE_FORMAT.format(Instant.parse(UPDATE_DATE).minusMillis(random.nextInt(86_400_000))));
+        shopUnit.setType(type);
+        if (parent != null) {
+            shopUnit.setParentId(parent.getId());
+            parent.getChildren().add(shopUnit);
+        }
+        shopUnits.add(shopUnit);
+        return shopUnit;
+    }
+
+    private void recomputeAggregates() {
+        // Дети идут после родителей, поэтому обратный проход видит агрегаты детей уже посчитанными.
+        for (int i = shopUnits.size() - 1; i >= 0; --i) {
+            var shopUnit = shopUnits.get(i);
+            if (shopUnit.getType() == ShopUnitType.OFFER) {
+                continue;
+            }
+            for (var child : shopUnit.getChildren()) {
+                boolean offer = child.getType() == ShopUnitType.OFFER;
+                shopUnit.setChildrenPriceSum(shopUnit.getChildrenPriceSum() +
+                        (offer ? child.getPrice() : child.getChildrenPriceSum()));
+                shopUnit.setChildrenOffersCnt(shopUnit.getChildrenOffersCnt() +
+                        (offer ? 1 : child.getChildrenOffersCnt()));
+            }
+            if (shopUnit.getChildrenOffersCnt() > 0) {
+                shopUnit.setPrice((long) ((double) shopUnit.getChildrenPriceSum() / shopUnit.getChildrenOffersCnt()));
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.karim.shopapi.fixtures;
+
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Репозиторий товаров в памяти для бенчмарков и нагрузочных тестов. Реализует только методы, которые вызывают сервисы,
+ * и, как бд, отдает копии документов: дети читаются заново по идентификаторам, а изменения попадают
+ * в хранилище только через save/insert/update. Задержка имитирует сетевой запрос к бд.
+ */
+public final class InMemoryShopUnitRepository {
+
+    private final Map<String, ShopUnit> documents = new ConcurrentHashMap<>();
+
+    private final long latencyNanos;
+
+    private InMemoryShopUnitRepository(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    /**
+     * Создает репозиторий с товарами.
+     *
+     * @param shopUnits     товары, дети категорий берутся из их списков children
+     * @param latencyMicros задержка каждого запроса в микросекундах
+     * @return репозиторий.
+     */
+    public static ShopUnitRepository create(Collection<ShopUnit> shopUnits, long latencyMicros) {
+        var repository = new InMemoryShopUnitRepository(latencyMicros * 1000);
+        shopUnits.forEach(repository::store);
+        return (ShopUnitRepository) Proxy.newProxyInstance(ShopUnitRepository.class.getClassLoader(),
+                new Class<?>[]{ShopUnitRepository.class}, (proxy, method, args) -> repository.invoke(method, args));
+    }
+
+    public static ShopUnitRepository create(Collection<ShopUnit> shopUnits) {
+        return create(shopUnits, 0);
+    }
+
+    private Object invoke(Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class) {
+            return switch (method.getName()) {
+                case "hashCode" -> System.identityHashCode(this);
+                case "equals" -> args[0] == this;
+                default -> "InMemoryShopUnitRepository(" + documents.size() + ")";
+            };
+        }
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+        return switch (method.getName()) {
+            case "findShopUnitById", "findById" -> Optional.ofNullable(documents.get((String) args[0]))
+                    .map(this::resolve);
+            case "findWithoutChildrenById" -> Optional.ofNullable(documents.get((String) args[0]))
+                    .map(InMemoryShopUnitRepository::copyOf);
+            case "existsById" -> documents.containsKey((String) args[0]);
+            case "count" -> (long) documents.size();
+            case "save", "insert", "saveAll" -> {
+                if (args[0] instanceof ShopUnit shopUnit) {
+                    store(shopUnit);
+                    yield shopUnit;
+                }
+                List<ShopUnit> saved = new ArrayList<>();
+                for (var shopUnit : (Iterable<?>) args[0]) {
+                    store((ShopUnit) shopUnit);
+                    saved.add((ShopUnit) shopUnit);
+                }
+                yield saved;
+            }
+            case "delete" -> {
+                documents.remove(((ShopUnit) args[0]).getId());
+                yield null;
+            }
+            case "deleteById" -> {
+                documents.remove((String) args[0]);
+                yield null;
+            }
+            case "deleteAllById" -> {
+                for (var id : (Iterable<?>) args[0]) {
+                    documents.remove((String) id);
+                }
+                yield null;
+            }
+            case "findAllWithoutChildren" -> documents.values().stream()
+                    .map(InMemoryShopUnitRepository::copyOf)
+                    .toList();
+            case "findAllByDateBetween" -> Optional.of(documents.values().stream()
+                    .filter(shopUnit -> shopUnit.getDate().compareTo((String) args[0]) > 0 &&
+                            shopUnit.getDate().compareTo((String) args[1]) < 0)
+                    .map(this::resolve)
+                    .toList());
+            case "findAllByParentIdIn" -> findAllByParentIdIn((Collection<?>) args[0]);
+            case "findAllByRootIdInAndParentIdIn" -> findAllByParentIdIn((Collection<?>) args[1]).stream()
+                    .filter(child -> ((Collection<?>) args[0]).contains(child.getRootId()))
+                    .toList();
+            case "saveWithoutAggregates" -> {
+                var shopUnit = (ShopUnit) args[0];
+                var stored = documents.get(shopUnit.getId());
+                if (stored != null) {
+                    store(shopUnit);
+                    update(shopUnit.getId(), document -> {
+                        document.setChildrenPriceSum(stored.getChildrenPriceSum());
+                        document.setChildrenOffersCnt(stored.getChildrenOffersCnt());
+                        document.setAggregatesFlushSeq(stored.getAggregatesFlushSeq());
+                        if (shopUnit.getType() == ShopUnitType.CATEGORY) {
+                            document.setPrice(stored.getPrice());
+                        }
+                    });
+                }
+                yield null;
+            }
+            case "moveSubtreeToRoot" -> moveSubtreeToRoot((String) args[0], (String) args[1], (String) args[2]);
+            case "updateAggregates" -> {
+                var shopUnit = (ShopUnit) args[0];
+                update(shopUnit.getId(), stored -> {
+                    stored.setChildrenPriceSum(shopUnit.getChildrenPriceSum());
+                    stored.setChildrenOffersCnt(shopUnit.getChildrenOffersCnt());
+                    stored.setPrice(shopUnit.getPrice());
+                    stored.setDate(shopUnit.getDate());
+                });
+                yield null;
+            }
+            case "applyAggregateDelta", "incrementAggregates" -> {
+                // rootId в args[1] только выбирает шард, поэтому без шардов не нужен.
+                update((String) args[0], stored -> {
+                    if (args.length > 5) {
+                        if (stored.getAggregatesFlushSeq() >= (long) args[5]) {
+                            return;
+                        }
+                        stored.setAggregatesFlushSeq((long) args[5]);
+                    }
+                    stored.setChildrenPriceSum(stored.getChildrenPriceSum() + (long) args[2]);
+                    stored.setChildrenOffersCnt(stored.getChildrenOffersCnt() + (long) args[3]);
+                    stored.setPrice(stored.getChildrenOffersCnt() > 0 ?
+                            (long) ((double) stored.getChildrenPriceSum() / stored.getChildrenOffersCnt()) : null);
+                    if (args[4] != null && ((String) args[4]).compareTo(stored.getDate()) > 0) {
+                        stored.setDate((String) args[4]);
+                    }
+                });
+                yield null;
+            }
+            default -> throw new UnsupportedOperationException(method.toString());
+        };
+    }
+
+    private List<ShopUnit> findAllByParentIdIn(Collection<?> parentIds) {
+        List<ShopUnit> children = new ArrayList<>();
+        for (var parentId : parentIds) {
+            var parent = documents.get((String) parentId);
+            if (parent == null) {
+                continue;
+            }
+            for (var childRef : parent.getChildren()) {
+                var child = documents.get(childRef.getId());
+                if (child != null) {
+                    children.add(copyOf(child));
+                }
+            }
+        }
+        return children;
+    }
+
+    private long moveSubtreeToRoot(String id, String oldRootId, String newRootId) {
+        long moved = 0;
+        Deque<String> ids = new ArrayDeque<>();
+        ids.push(id);
+        while (!ids.isEmpty()) {
+            var document = documents.get(ids.pop());
+            if (document == null || !Objects.equals(document.getRootId(), oldRootId)) {
+                continue;
+            }
+            document.setRootId(newRootId);
+            ++moved;
+            document.getChildren().forEach(child -> ids.push(child.getId()));
+        }
+        return moved;
+    }
+
+    /**
+     * Сохраняет товар, оставляя от детей только идентификаторы, как ссылки в бд.
+     */
+    private void store(ShopUnit shopUnit) {
+        var document = copyOf(shopUnit);
+        if (shopUnit.getChildren() != null) {
+            for (var child : shopUnit.getChildren()) {
+                var childRef = new ShopUnit();
+                childRef.setId(child.getId());
+                document.getChildren().add(childRef);
+            }
+        }
+        documents.put(document.getId(), document);
+    }
+
+    private void update(String id, Consumer<ShopUnit> change) {
+        documents.computeIfPresent(id, (key, stored) -> {
+            change.accept(stored);
+            return stored;
+        });
+    }
+
+    /**
+     * Читает товар вместе с поддеревом, раскрывая ссылки на детей.
+     */
+    private ShopUnit resolve(ShopUnit document) {
+        var root = copyOf(document);
+        Deque<ShopUnit> copies = new ArrayDeque<>();
+        Deque<ShopUnit> documentsToResolve = new ArrayDeque<>();
+        copies.push(root);
+        documentsToResolve.push(document);
+        while (!copies.isEmpty()) {
+            var copy = copies.pop();
+            for (var childRef : documentsToResolve.pop().getChildren()) {
+                var child = documents.get(childRef.getId());
+                if (child != null) {
+                    var childCopy = copyOf(child);
+                    copy.getChildren().add(childCopy);
+                    copies.push(childCopy);
+                    documentsToResolve.push(child);
+                }
+            }
+        }
+        return root;
+    }
+
+    private static ShopUnit copyOf(ShopUnit shopUnit) {
+        var copy = new ShopUnit();
+        copy.setId(shopUnit.getId());
+        copy.setName(shopUnit.getName());
+        copy.setDate(shopUnit.getDate());
+        copy.setParentId(shopUnit.getParentId());
+        copy.setRootId(shopUnit.getRootId());
+        copy.setType(shopUnit.getType());
+        copy.setPrice(shopUnit.getPrice());
+        copy.setChildrenPriceSum(shopUnit.getChildrenPriceSum());
+        copy.setChildrenOffersCnt(shopUnit.getChildrenOffersCnt());
+        copy.setAggregatesFlushSeq(shopUnit.getAggregatesFlushSeq());
+        return copy;
+    }
+}
@@ -0,0 +1,49 @@
+package com.karim.shopapi.load;
+
+import java.util.Arrays;
+
+/**
+ * Задержки и ошибки запросов одного endpoint'а нагрузочного теста.
+ */
+final class LatencyStats {
+
+    private long[] latencies = new long[1024];
+
+    private int count;
+
+    private int errors;
+
+    synchronized void record(long latencyNanos, boolean success) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+        if (!success) {
+            ++errors;
+        }
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    synchronized int errors() {
+        return errors;
+    }
+
+    /**
+     * Вычисляет перцентиль задержки методом ближайшего ранга.
+     *
+     * @param percentile перцентиль от 0 до 1, например, 0.99
+     * @return задержка в миллисекундах или 0, если запросов не было.
+     */
+    synchronized double percentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        var sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int rank = Math.max(1, (int) Math.ceil(percentile * count));
+        return sorted[rank - 1] / 1_000_000.0;
+    }
+}
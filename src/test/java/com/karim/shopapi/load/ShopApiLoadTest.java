@@ -0,0 +1,371 @@
+package com.karim.shopapi.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.karim.shopapi.fixtures.CatalogueFixtures;
+import com.karim.shopapi.fixtures.InMemoryShopUnitRepository;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitImport;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.repositories.ImportJobRepository;
+import com.karim.shopapi.repositories.ReactiveShopUnitRepository;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Нагрузочный тест: поднимает сервис с движком каталога в памяти поверх репозитория в памяти, поэтому
+ * бд не нужна, и подает смешанный поток запросов /imports, /nodes, /sales и /delete с заданным RPS.
+ * Запросы отправляются по расписанию независимо от ответов, а задержка считается от запланированного
+ * времени отправки, чтобы очередь перед сервисом тоже попадала в замер. Тест падает, если пропускная
+ * способность или перцентили задержек хуже сохраненных в load/baseline.properties больше, чем на допуск.
+ * Второй тест замеряет пропускную способность и задержки при заданном числе одновременных клиентов, чтобы
+ * сравнить обработку запросов на пуле потоков платформы и на виртуальных потоках.
+ * Замеряется только режим shopapi.engine.mode=MEMORY: путь MONGO с записью агрегатов, кешами и
+ * репозиторием бд этим тестом не покрывается, и его цифры к нему не относятся.
+ * По умолчанию тест исключен из сборки, запускается профилем load-test.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.autoconfigure.exclude=" +
+                "org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration," +
+                "org.springframework.boot.autoconfigure.mongo.MongoReactiveAutoConfiguration," +
+                "org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration," +
+                "org.springframework.boot.autoconfigure.data.mongo.MongoReactiveDataAutoConfiguration," +
+                "org.springframework.boot.autoconfigure.data.mongo.MongoRepositoriesAutoConfiguration," +
+                "org.springframework.boot.autoconfigure.data.mongo.MongoReactiveRepositoriesAutoConfiguration",
+        "shopapi.engine.mode=MEMORY"
+})
+class ShopApiLoadTest {
+
+    private static final String[] ENDPOINTS = {"imports", "nodes", "sales", "delete"};
+
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    private static final String[] PERCENTILE_NAMES = {"p50", "p99", "p999"};
+
+    private static final int RPS = Integer.getInteger("load.rps", 200);
+
+    private static final int DURATION_SECONDS = Integer.getInteger("load.durationSeconds", 30);
+
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmupSeconds", 10);
+
+    // Числа одновременных клиентов теста sustainsConcurrentClients через запятую.
+    private static final String CLIENTS = System.getProperty("load.clients", "100,1000,10000");
+
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("load.tolerance", "0.2"));
+
+    private static final CatalogueFixtures FIXTURES = new CatalogueFixtures(Integer.getInteger("load.depth", 4),
+            Integer.getInteger("load.width", 5), Integer.getInteger("load.offersPerCategory", 10));
+
+    @TestConfiguration
+    static class InMemoryRepositoryConfig {
+        @Bean
+        ShopUnitRepository shopUnitRepository() {
+            return InMemoryShopUnitRepository.create(FIXTURES.shopUnits());
+        }
+    }
+
+    @MockBean
+    private ImportJobRepository importJobRepository;
+
+    @MockBean
+    private ReactiveShopUnitRepository reactiveShopUnitRepository;
+
+    @LocalServerPort
+    private int port;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Товары, успешно добавленные запросами /imports, их удаляют запросы /delete.
+    private final Queue<String> importedIds = new ConcurrentLinkedQueue<>();
+
+    @DynamicPropertySource
+    static void threads(DynamicPropertyRegistry registry) {
+        registry.add("shopapi.virtual-threads.enabled", () -> System.getProperty("load.virtualThreads", "false"));
+    }
+
+    @Test
+    void sustainsTargetRpsWithinBaseline() throws Exception {
+        Map<String, LatencyStats> stats = new LinkedHashMap<>();
+        for (var endpoint : ENDPOINTS) {
+            stats.put(endpoint, new LatencyStats());
+        }
+        var clientExecutor = Executors.newFixedThreadPool(32);
+        var client = HttpClient.newBuilder()
+                .executor(clientExecutor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        List<CompletableFuture<?>> responses = new ArrayList<>();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / RPS;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        for (long i = 0; start + i * intervalNanos < end; ++i) {
+            long scheduledAt = start + i * intervalNanos;
+            LockSupport.parkNanos(scheduledAt - System.nanoTime());
+            var call = nextCall();
+            responses.add(client.sendAsync(call.request(), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, ex) -> {
+                        boolean ok = ex == null && response.statusCode() == 200;
+                        if (ok && call.importedId() != null) {
+                            importedIds.add(call.importedId());
+                        }
+                        if (scheduledAt >= measureFrom) {
+                            stats.get(call.endpoint()).record(System.nanoTime() - scheduledAt, ok);
+                        }
+                    }));
+        }
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new))
+                .exceptionally(ex -> null)
+                .get(1, TimeUnit.MINUTES);
+        double measuredSeconds = (System.nanoTime() - measureFrom) / 1e9;
+        clientExecutor.shutdown();
+
+        var measured = report(stats, measuredSeconds);
+        writeBaseline(measured);
+        var baseline = readBaseline();
+        List<Executable> checks = new ArrayList<>();
+        for (var endpoint : ENDPOINTS) {
+            checks.add(() -> assertEquals(0, stats.get(endpoint).errors(), endpoint + " errors"));
+        }
+        for (var key : baseline.stringPropertyNames()) {
+            double expected = Double.parseDouble(baseline.getProperty(key));
+            double actual = Double.parseDouble(measured.getProperty(key, "0"));
+            if (key.endsWith(".throughput")) {
+                checks.add(() -> assertTrue(actual >= expected * (1 - TOLERANCE),
+                        String.format("%s regressed: %.1f < %.1f", key, actual, expected)));
+            } else {
+                checks.add(() -> assertTrue(actual <= expected * (1 + TOLERANCE),
+                        String.format("%s regressed: %.1f ms > %.1f ms", key, actual, expected)));
+            }
+        }
+        assertAll(checks);
+    }
+
+    /**
+     * Запрос к endpoint'у. Для /imports importedId - идентификатор добавляемого товара, его можно удалять
+     * только после успешного ответа.
+     */
+    static IntStream clients() {
+        return Arrays.stream(CLIENTS.split(",")).map(String::trim).mapToInt(Integer::parseInt);
+    }
+
+    /**
+     * Замкнутая нагрузка: каждый клиент отправляет следующий запрос сразу после ответа на предыдущий, поэтому
+     * одновременно обрабатывается не больше clients запросов. Клиенты держат отдельные HTTP/1.1 соединения.
+     * Порогов у теста нет: он печатает пропускную способность и перцентили и сохраняет их
+     * в target/load-clients-virtual-threads-{true|false}.properties, чтобы сравнить прогоны в двух режимах.
+     */
+    @ParameterizedTest(name = "{0} clients")
+    @MethodSource("clients")
+    void sustainsConcurrentClients(int clients) throws Exception {
+        var stats = new LatencyStats();
+        var clientExecutor = Executors.newFixedThreadPool(32);
+        var client = HttpClient.newBuilder()
+                .executor(clientExecutor)
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        List<CompletableFuture<Void>> loops = new ArrayList<>(clients);
+        for (int i = 0; i < clients; ++i) {
+            var loop = new CompletableFuture<Void>();
+            sendNext(client, clientExecutor, stats, measureFrom, end, loop);
+            loops.add(loop);
+        }
+        CompletableFuture.allOf(loops.toArray(CompletableFuture[]::new)).get(DURATION_SECONDS + 60L, TimeUnit.SECONDS);
+        double measuredSeconds = (System.nanoTime() - measureFrom) / 1e9;
+        clientExecutor.shutdown();
+
+        boolean virtualThreads = Boolean.getBoolean("load.virtualThreads") && Runtime.version().feature() >= 21;
+        double throughput = (stats.count() - stats.errors()) / measuredSeconds;
+        System.out.printf(Locale.ROOT, "%nLoad test: engine mode MEMORY, %d clients, %d s, virtual threads = %s, " +
+                        "java %s%n%8.1f rps, p50 %.1f ms, p99 %.1f ms, p999 %.1f ms, %d errors of %d%n", clients,
+                DURATION_SECONDS, virtualThreads, Runtime.version(), throughput, stats.percentileMillis(0.5),
+                stats.percentileMillis(0.99), stats.percentileMillis(0.999), stats.errors(), stats.count());
+        var path = Path.of("target", "load-clients-virtual-threads-" + virtualThreads + ".properties");
+        var measured = new Properties();
+        Files.createDirectories(path.getParent());
+        if (Files.exists(path)) {
+            try (var in = Files.newInputStream(path)) {
+                measured.load(in);
+            }
+        }
+        measured.setProperty("clients." + clients + ".throughput", String.format(Locale.ROOT, "%.1f", throughput));
+        for (int i = 0; i < PERCENTILES.length; ++i) {
+            measured.setProperty("clients." + clients + "." + PERCENTILE_NAMES[i],
+                    String.format(Locale.ROOT, "%.1f", stats.percentileMillis(PERCENTILES[i])));
+        }
+        measured.setProperty("clients." + clients + ".errors", Integer.toString(stats.errors()));
+        try (OutputStream out = Files.newOutputStream(path)) {
+            measured.store(out, String.format("ShopApiLoadTest, virtual threads = %s, java %s", virtualThreads,
+                    Runtime.version()));
+        }
+
+        assertTrue(stats.count() > stats.errors(), "no successful requests");
+    }
+
+    /**
+     * Отправляет следующий запрос клиента и после ответа планирует еще один, пока не закончится время теста.
+     * Продолжение выполняется на исполнителе клиента, чтобы мгновенно завершившиеся с ошибкой запросы
+     * не наращивали стек.
+     */
+    private void sendNext(HttpClient client, Executor executor, LatencyStats stats, long measureFrom, long end,
+                          CompletableFuture<Void> loop) {
+        long sentAt = System.nanoTime();
+        if (sentAt >= end) {
+            loop.complete(null);
+            return;
+        }
+        Call call;
+        try {
+            call = nextCall();
+        } catch (IOException ex) {
+            loop.completeExceptionally(ex);
+            return;
+        }
+        client.sendAsync(call.request(), HttpResponse.BodyHandlers.discarding())
+                .whenCompleteAsync((response, ex) -> {
+                    boolean ok = ex == null && response.statusCode() == 200;
+                    if (ok && call.importedId() != null) {
+                        importedIds.add(call.importedId());
+                    }
+                    if (sentAt >= measureFrom) {
+                        stats.record(System.nanoTime() - sentAt, ok);
+                    }
+                    sendNext(client, executor, stats, measureFrom, end, loop);
+                }, executor);
+    }
+
+    private record Call(String endpoint, HttpRequest request, String importedId) {
+    }
+
+    /**
+     * Выбирает следующий запрос: 60% /nodes, 20% /sales, 15% /imports и 5% /delete. Если удалять еще нечего,
+     * вместо /delete отправляется /imports.
+     */
+    private Call nextCall() throws IOException {
+        var random = ThreadLocalRandom.current();
+        int roll = random.nextInt(100);
+        if (roll < 60) {
+            var shopUnits = FIXTURES.shopUnits();
+            var id = shopUnits.get(random.nextInt(shopUnits.size())).getId();
+            return new Call("nodes", HttpRequest.newBuilder(uri("/nodes/" + id)).GET().build(), null);
+        }
+        if (roll < 80) {
+            return new Call("sales", HttpRequest.newBuilder(uri("/sales?date=" + CatalogueFixtures.UPDATE_DATE))
+                    .GET()
+                    .build(), null);
+        }
+        if (roll >= 95) {
+            var id = importedIds.poll();
+            if (id != null) {
+                return new Call("delete", HttpRequest.newBuilder(uri("/delete/" + id)).DELETE().build(), null);
+            }
+        }
+        var request = newOfferImport();
+        return new Call("imports", HttpRequest.newBuilder(uri("/imports"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(request)))
+                .build(), request.getItems().get(0).getId());
+    }
+
+    private ShopUnitImportRequest newOfferImport() {
+        var random = ThreadLocalRandom.current();
+        var leafCategories = FIXTURES.leafCategories();
+        ShopUnit parent = leafCategories.get(random.nextInt(leafCategories.size()));
+        var item = new ShopUnitImport();
+        item.setId(UUID.randomUUID().toString());
+        item.setName("load offer");
+        item.setParentId(parent.getId());
+        item.setType(ShopUnitType.OFFER);
+        item.setPrice((long) random.nextInt(100_000));
+        var request = new ShopUnitImportRequest();
+        request.setItems(List.of(item));
+        request.setUpdateDate(CatalogueFixtures.UPDATE_DATE);
+        return request;
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    /**
+     * Печатает отчет и возвращает измеренные значения в формате baseline.
+     */
+    private static Properties report(Map<String, LatencyStats> stats, double measuredSeconds) {
+        var measured = new Properties();
+        System.out.printf("%nLoad test: engine mode MEMORY, target %d rps, %d s, virtual threads = %s%n", RPS,
+                DURATION_SECONDS, System.getProperty("load.virtualThreads", "false"));
+        System.out.printf("%-8s %8s %8s %10s %10s %10s %7s%n", "endpoint", "count", "rps", "p50 ms", "p99 ms",
+                "p999 ms", "errors");
+        int total = 0;
+        for (var entry : stats.entrySet()) {
+            var endpointStats = entry.getValue();
+            double throughput = endpointStats.count() / measuredSeconds;
+            total += endpointStats.count();
+            measured.setProperty(entry.getKey() + ".throughput", String.format(Locale.ROOT, "%.1f", throughput));
+            double[] values = new double[PERCENTILES.length];
+            for (int i = 0; i < PERCENTILES.length; ++i) {
+                values[i] = endpointStats.percentileMillis(PERCENTILES[i]);
+                measured.setProperty(entry.getKey() + "." + PERCENTILE_NAMES[i],
+                        String.format(Locale.ROOT, "%.1f", values[i]));
+            }
+            System.out.printf(Locale.ROOT, "%-8s %8d %8.1f %10.1f %10.1f %10.1f %7d%n", entry.getKey(),
+                    endpointStats.count(), throughput, values[0], values[1], values[2], endpointStats.errors());
+        }
+        measured.setProperty("total.throughput", String.format(Locale.ROOT, "%.1f", total / measuredSeconds));
+        System.out.printf(Locale.ROOT, "total    %8d %8.1f%n", total, total / measuredSeconds);
+        return measured;
+    }
+
+    private static Properties readBaseline() throws IOException {
+        var baseline = new Properties();
+        try (var in = ShopApiLoadTest.class.getResourceAsStream("/load/baseline.properties")) {
+            assertNotNull(in, "load/baseline.properties is missing");
+            baseline.load(in);
+        }
+        return baseline;
+    }
+
+    /**
+     * Сохраняет измеренные значения в target/load-baseline.properties, чтобы ими можно было заменить
+     * baseline после ожидаемого изменения производительности.
+     */
+    private static void writeBaseline(Properties measured) throws IOException {
+        var path = Path.of("target", "load-baseline.properties");
+        Files.createDirectories(path.getParent());
+        try (OutputStream out = Files.newOutputStream(path)) {
+            measured.store(out, String.format("ShopApiLoadTest, load.rps=%d", RPS));
+        }
+    }
+}
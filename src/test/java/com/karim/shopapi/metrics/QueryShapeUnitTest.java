@@ -0,0 +1,40 @@
+package com.karim.shopapi.metrics;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Юнит-тесты форм команд Mongo.
+ */
+class QueryShapeUnitTest {
+
+    @Test
+    void shapeHidesValues() {
+        var first = BsonDocument.parse("{find: 'shopUnit', filter: {_id: 'a'}, limit: 1, $db: 'shop'}");
+        var second = BsonDocument.parse("{find: 'shopUnit', filter: {_id: 'b'}, limit: 1, $db: 'shop'}");
+
+        assertEquals("find shopUnit filter={\"_id\": ?}", QueryShape.of("find", first));
+        assertEquals(QueryShape.of("find", first), QueryShape.of("find", second));
+    }
+
+    @Test
+    void shapeDoesNotDependOnArraySize() {
+        var one = BsonDocument.parse("{find: 'shopUnit', filter: {parentId: {$in: ['a']}}}");
+        var many = BsonDocument.parse("{find: 'shopUnit', filter: {parentId: {$in: ['a', 'b', 'c']}}}");
+
+        assertEquals("find shopUnit filter={\"parentId\": {\"$in\": [?]}}", QueryShape.of("find", one));
+        assertEquals(QueryShape.of("find", one), QueryShape.of("find", many));
+    }
+
+    @Test
+    void shapeOfUpdateContainsFilterAndUpdatedFields() {
+        var command = BsonDocument.parse("{update: 'shopUnit', ordered: true, updates: [" +
+                "{q: {_id: 'a'}, u: {$inc: {childrenPriceSum: 10, childrenOffersCnt: 1}, $set: {date: 'd'}}}]}");
+
+        assertEquals("update shopUnit updates=[{\"q\": {\"_id\": ?}, " +
+                        "\"u\": {\"$inc\": [childrenPriceSum, childrenOffersCnt], \"$set\": [date]}}]",
+                QueryShape.of("update", command));
+    }
+}
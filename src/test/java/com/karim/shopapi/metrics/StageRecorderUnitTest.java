@@ -0,0 +1,83 @@
+package com.karim.shopapi.metrics;
+
+import com.karim.shopapi.fixtures.CatalogueFixtures;
+import com.karim.shopapi.fixtures.InMemoryShopUnitRepository;
+import com.karim.shopapi.models.ShopUnitImport;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.services.ShopUnitService;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Юнит-тесты метрик этапов обработки запросов.
+ */
+class StageRecorderUnitTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void addRegistry() {
+        Metrics.addRegistry(registry);
+    }
+
+    @AfterEach
+    void removeRegistry() {
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    void timeRecordsStageAndReturnsResult() {
+        assertEquals(42, StageRecorder.time("test-stage", () -> 42));
+
+        var timer = registry.find(StageRecorder.STAGE_TIMER).tag("stage", "test-stage").timer();
+        assertNotNull(timer);
+        assertEquals(1, timer.count());
+    }
+
+    @Test
+    void importRecordsStagesAndAncestorsTouched() {
+        var fixtures = new CatalogueFixtures(4, 2, 1);
+        var service = new ShopUnitService(InMemoryShopUnitRepository.create(fixtures.shopUnits()));
+        var item = new ShopUnitImport();
+        item.setId(UUID.randomUUID().toString());
+        item.setName("offer");
+        item.setParentId(fixtures.deepestCategory().getId());
+        item.setType(ShopUnitType.OFFER);
+        item.setPrice(100L);
+        var request = new ShopUnitImportRequest();
+        request.setItems(List.of(item));
+        request.setUpdateDate(CatalogueFixtures.UPDATE_DATE);
+
+        service.importShopUnit(request);
+
+        for (var stage : List.of("validate", "topsort", "apply", "propagate")) {
+            var timer = registry.find(StageRecorder.STAGE_TIMER).tag("stage", stage).timer();
+            assertNotNull(timer, stage);
+            assertEquals(1, timer.count(), stage);
+        }
+        // Родитель и три его предка.
+        var ancestors = registry.find("shopapi.propagate.ancestors").summary();
+        assertNotNull(ancestors);
+        assertEquals(4, ancestors.totalAmount());
+    }
+
+    @Test
+    void getShopUnitByIdRecordsTreeSize() {
+        var fixtures = new CatalogueFixtures(3, 2, 1);
+        var service = new ShopUnitService(InMemoryShopUnitRepository.create(fixtures.shopUnits()));
+
+        service.getShopUnitById(fixtures.root().getId());
+
+        var treeSize = registry.find("shopapi.nodes.tree.size").summary();
+        assertNotNull(treeSize);
+        assertEquals(fixtures.shopUnits().size(), treeSize.totalAmount());
+    }
+}
@@ -0,0 +1,104 @@
+package com.karim.shopapi.models;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Юнит-тесты потоковой сериализации дерева товаров.
+ */
+class ShopUnitSerializerUnitTest {
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new SimpleModule().addSerializer(ShopUnit.class, new ShopUnitSerializer()));
+
+    @Test
+    void serializeWritesSameJsonAsBeanSerializerForCategory() throws Exception {
+        var root = shopUnit(ShopUnitType.CATEGORY, null);
+        var category = shopUnit(ShopUnitType.CATEGORY, root);
+        category.setPrice(150L);
+        root.setPrice(150L);
+        root.setChildrenPriceSum(300);
+        root.setChildrenOffersCnt(2);
+
+        assertEquals(new ObjectMapper().writeValueAsString(root), objectMapper.writeValueAsString(root));
+    }
+
+    @Test
+    void serializeWritesNullChildrenForOfferWithoutChangingIt() throws Exception {
+        var root = shopUnit(ShopUnitType.CATEGORY, null);
+        var offer = shopUnit(ShopUnitType.OFFER, root);
+        offer.setPrice(100L);
+
+        var tree = objectMapper.readTree(objectMapper.writeValueAsString(root));
+        var offerNode = tree.get("children").get(0);
+
+        assertAll(
+                () -> assertTrue(tree.get("children").isArray()),
+                () -> assertTrue(offerNode.get("children").isNull()),
+                () -> assertEquals(100, offerNode.get("price").asLong()),
+                () -> assertFalse(offerNode.has("childrenPriceSum")),
+                () -> assertNotNull(offer.getChildren())
+        );
+    }
+
+    @Test
+    void serializeWritesVeryDeepTree() throws Exception {
+        var root = shopUnit(ShopUnitType.CATEGORY, null);
+        var current = root;
+        int depth = 20_000;
+        for (int i = 0; i < depth; ++i) {
+            current = shopUnit(ShopUnitType.CATEGORY, current);
+        }
+        var leaf = shopUnit(ShopUnitType.OFFER, current);
+
+        var json = objectMapper.writeValueAsString(root);
+
+        assertAll(
+                () -> assertTrue(json.startsWith(String.format("{\"id\":\"%s\"", root.getId()))),
+                () -> assertTrue(json.contains(String.format("{\"id\":\"%s\"", leaf.getId()))),
+                () -> assertTrue(json.endsWith("]}".repeat(depth + 1)))
+        );
+    }
+
+    @Test
+    void serializeWritesBinaryIdsAndEpochDatesInCbor() throws Exception {
+        var cborMapper = new CBORMapper()
+                .registerModule(new SimpleModule().addSerializer(ShopUnit.class, new ShopUnitSerializer()));
+        var root = shopUnit(ShopUnitType.CATEGORY, null);
+        var offer = shopUnit(ShopUnitType.OFFER, root);
+        offer.setId(offer.getId().toUpperCase());
+
+        var tree = cborMapper.readTree(cborMapper.writeValueAsBytes(root));
+        var id = UUID.fromString(root.getId());
+        var offerNode = tree.get("children").get(0);
+
+        assertAll(
+                () -> assertArrayEquals(ByteBuffer.allocate(16).putLong(id.getMostSignificantBits())
+                        .putLong(id.getLeastSignificantBits()).array(), tree.get("id").binaryValue()),
+                () -> assertEquals(Instant.parse(root.getDate()).toEpochMilli(), tree.get("date").asLong()),
+                () -> assertEquals(offer.getId(), offerNode.get("id").asText()),
+                () -> assertArrayEquals(tree.get("id").binaryValue(), offerNode.get("parentId").binaryValue()),
+                () -> assertTrue(offerNode.get("children").isNull())
+        );
+    }
+
+    private static ShopUnit shopUnit(ShopUnitType type, ShopUnit parent) {
+        var shopUnit = new ShopUnit();
+        shopUnit.setId(UUID.randomUUID().toString());
+        shopUnit.setName("item");
+        shopUnit.setDate("2022-02-01T12:00:00.000Z");
+        shopUnit.setType(type);
+        if (parent != null) {
+            shopUnit.setParentId(parent.getId());
+            parent.getChildren().add(shopUnit);
+        }
+        return shopUnit;
+    }
+}
@@ -0,0 +1,54 @@
+package com.karim.shopapi.repositories;
+
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoExceptionTranslator;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Юнит-тесты операций очереди задач импорта.
+ */
+@ExtendWith(MockitoExtension.class)
+class ImportJobQueueOperationsImplUnitTest {
+    @Mock
+    MongoDatabaseFactory databaseFactory;
+
+    @Mock
+    MongoDatabase database;
+
+    @Mock
+    MongoCollection<Document> collection;
+
+    @Mock
+    MongoCollection<Document> majorityCollection;
+
+    @Test
+    void claimNextPendingWritesWithQueueWriteConcern() {
+        when(databaseFactory.getExceptionTranslator()).thenReturn(new MongoExceptionTranslator());
+        when(databaseFactory.getMongoDatabase()).thenReturn(database);
+        when(database.getCollection("importJob", Document.class)).thenReturn(collection);
+        when(collection.withWriteConcern(WriteConcern.MAJORITY)).thenReturn(majorityCollection);
+        var operations = new ImportJobQueueOperationsImpl(new MongoTemplate(databaseFactory), "majority");
+
+        var claimed = operations.claimNextPending("owner", "2022-05-28T21:12:01.000Z", 1000, 61000);
+
+        verify(majorityCollection).findOneAndUpdate(any(Bson.class), any(Bson.class),
+                any(FindOneAndUpdateOptions.class));
+        verify(collection, never()).findOneAndUpdate(any(Bson.class), any(Bson.class),
+                any(FindOneAndUpdateOptions.class));
+        assertTrue(claimed.isEmpty());
+    }
+}
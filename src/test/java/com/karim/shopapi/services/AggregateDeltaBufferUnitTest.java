@@ -0,0 +1,137 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.AggregateWriteBehindProperties;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+/**
+ * Юнит-тесты буфера отложенной записи агрегатов.
+ */
+@ExtendWith(MockitoExtension.class)
+class AggregateDeltaBufferUnitTest {
+    @Mock
+    ShopUnitRepository shopUnitRepository;
+
+    @TempDir
+    Path tempDir;
+
+    private AggregateDeltaBuffer createBuffer() {
+        var properties = new AggregateWriteBehindProperties();
+        properties.setEnabled(true);
+        properties.setLogPath(tempDir.resolve("aggregates.log").toString());
+        var buffer = new AggregateDeltaBuffer(shopUnitRepository, properties);
+        buffer.recover();
+        return buffer;
+    }
+
+    @Test
+    void flushWritesMergedDeltaOncePerCategory() {
+        var buffer = createBuffer();
+        var categoryId = "3fa85f64-5717-4562-b3fc-2c963f66a111";
+        var rootId = "3fa85f64-5717-4562-b3fc-2c963f66a000";
+
+        buffer.add(categoryId, rootId, 100, 1, "firstTime");
+        buffer.add(categoryId, rootId, 50, 1, "secondTime");
+        buffer.flush();
+
+        verify(shopUnitRepository, times(1)).applyAggregateDelta(eq(categoryId), eq(rootId), eq(150L), eq(2L),
+                eq("secondTime"), anyLong());
+    }
+
+    @Test
+    void mergePendingAddsBufferedDeltaToCategoryPrice() {
+        var buffer = createBuffer();
+        var category = new ShopUnit();
+        var categoryId = "3fa85f64-5717-4562-b3fc-2c963f66a111";
+        category.setId(categoryId);
+        category.setType(ShopUnitType.CATEGORY);
+        category.setChildrenPriceSum(200);
+        category.setChildrenOffersCnt(2);
+        category.setPrice(100L);
+
+        buffer.add(categoryId, categoryId, 100, 1, null);
+        buffer.mergePending(category);
+
+        var expectedPrice = 100L;
+        assertAll(
+                () -> assertEquals(expectedPrice, category.getPrice()),
+                () -> assertEquals(3, category.getChildrenOffersCnt())
+        );
+    }
+
+    @Test
+    void mergePendingSeesFlushedDeltaUntilCategoryIsWrittenWithItsFlushSeq() {
+        var buffer = createBuffer();
+        var categoryId = "3fa85f64-5717-4562-b3fc-2c963f66a111";
+        var duringFlush = category(categoryId, 0, 0);
+        var flushSeq = new AtomicLong();
+        doAnswer(invocation -> {
+            // Чтение во время сброса еще получает из бд категорию без изменения.
+            buffer.mergePending(List.of(duringFlush));
+            flushSeq.set(invocation.getArgument(5));
+            return null;
+        }).when(shopUnitRepository).applyAggregateDelta(eq(categoryId), any(), anyLong(), anyLong(), any(),
+                anyLong());
+
+        buffer.add(categoryId, null, 100, 1, null);
+        buffer.flush();
+        var notWritten = category(categoryId, 0, 0);
+        buffer.mergePending(List.of(notWritten));
+        var written = category(categoryId, 100, flushSeq.get());
+        buffer.mergePending(List.of(written));
+
+        assertAll(
+                () -> assertEquals(100, duringFlush.getChildrenPriceSum()),
+                () -> assertEquals(100, notWritten.getChildrenPriceSum()),
+                () -> assertEquals(100, written.getChildrenPriceSum())
+        );
+    }
+
+    @Test
+    void recoverAppliesNotFlushedLog() throws Exception {
+        var categoryId = "3fa85f64-5717-4562-b3fc-2c963f66a111";
+        var rootId = "3fa85f64-5717-4562-b3fc-2c963f66a000";
+        // Вторая строка записана прошлой версией, в ней нет rootId.
+        Files.writeString(tempDir.resolve("aggregates.log"), categoryId + "\t100\t1\ttime\t" + rootId + "\n" +
+                rootId + "\t100\t1\ttime\n");
+
+        createBuffer();
+
+        verify(shopUnitRepository, times(1)).applyAggregateDelta(eq(categoryId), eq(rootId), eq(100L), eq(1L),
+                eq("time"), anyLong());
+        verify(shopUnitRepository, times(1)).applyAggregateDelta(eq(rootId), isNull(), eq(100L), eq(1L),
+                eq("time"), anyLong());
+        try (var files = Files.list(tempDir)) {
+            // После восстановления остается только новый пустой журнал.
+            assertEquals(1, files.count());
+        }
+    }
+
+    private static ShopUnit category(String id, long childrenPriceSum, long aggregatesFlushSeq) {
+        var category = new ShopUnit();
+        category.setId(id);
+        category.setType(ShopUnitType.CATEGORY);
+        category.setChildrenPriceSum(childrenPriceSum);
+        category.setChildrenOffersCnt(childrenPriceSum / 100);
+        category.setAggregatesFlushSeq(aggregatesFlushSeq);
+        return category;
+    }
+}
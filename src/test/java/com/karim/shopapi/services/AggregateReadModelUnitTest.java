@@ -0,0 +1,76 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.AggregateReadModelProperties;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+/**
+ * Юнит-тесты пересчета агрегатов категорий моделью чтения.
+ */
+@ExtendWith(MockitoExtension.class)
+class AggregateReadModelUnitTest {
+    @Mock
+    ShopUnitRepository shopUnitRepository;
+
+    @Test
+    void recomputeSumsDirectChildrenAndKeepsLatestDate() {
+        var root = shopUnit("root", null, ShopUnitType.CATEGORY, null, "2022-05-28T21:12:01.000Z");
+        var category = shopUnit("category", "root", ShopUnitType.CATEGORY, 150L, "2022-05-28T21:12:01.000Z");
+        category.setChildrenPriceSum(300);
+        category.setChildrenOffersCnt(2);
+        var offer = shopUnit("offer", "root", ShopUnitType.OFFER, 100L, "2022-05-29T21:12:01.000Z");
+        when(shopUnitRepository.findAllWithoutChildrenByIdIn(anyCollection())).thenReturn(List.of(root));
+        when(shopUnitRepository.findAllByParentIdIn(anyCollection())).thenReturn(List.of(category, offer));
+
+        var readModel = new AggregateReadModel(shopUnitRepository, new AggregateReadModelProperties());
+
+        assertEquals(1, readModel.recompute(List.of("root")));
+        var captor = ArgumentCaptor.forClass(ShopUnit.class);
+        verify(shopUnitRepository).updateAggregates(captor.capture());
+        var updated = captor.getValue();
+        assertAll(
+                () -> assertEquals(400, updated.getChildrenPriceSum()),
+                () -> assertEquals(3, updated.getChildrenOffersCnt()),
+                () -> assertEquals(133L, updated.getPrice()),
+                () -> assertEquals("2022-05-29T21:12:01.000Z", updated.getDate())
+        );
+    }
+
+    @Test
+    void recomputeSkipsUnchangedCategoriesAndOffers() {
+        var category = shopUnit("category", null, ShopUnitType.CATEGORY, 100L, "2022-05-28T21:12:01.000Z");
+        category.setChildrenPriceSum(100);
+        category.setChildrenOffersCnt(1);
+        var offer = shopUnit("offer", "category", ShopUnitType.OFFER, 100L, "2022-05-28T21:12:01.000Z");
+        when(shopUnitRepository.findAllWithoutChildrenByIdIn(anyCollection())).thenReturn(List.of(category, offer));
+        when(shopUnitRepository.findAllByParentIdIn(List.of("category"))).thenReturn(List.of(offer));
+
+        var readModel = new AggregateReadModel(shopUnitRepository, new AggregateReadModelProperties());
+
+        assertEquals(0, readModel.recompute(List.of("category", "offer")));
+        verify(shopUnitRepository, never()).updateAggregates(any(ShopUnit.class));
+    }
+
+    private static ShopUnit shopUnit(String id, String parentId, ShopUnitType type, Long price, String date) {
+        var shopUnit = new ShopUnit();
+        shopUnit.setId(id);
+        shopUnit.setParentId(parentId);
+        shopUnit.setType(type);
+        shopUnit.setPrice(price);
+        shopUnit.setDate(date);
+        return shopUnit;
+    }
+}
@@ -0,0 +1,112 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.models.ErrorType;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+/**
+ * Юнит-тесты объединения import запросов, проверяющие, что каждый вызывающий получает результат своего запроса.
+ */
+@ExtendWith(MockitoExtension.class)
+class ImportCoalescerUnitTest {
+    @Mock
+    ShopUnitService shopUnitService;
+
+    private ImportCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        var properties = new ImportProperties.Coalescing();
+        properties.setEnabled(true);
+        properties.setWindowMs(200);
+        coalescer = new ImportCoalescer(shopUnitService, properties);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        coalescer.close();
+    }
+
+    @Test
+    void importShopUnitReturnsOwnResultToEachCaller() {
+        var applied = new AtomicInteger();
+        when(shopUnitService.importShopUnitBatch(anyList())).thenAnswer(invocation -> {
+            List<ShopUnitImportRequest> requests = invocation.getArgument(0);
+            applied.addAndGet(requests.size());
+            List<RuntimeException> errors = new ArrayList<>();
+            for (var request : requests) {
+                errors.add(request.getUpdateDate() == null ? new ApiException("invalid", ErrorType.VALIDATION)
+                        : null);
+            }
+            return errors;
+        });
+        var valid = new ShopUnitImportRequest();
+        valid.setUpdateDate("2022-05-28T21:12:01.000Z");
+        var invalid = new ShopUnitImportRequest();
+
+        var validResult = CompletableFuture.runAsync(() -> coalescer.importShopUnit(valid));
+        var invalidResult = CompletableFuture.runAsync(() -> coalescer.importShopUnit(invalid));
+
+        assertDoesNotThrow(validResult::join);
+        var ex = assertThrows(Exception.class, invalidResult::join);
+        assertAll(
+                () -> assertInstanceOf(ApiException.class, ex.getCause()),
+                () -> assertEquals(2, applied.get())
+        );
+    }
+
+    @Test
+    void importShopUnitIsRejectedAfterClose() throws InterruptedException {
+        coalescer.close();
+        var request = new ShopUnitImportRequest();
+        request.setUpdateDate("2022-05-28T21:12:01.000Z");
+
+        var ex = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertThrows(ApiException.class, () -> coalescer.importShopUnit(request)));
+        assertEquals(ErrorType.UNAVAILABLE, ex.getErrorType());
+    }
+
+    @Test
+    void importShopUnitStopsWaitingAfterResultTimeout() throws InterruptedException {
+        coalescer.close();
+        var properties = new ImportProperties.Coalescing();
+        properties.setEnabled(true);
+        properties.setWindowMs(1);
+        properties.setResultTimeoutMs(100);
+        coalescer = new ImportCoalescer(shopUnitService, properties);
+        var release = new CountDownLatch(1);
+        when(shopUnitService.importShopUnitBatch(anyList())).thenAnswer(invocation -> {
+            release.await();
+            return Collections.singletonList(null);
+        });
+        var request = new ShopUnitImportRequest();
+        request.setUpdateDate("2022-05-28T21:12:01.000Z");
+
+        try {
+            var ex = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> assertThrows(ApiException.class, () -> coalescer.importShopUnit(request)));
+            assertEquals(ErrorType.UNAVAILABLE, ex.getErrorType());
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.models.ShopUnitImport;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+import com.karim.shopapi.models.ShopUnitType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Юнит-тесты отпечатков import запросов.
+ */
+class ImportDigestStoreUnitTest {
+
+    @Test
+    void digestDependsOnItemsAndUpdateDate() {
+        var request = request("name", 100L, "2022-05-28T21:12:01.000Z");
+        assertAll(
+                () -> assertEquals(ImportDigestStore.digest(request),
+                        ImportDigestStore.digest(request("name", 100L, "2022-05-28T21:12:01.000Z"))),
+                () -> assertNotEquals(ImportDigestStore.digest(request),
+                        ImportDigestStore.digest(request("name", 101L, "2022-05-28T21:12:01.000Z"))),
+                () -> assertNotEquals(ImportDigestStore.digest(request),
+                        ImportDigestStore.digest(request("name", 100L, "2022-05-28T21:12:02.000Z"))),
+                () -> assertNotEquals(ImportDigestStore.digest(request("ab", null, "c")),
+                        ImportDigestStore.digest(request("a", null, "bc")))
+        );
+    }
+
+    @Test
+    void containsForgetsDigestAfterTtlAndOverCapacity() {
+        var now = new AtomicLong();
+        var properties = new ImportProperties.Dedup();
+        properties.setEnabled(true);
+        properties.setTtlMs(1000);
+        properties.setMaxEntries(2);
+        var store = new ImportDigestStore(properties, now::get);
+
+        store.add("a", List.of("1"));
+        now.set(500);
+        store.add("b", List.of("2"));
+        assertTrue(store.contains("a"));
+        now.set(1000);
+        assertFalse(store.contains("a"));
+        store.add("c", List.of("3"));
+        store.add("d", List.of("4"));
+        assertAll(
+                () -> assertFalse(store.contains("b")),
+                () -> assertTrue(store.contains("c")),
+                () -> assertTrue(store.contains("d"))
+        );
+    }
+
+    @Test
+    void clearForgetsDigestsAndSkipsRequestsAppliedDuringClear() {
+        var properties = new ImportProperties.Dedup();
+        properties.setEnabled(true);
+        var store = new ImportDigestStore(properties);
+
+        store.add("a", List.of("1"));
+        long generation = store.generation();
+        store.clear();
+        store.add("b", List.of("2"), generation);
+        store.add("c", List.of("3"));
+        assertAll(
+                () -> assertFalse(store.contains("a")),
+                () -> assertFalse(store.contains("b")),
+                () -> assertTrue(store.contains("c"))
+        );
+    }
+
+    @Test
+    void addForgetsDigestsOfRequestsWithSameItems() {
+        var properties = new ImportProperties.Dedup();
+        properties.setEnabled(true);
+        var store = new ImportDigestStore(properties);
+
+        store.add("a", List.of("1", "2"));
+        store.add("b", List.of("3"));
+        store.add("c", List.of("2", "4"));
+        store.forget(List.of("3"));
+        assertAll(
+                () -> assertFalse(store.contains("a")),
+                () -> assertFalse(store.contains("b")),
+                () -> assertTrue(store.contains("c"))
+        );
+    }
+
+    private static ShopUnitImportRequest request(String name, Long price, String updateDate) {
+        var item = new ShopUnitImport();
+        item.setId("3fa85f64-5717-4562-b3fc-2c963f66a222");
+        item.setName(name);
+        item.setType(ShopUnitType.OFFER);
+        item.setPrice(price);
+        var request = new ShopUnitImportRequest();
+        request.setItems(new ArrayList<>(List.of(item)));
+        request.setUpdateDate(updateDate);
+        return request;
+    }
+}
@@ -0,0 +1,155 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.models.*;
+import com.karim.shopapi.repositories.ImportJobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Юнит-тесты асинхронного импорта, проверяющие порядок применения порций и сохранение прогресса.
+ */
+@ExtendWith(MockitoExtension.class)
+class ImportJobServiceUnitTest {
+    private static final String UPDATE_DATE = "2022-05-28T21:12:01.000Z";
+
+    @Mock
+    ShopUnitService shopUnitService;
+
+    @Mock
+    ImportJobRepository importJobRepository;
+
+    private ImportJobService service;
+
+    @BeforeEach
+    void setUp() {
+        var properties = new ImportProperties();
+        properties.setJobChunkSize(2);
+        service = new ImportJobService(shopUnitService, importJobRepository, properties);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        service.stop();
+    }
+
+    @Test
+    void runAppliesItemsInTopSortOrderedChunks() {
+        var job = job(item("c"), item("a"), item("b"));
+        when(shopUnitService.validateImport(job.getRequest())).thenReturn(List.of(1, 2, 0));
+        when(importJobRepository.updateProgress(eq("job_id"), anyString(), anyInt(), anyDouble(), anyLong()))
+                .thenReturn(true);
+
+        service.run(job);
+
+        var captor = ArgumentCaptor.forClass(ShopUnitImportRequest.class);
+        InOrder inOrder = inOrder(shopUnitService, importJobRepository);
+        inOrder.verify(shopUnitService).importShopUnit(captor.capture());
+        inOrder.verify(importJobRepository).updateProgress(eq("job_id"), anyString(), eq(2), anyDouble(),
+                anyLong());
+        inOrder.verify(shopUnitService).importShopUnit(captor.capture());
+        inOrder.verify(importJobRepository).updateProgress(eq("job_id"), anyString(), eq(3), anyDouble(),
+                anyLong());
+        inOrder.verify(importJobRepository).finish(eq("job_id"), anyString(), eq(ImportJobStatus.DONE), anyString(),
+                isNull());
+        assertAll(
+                () -> assertEquals(List.of("a", "b"),
+                        captor.getAllValues().get(0).getItems().stream().map(ShopUnitImport::getId).toList()),
+                () -> assertEquals(List.of("c"),
+                        captor.getAllValues().get(1).getItems().stream().map(ShopUnitImport::getId).toList()),
+                () -> assertEquals(UPDATE_DATE, captor.getAllValues().get(1).getUpdateDate())
+        );
+    }
+
+    @Test
+    void runFailsJobWithoutImportWhenValidationFails() {
+        var job = job(item("a"));
+        when(shopUnitService.validateImport(job.getRequest()))
+                .thenThrow(new ApiException("2 shop units with equal id", ErrorType.VALIDATION));
+
+        service.run(job);
+
+        verify(shopUnitService, never()).importShopUnit(any());
+        verify(importJobRepository).finish(eq("job_id"), anyString(), eq(ImportJobStatus.FAILED), anyString(),
+                eq("2 shop units with equal id"));
+    }
+
+    @Test
+    void runStopsWithoutFinishingJobWhenLeaseWasTakenOver() {
+        var job = job(item("a"), item("b"), item("c"));
+        when(shopUnitService.validateImport(job.getRequest())).thenReturn(List.of(0, 1, 2));
+        when(importJobRepository.updateProgress(eq("job_id"), anyString(), anyInt(), anyDouble(), anyLong()))
+                .thenReturn(false);
+
+        service.run(job);
+
+        verify(shopUnitService, times(1)).importShopUnit(any());
+        verify(importJobRepository, never()).finish(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void drainClaimsJobsWithLeaseOfThisInstanceAndHeartbeatRenewsIt() {
+        var job = job(item("a"));
+        when(shopUnitService.validateImport(job.getRequest())).thenReturn(List.of(0));
+        when(importJobRepository.claimNextPending(anyString(), anyString(), anyLong(), anyLong()))
+                .thenReturn(Optional.of(job), Optional.empty());
+        when(importJobRepository.updateProgress(eq("job_id"), anyString(), anyInt(), anyDouble(), anyLong()))
+                .thenReturn(true);
+        long before = System.currentTimeMillis();
+
+        service.drain();
+        service.heartbeat();
+
+        var owner = ArgumentCaptor.forClass(String.class);
+        var now = ArgumentCaptor.forClass(Long.class);
+        var leaseExpiresAt = ArgumentCaptor.forClass(Long.class);
+        verify(importJobRepository, times(2)).claimNextPending(owner.capture(), anyString(), now.capture(),
+                leaseExpiresAt.capture());
+        verify(importJobRepository).finish(eq("job_id"), eq(owner.getValue()), eq(ImportJobStatus.DONE), anyString(),
+                isNull());
+        verify(importJobRepository).renewLeases(eq(owner.getValue()), longThat(lease -> lease >= before + 60000));
+        assertTrue(leaseExpiresAt.getValue() >= now.getValue() + 60000);
+    }
+
+    @Test
+    void getImportJobThrowsNotFoundExceptionWhenJobDoesNotExist() {
+        when(importJobRepository.findById("job_id")).thenReturn(Optional.empty());
+
+        ApiException ex = assertThrows(ApiException.class, () -> service.getImportJob("job_id"));
+        assertEquals(ErrorType.NOTFOUND, ex.getErrorType());
+    }
+
+    private static ImportJob job(ShopUnitImport... items) {
+        var request = new ShopUnitImportRequest();
+        request.setItems(new ArrayList<>(List.of(items)));
+        request.setUpdateDate(UPDATE_DATE);
+        var job = new ImportJob();
+        job.setId("job_id");
+        job.setStatus(ImportJobStatus.RUNNING);
+        job.setRequest(request);
+        return job;
+    }
+
+    private static ShopUnitImport item(String id) {
+        var item = new ShopUnitImport();
+        item.setId(id);
+        item.setName(id);
+        item.setType(ShopUnitType.CATEGORY);
+        return item;
+    }
+}
@@ -0,0 +1,131 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.AggregateWriteBehindProperties;
+import com.karim.shopapi.config.CatalogueEngineProperties;
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.config.ReadProperties;
+import com.karim.shopapi.engine.CatalogueEngine;
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.models.ErrorType;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.repositories.ReactiveShopUnitRepository;
+import com.karim.shopapi.repositories.ShopUnitReadRepository;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Юнит-тесты неблокирующего сервиса, проверяющие сборку поддерева по уровням.
+ */
+@ExtendWith(MockitoExtension.class)
+class ReactiveShopUnitServiceUnitTest {
+    private static final String ROOT_ID = "3fa85f64-5717-4562-b3fc-2c963f66a000";
+
+    @Mock
+    ReactiveShopUnitRepository reactiveShopUnitRepository;
+
+    @Mock
+    ShopUnitRepository shopUnitRepository;
+
+    private ReactiveShopUnitService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ReactiveShopUnitService(reactiveShopUnitRepository,
+                new AggregateDeltaBuffer(shopUnitRepository, new AggregateWriteBehindProperties()),
+                new CatalogueEngine(shopUnitRepository, new CatalogueEngineProperties()),
+                new ShopUnitService(shopUnitRepository));
+    }
+
+    @Test
+    void getShopUnitByIdLoadsSubtreeWithOneQueryPerLevel() {
+        var root = shopUnit(ROOT_ID, null, ShopUnitType.CATEGORY);
+        var category = shopUnit("category", ROOT_ID, ShopUnitType.CATEGORY);
+        var rootOffer = shopUnit("root offer", ROOT_ID, ShopUnitType.OFFER);
+        var offer = shopUnit("offer", "category", ShopUnitType.OFFER);
+        when(reactiveShopUnitRepository.findWithoutChildrenById(ROOT_ID)).thenReturn(Mono.just(root));
+        when(reactiveShopUnitRepository.findAllByParentIdIn(Set.of(ROOT_ID)))
+                .thenReturn(Flux.just(category, rootOffer));
+        when(reactiveShopUnitRepository.findAllByParentIdIn(Set.of("category"))).thenReturn(Flux.just(offer));
+
+        var result = service.getShopUnitById(ROOT_ID).block();
+
+        verify(reactiveShopUnitRepository, times(2)).findAllByParentIdIn(any());
+        assertAll(
+                () -> assertSame(root, result),
+                () -> assertEquals(2, root.getChildren().size()),
+                () -> assertEquals(offer, category.getChildren().get(0)),
+                () -> assertNull(offer.getChildren()),
+                () -> assertNull(rootOffer.getChildren())
+        );
+    }
+
+    @Test
+    void getShopUnitByIdReturnsNotFoundErrorWhenShopUnitDoesNotExist() {
+        when(reactiveShopUnitRepository.findWithoutChildrenById(ROOT_ID)).thenReturn(Mono.empty());
+
+        ApiException ex = assertThrows(ApiException.class, () -> service.getShopUnitById(ROOT_ID).block());
+        assertEquals(ErrorType.NOTFOUND, ex.getErrorType());
+    }
+
+    @Test
+    void getSalesReturnsValidationErrorWhenDateIsNotISO() {
+        ApiException ex = assertThrows(ApiException.class,
+                () -> service.getSales("10:36:08 18.06.2022").collectList().block());
+        assertEquals(ErrorType.VALIDATION, ex.getErrorType());
+    }
+
+    @Test
+    void getSalesReturnsCategoriesWithSubtree() {
+        var category = shopUnit("category", null, ShopUnitType.CATEGORY);
+        var offer = shopUnit("offer", "category", ShopUnitType.OFFER);
+        when(reactiveShopUnitRepository.findAllByDateBetween(any(), any())).thenReturn(Flux.just(category, offer));
+        when(reactiveShopUnitRepository.findAllByParentIdIn(Set.of("category"))).thenReturn(Flux.just(offer));
+
+        var result = service.getSales("2022-05-28T21:12:01.000Z").collectList().block();
+
+        assertAll(
+                () -> assertEquals(List.of(category, offer), result),
+                () -> assertEquals(List.of(offer), category.getChildren()),
+                () -> assertNull(offer.getChildren())
+        );
+    }
+
+    @Test
+    void getShopUnitByIdReadsThroughServiceWhenReadsAreRoutedToReplicas() {
+        var replicas = mock(ShopUnitRepository.class);
+        var root = shopUnit(ROOT_ID, null, ShopUnitType.OFFER);
+        when(replicas.findShopUnitById(ROOT_ID)).thenReturn(Optional.of(root));
+        var routed = new ReactiveShopUnitService(reactiveShopUnitRepository,
+                new AggregateDeltaBuffer(shopUnitRepository, new AggregateWriteBehindProperties()),
+                new CatalogueEngine(shopUnitRepository, new CatalogueEngineProperties()),
+                new ShopUnitService(shopUnitRepository, new ShopUnitReadRepository(shopUnitRepository, replicas),
+                        new AggregateDeltaBuffer(shopUnitRepository, new AggregateWriteBehindProperties()),
+                        new CatalogueEngine(shopUnitRepository, new CatalogueEngineProperties()),
+                        new ImportProperties(), new SubtreeLoader(shopUnitRepository, new ReadProperties())));
+
+        assertSame(root, routed.getShopUnitById(ROOT_ID).block());
+        verifyNoInteractions(reactiveShopUnitRepository);
+    }
+
+    private static ShopUnit shopUnit(String id, String parentId, ShopUnitType type) {
+        var shopUnit = new ShopUnit();
+        shopUnit.setId(id);
+        shopUnit.setParentId(parentId);
+        shopUnit.setType(type);
+        return shopUnit;
+    }
+}
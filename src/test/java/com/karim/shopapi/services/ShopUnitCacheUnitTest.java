@@ -0,0 +1,105 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ReadProperties;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Юнит-тесты кеша поддеревьев.
+ */
+class ShopUnitCacheUnitTest {
+
+    private final Map<String, ShopUnit> shopUnits = new HashMap<>();
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private ShopUnitCache cache;
+
+    @BeforeEach
+    void setUp() {
+        var properties = new ReadProperties();
+        properties.getCache().setEnabled(true);
+        cache = new ShopUnitCache(properties);
+        cache.setActive(true);
+
+        var root = shopUnit("root", null, ShopUnitType.CATEGORY);
+        var category = shopUnit("category", root, ShopUnitType.CATEGORY);
+        shopUnit("offer", category, ShopUnitType.OFFER);
+        shopUnit("other", root, ShopUnitType.OFFER);
+    }
+
+    @Test
+    void evictDropsTreesOfAllCachedAncestors() {
+        cache.get("root", this::load);
+        cache.get("category", this::load);
+        cache.get("other", this::load);
+        assertEquals(3, loads.get());
+
+        assertEquals(2, cache.evict("offer"));
+        assertEquals(1, cache.size());
+
+        cache.get("root", this::load);
+        cache.get("category", this::load);
+        cache.get("other", this::load);
+        assertEquals(5, loads.get());
+    }
+
+    @Test
+    void getDoesNotCacheTreeLoadedBeforeEviction() {
+        cache.get("root", id -> {
+            cache.evict("offer");
+            return load(id);
+        });
+        cache.get("root", this::load);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void inactiveCacheAlwaysLoads() {
+        cache.get("root", this::load);
+        cache.setActive(false);
+        cache.get("root", this::load);
+        cache.get("root", this::load);
+
+        assertAll(
+                () -> assertEquals(3, loads.get()),
+                () -> assertEquals(0, cache.size())
+        );
+    }
+
+    @Test
+    void missingShopUnitIsNotCached() {
+        assertTrue(cache.get("missing", this::load).isEmpty());
+        assertTrue(cache.get("missing", this::load).isEmpty());
+
+        assertEquals(2, loads.get());
+    }
+
+    private Optional<ShopUnit> load(String id) {
+        loads.incrementAndGet();
+        return Optional.ofNullable(shopUnits.get(id));
+    }
+
+    private ShopUnit shopUnit(String id, ShopUnit parent, ShopUnitType type) {
+        var shopUnit = new ShopUnit();
+        shopUnit.setId(id);
+        shopUnit.setType(type);
+        if (type == ShopUnitType.OFFER) {
+            shopUnit.setChildren(null);
+        }
+        if (parent != null) {
+            shopUnit.setParentId(parent.getId());
+            parent.getChildren().add(shopUnit);
+        }
+        shopUnits.put(id, shopUnit);
+        return shopUnit;
+    }
+}
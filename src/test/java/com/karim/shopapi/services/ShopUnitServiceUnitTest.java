@@ -1,19 +1,32 @@
 package com.karim.shopapi.services;
 
+import com.karim.shopapi.config.AggregateReadModelProperties;
+import com.karim.shopapi.config.AggregateWriteBehindProperties;
+import com.karim.shopapi.config.CatalogueEngineProperties;
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.config.ReadProperties;
+import com.karim.shopapi.engine.CatalogueEngine;
 import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.fixtures.InMemoryShopUnitRepository;
 import com.karim.shopapi.models.*;
+import com.karim.shopapi.repositories.ShopUnitReadRepository;
 import com.karim.shopapi.repositories.ShopUnitRepository;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
 
 /**
  * Юнит-тесты сервиса, проверяющие, что сервис выдает ошибки при некорректных входных и возвращает
@@ -532,6 +545,73 @@ class ShopUnitServiceUnitTest {
         );
     }
 
+    @Test
+    void deleteShopUnitByIdDeletesSubtreeBeforeSavingParentForReadModel() {
+        var parentId = "3fa85f64-5717-4562-b3fc-2c963f66a001";
+        var offerId = "3fa85f64-5717-4562-b3fc-2c963f66a002";
+        var parent = new ShopUnit();
+        parent.setId(parentId);
+        parent.setType(ShopUnitType.CATEGORY);
+        var offer = new ShopUnit();
+        offer.setId(offerId);
+        offer.setParentId(parentId);
+        offer.setType(ShopUnitType.OFFER);
+        offer.setPrice(100L);
+        offer.setChildren(null);
+        parent.getChildren().add(offer);
+        when(shopUnitRepository.findShopUnitById(offerId)).thenReturn(Optional.of(offer));
+        when(shopUnitRepository.findShopUnitById(parentId)).thenReturn(Optional.of(parent));
+        var readModelProperties = new AggregateReadModelProperties();
+        readModelProperties.setEnabled(true);
+
+        ShopUnitService service = new ShopUnitService(shopUnitRepository,
+                new ShopUnitReadRepository(shopUnitRepository),
+                new AggregateDeltaBuffer(shopUnitRepository, new AggregateWriteBehindProperties()),
+                new CatalogueEngine(shopUnitRepository, new CatalogueEngineProperties()), new ImportProperties(),
+                new SubtreeLoader(shopUnitRepository, new ReadProperties()), new ShopUnitCache(new ReadProperties()),
+                new AggregateReadModel(shopUnitRepository, readModelProperties));
+        service.deleteShopUnitById(offerId);
+
+        // Модель чтения пересчитывает родителя по событию его записи, поэтому товар к этому моменту уже удален.
+        InOrder inOrder = inOrder(shopUnitRepository);
+        inOrder.verify(shopUnitRepository).delete(offer);
+        inOrder.verify(shopUnitRepository).save(parent);
+        assertTrue(parent.getChildren().isEmpty());
+    }
+
+    @Test
+    void getShopUnitByIdLoadsCachedTreeFromPrimaryWhenReadsGoToReplicas() {
+        var id = "3fa85f64-5717-4562-b3fc-2c963f66a333";
+        var offer = new ShopUnit();
+        offer.setId(id);
+        offer.setType(ShopUnitType.OFFER);
+        offer.setChildren(null);
+        var replicas = mock(ShopUnitRepository.class);
+        when(shopUnitRepository.findShopUnitById(id)).thenReturn(Optional.of(offer));
+        var readProperties = new ReadProperties();
+        readProperties.getCache().setEnabled(true);
+        var cache = new ShopUnitCache(readProperties);
+        cache.setActive(true);
+
+        ShopUnitService service = new ShopUnitService(shopUnitRepository,
+                new ShopUnitReadRepository(shopUnitRepository, replicas),
+                new AggregateDeltaBuffer(shopUnitRepository, new AggregateWriteBehindProperties()),
+                new CatalogueEngine(shopUnitRepository, new CatalogueEngineProperties()), new ImportProperties(),
+                new SubtreeLoader(shopUnitRepository, new ReadProperties()), cache,
+                new AggregateReadModel(shopUnitRepository, new AggregateReadModelProperties()));
+        var first = service.getShopUnitById(id);
+        var second = service.getShopUnitById(id);
+
+        // Второе чтение берется из кеша, первое идет на primary, а не на реплику.
+        verify(shopUnitRepository, times(1)).findShopUnitById(id);
+        verifyNoInteractions(replicas);
+        assertAll(
+                () -> assertSame(offer, first),
+                () -> assertSame(offer, second),
+                () -> assertFalse(ShopUnitReadRepository.isPrimaryRequired())
+        );
+    }
+
     @Test
     void deleteShopUnitByIdThrowsValidationExceptionWhenIdNotInUUID() {
         var notUUID = "not in uuid";
@@ -561,4 +641,201 @@ class ShopUnitServiceUnitTest {
                 () -> assertEquals(expectedMessage, ex.getMessage())
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void importShopUnitBatchWritesSharedAncestorAggregatesOnce() {
+        var rootId = "3fa85f64-5717-4562-b3fc-2c963f66a000";
+        var parentId = "3fa85f64-5717-4562-b3fc-2c963f66a111";
+        var root = new ShopUnit();
+        root.setId(rootId);
+        root.setRootId(rootId);
+        root.setType(ShopUnitType.CATEGORY);
+        var parent = new ShopUnit();
+        parent.setId(parentId);
+        parent.setParentId(rootId);
+        parent.setRootId(rootId);
+        parent.setType(ShopUnitType.CATEGORY);
+        when(shopUnitRepository.findShopUnitById(rootId)).thenReturn(Optional.of(root));
+        when(shopUnitRepository.findShopUnitById(parentId)).thenReturn(Optional.of(parent));
+
+        var first = offerRequest("3fa85f64-5717-4562-b3fc-2c963f66a222", parentId, 100L,
+                "2022-05-28T21:12:01.000Z");
+        var second = offerRequest("3fa85f64-5717-4562-b3fc-2c963f66a333", parentId, 300L,
+                "2022-05-28T21:12:02.000Z");
+        var invalid = offerRequest("1111", parentId, 1L, "2022-05-28T21:12:03.000Z");
+
+        ShopUnitService service = new ShopUnitService(shopUnitRepository);
+        var errors = service.importShopUnitBatch(List.of(first, invalid, second));
+
+        assertAll(
+                () -> assertNull(errors.get(0)),
+                () -> assertEquals(ErrorType.VALIDATION, ((ApiException) errors.get(1)).getErrorType()),
+                () -> assertNull(errors.get(2))
+        );
+        verify(shopUnitRepository, times(2)).insert(any(ShopUnit.class));
+        verify(shopUnitRepository, never()).updateAggregates(any());
+        verify(shopUnitRepository).incrementAggregates(rootId, rootId, 400, 2, "2022-05-28T21:12:02.000Z");
+    }
+
+    @Test
+    void importShopUnitSkipsUnchangedItem() {
+        var id = "3fa85f64-5717-4562-b3fc-2c963f66a222";
+        var date = "2022-05-28T21:12:01.000Z";
+        var existingItem = new ShopUnit();
+        existingItem.setId(id);
+        existingItem.setName("name");
+        existingItem.setType(ShopUnitType.OFFER);
+        existingItem.setPrice(100L);
+        existingItem.setDate(date);
+        when(shopUnitRepository.existsById(id)).thenReturn(true);
+        when(shopUnitRepository.findShopUnitById(id)).thenReturn(Optional.of(existingItem));
+
+        ShopUnitService service = new ShopUnitService(shopUnitRepository);
+        service.importShopUnit(offerRequest(id, null, 100L, date));
+
+        verify(shopUnitRepository, never()).save(any(ShopUnit.class));
+    }
+
+    @Test
+    void importShopUnitSkipsReplayedRequest() {
+        var request = offerRequest("3fa85f64-5717-4562-b3fc-2c963f66a222", null, 100L,
+                "2022-05-28T21:12:01.000Z");
+        var importProperties = new ImportProperties();
+        importProperties.getDedup().setEnabled(true);
+
+        ShopUnitService service = new ShopUnitService(shopUnitRepository,
+                new AggregateDeltaBuffer(shopUnitRepository, new AggregateWriteBehindProperties()),
+                new CatalogueEngine(shopUnitRepository, new CatalogueEngineProperties()), importProperties,
+                new SubtreeLoader(shopUnitRepository, new ReadProperties()));
+        service.importShopUnit(request);
+        service.importShopUnit(offerRequest("3fa85f64-5717-4562-b3fc-2c963f66a222", null, 100L,
+                "2022-05-28T21:12:01.000Z"));
+
+        verify(shopUnitRepository, times(1)).insert(any(ShopUnit.class));
+    }
+
+    @Test
+    void importShopUnitAppliesReplayedRequestAfterDelete() {
+        var id = "3fa85f64-5717-4562-b3fc-2c963f66a222";
+        var repository = InMemoryShopUnitRepository.create(List.of());
+        var importProperties = new ImportProperties();
+        importProperties.getDedup().setEnabled(true);
+        ShopUnitService service = new ShopUnitService(repository,
+                new AggregateDeltaBuffer(repository, new AggregateWriteBehindProperties()),
+                new CatalogueEngine(repository, new CatalogueEngineProperties()), importProperties,
+                new SubtreeLoader(repository, new ReadProperties()));
+
+        service.importShopUnit(offerRequest(id, null, 100L, "2022-05-28T21:12:01.000Z"));
+        service.deleteShopUnitById(id);
+        service.importShopUnit(offerRequest(id, null, 100L, "2022-05-28T21:12:01.000Z"));
+
+        assertEquals(100L, repository.findWithoutChildrenById(id).orElseThrow().getPrice());
+    }
+
+    @Test
+    void importShopUnitAppliesReplayedRequestAfterOtherRequestChangedSameItem() {
+        var id = "3fa85f64-5717-4562-b3fc-2c963f66a222";
+        var repository = InMemoryShopUnitRepository.create(List.of());
+        var importProperties = new ImportProperties();
+        importProperties.getDedup().setEnabled(true);
+        ShopUnitService service = new ShopUnitService(repository,
+                new AggregateDeltaBuffer(repository, new AggregateWriteBehindProperties()),
+                new CatalogueEngine(repository, new CatalogueEngineProperties()), importProperties,
+                new SubtreeLoader(repository, new ReadProperties()));
+
+        service.importShopUnit(offerRequest(id, null, 100L, "2022-05-28T21:12:01.000Z"));
+        service.importShopUnit(offerRequest(id, null, 200L, "2022-05-28T21:12:02.000Z"));
+        service.importShopUnit(offerRequest(id, null, 100L, "2022-05-28T21:12:01.000Z"));
+
+        assertEquals(100L, repository.findWithoutChildrenById(id).orElseThrow().getPrice());
+    }
+
+    @Test
+    void importShopUnitMovesSubtreeWhenCategoryChangesTree() {
+        var firstRoot = "3fa85f64-5717-4562-b3fc-2c963f66a001";
+        var secondRoot = "3fa85f64-5717-4562-b3fc-2c963f66a002";
+        var category = "3fa85f64-5717-4562-b3fc-2c963f66a003";
+        var offer = "3fa85f64-5717-4562-b3fc-2c963f66a004";
+        var repository = InMemoryShopUnitRepository.create(List.of());
+        ShopUnitService service = new ShopUnitService(repository);
+        var request = categoryRequest(firstRoot, null, "2022-05-28T21:12:01.000Z");
+        request.getItems().add(categoryRequest(secondRoot, null, "").getItems().get(0));
+        request.getItems().add(categoryRequest(category, firstRoot, "").getItems().get(0));
+        request.getItems().add(offerRequest(offer, category, 100L, "").getItems().get(0));
+        service.importShopUnit(request);
+
+        assertEquals(firstRoot, repository.findWithoutChildrenById(offer).orElseThrow().getRootId());
+
+        service.importShopUnit(categoryRequest(category, secondRoot, "2022-05-28T21:12:02.000Z"));
+
+        assertAll(
+                () -> assertEquals(secondRoot, repository.findWithoutChildrenById(category).orElseThrow().getRootId()),
+                () -> assertEquals(secondRoot, repository.findWithoutChildrenById(offer).orElseThrow().getRootId()),
+                () -> assertEquals(firstRoot, repository.findWithoutChildrenById(firstRoot).orElseThrow().getRootId())
+        );
+    }
+
+    @Test
+    void importShopUnitMovesCategoryWithPendingWriteBehindAggregates(@TempDir Path tempDir) {
+        var firstRoot = "3fa85f64-5717-4562-b3fc-2c963f66a001";
+        var secondRoot = "3fa85f64-5717-4562-b3fc-2c963f66a002";
+        var category = "3fa85f64-5717-4562-b3fc-2c963f66a003";
+        var repository = InMemoryShopUnitRepository.create(List.of());
+        var writeBehindProperties = new AggregateWriteBehindProperties();
+        writeBehindProperties.setEnabled(true);
+        writeBehindProperties.setLogPath(tempDir.resolve("aggregates.log").toString());
+        var buffer = new AggregateDeltaBuffer(repository, writeBehindProperties);
+        buffer.recover();
+        ShopUnitService service = new ShopUnitService(repository, buffer,
+                new CatalogueEngine(repository, new CatalogueEngineProperties()), new ImportProperties(),
+                new SubtreeLoader(repository, new ReadProperties()));
+        var request = categoryRequest(firstRoot, null, "2022-05-28T21:12:01.000Z");
+        request.getItems().add(categoryRequest(secondRoot, null, "").getItems().get(0));
+        request.getItems().add(categoryRequest(category, firstRoot, "").getItems().get(0));
+        request.getItems().add(offerRequest("3fa85f64-5717-4562-b3fc-2c963f66a004", category, 100L, "")
+                .getItems().get(0));
+        service.importShopUnit(request);
+        buffer.flush();
+
+        // Изменения агрегатов категории и ее корня остаются в буфере, пока категория переносится.
+        service.importShopUnit(offerRequest("3fa85f64-5717-4562-b3fc-2c963f66a005", category, 300L,
+                "2022-05-28T21:12:02.000Z"));
+        service.importShopUnit(categoryRequest(category, secondRoot, "2022-05-28T21:12:03.000Z"));
+        buffer.flush();
+
+        var oldRoot = repository.findShopUnitById(firstRoot).orElseThrow();
+        var newRoot = repository.findShopUnitById(secondRoot).orElseThrow();
+        var moved = repository.findWithoutChildrenById(category).orElseThrow();
+        assertAll(
+                () -> assertEquals(0, oldRoot.getChildrenPriceSum()),
+                () -> assertEquals(0, oldRoot.getChildrenOffersCnt()),
+                () -> assertNull(oldRoot.getPrice()),
+                () -> assertTrue(oldRoot.getChildren().isEmpty()),
+                () -> assertEquals(400, newRoot.getChildrenPriceSum()),
+                () -> assertEquals(2, newRoot.getChildrenOffersCnt()),
+                () -> assertEquals(200L, newRoot.getPrice()),
+                () -> assertEquals(List.of(category), newRoot.getChildren().stream().map(ShopUnit::getId).toList()),
+                () -> assertEquals(400, moved.getChildrenPriceSum()),
+                () -> assertEquals(200L, moved.getPrice())
+        );
+    }
+
+    private static ShopUnitImportRequest categoryRequest(String id, String parentId, String date) {
+        var request = offerRequest(id, parentId, null, date);
+        request.getItems().get(0).setType(ShopUnitType.CATEGORY);
+        return request;
+    }
+
+    private static ShopUnitImportRequest offerRequest(String id, String parentId, Long price, String date) {
+        var item = new ShopUnitImport();
+        item.setId(id);
+        item.setName("name");
+        item.setType(ShopUnitType.OFFER);
+        item.setPrice(price);
+        item.setParentId(parentId);
+        var request = new ShopUnitImportRequest();
+        request.setItems(new ArrayList<>(List.of(item)));
+        request.setUpdateDate(date);
+        return request;
+    }
+}
@@ -0,0 +1,133 @@
+package com.karim.shopapi.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.karim.shopapi.config.ImportProperties;
+import com.karim.shopapi.exceptions.ApiException;
+import com.karim.shopapi.models.ErrorType;
+import com.karim.shopapi.models.ImportChunkResult;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Юнит-тесты потокового импорта, проверяющие разбиение потока на порции и остановку на первой ошибке.
+ */
+@ExtendWith(MockitoExtension.class)
+class ShopUnitStreamImportServiceUnitTest {
+    private static final String UPDATE_DATE = "2022-05-28T21:12:01.000Z";
+
+    @Mock
+    ShopUnitService shopUnitService;
+
+    private ShopUnitStreamImportService service;
+
+    @BeforeEach
+    void setUp() {
+        var properties = new ImportProperties();
+        properties.setStreamChunkSize(2);
+        service = new ShopUnitStreamImportService(shopUnitService,
+                Validation.buildDefaultValidatorFactory().getValidator(), properties, new ObjectMapper());
+    }
+
+    @Test
+    void importStreamSplitsNdjsonIntoChunks() {
+        var body = """
+                {"id": "3fa85f64-5717-4562-b3fc-2c963f66a111", "name": "Категория", "type": "CATEGORY"}
+                {"id": "3fa85f64-5717-4562-b3fc-2c963f66a222", "name": "Оффер", "type": "OFFER", "price": 100, "parentId": "3fa85f64-5717-4562-b3fc-2c963f66a111"}
+                {"id": "3fa85f64-5717-4562-b3fc-2c963f66a333", "name": "Оффер", "type": "OFFER", "price": 200, "parentId": "3fa85f64-5717-4562-b3fc-2c963f66a111"}
+                """;
+
+        var results = service.importStream(stream(body), UPDATE_DATE);
+
+        var captor = ArgumentCaptor.forClass(ShopUnitImportRequest.class);
+        verify(shopUnitService, times(2)).importShopUnit(captor.capture());
+        assertAll(
+                () -> assertEquals(List.of(new ImportChunkResult(0, 2, 200, null),
+                        new ImportChunkResult(1, 1, 200, null)), results),
+                () -> assertEquals(2, captor.getAllValues().get(0).getItems().size()),
+                () -> assertEquals(UPDATE_DATE, captor.getAllValues().get(1).getUpdateDate())
+        );
+    }
+
+    @Test
+    void importStreamAcceptsJsonArray() {
+        var body = """
+                [{"id": "3fa85f64-5717-4562-b3fc-2c963f66a111", "name": "Категория", "type": "CATEGORY"}]
+                """;
+
+        var results = service.importStream(stream(body), UPDATE_DATE);
+
+        assertEquals(List.of(new ImportChunkResult(0, 1, 200, null)), results);
+    }
+
+    @Test
+    void importStreamStopsOnFirstFailedChunk() {
+        var body = """
+                {"id": "3fa85f64-5717-4562-b3fc-2c963f66a111", "name": "Категория", "type": "CATEGORY"}
+                {"id": "3fa85f64-5717-4562-b3fc-2c963f66a222", "name": "Оффер", "type": "OFFER", "price": 100}
+                {"id": "3fa85f64-5717-4562-b3fc-2c963f66a333", "type": "OFFER", "price": 200}
+                {"id": "3fa85f64-5717-4562-b3fc-2c963f66a444", "name": "Оффер", "type": "OFFER", "price": 300}
+                """;
+
+        var results = service.importStream(stream(body), UPDATE_DATE);
+
+        verify(shopUnitService, times(1)).importShopUnit(any());
+        assertEquals(List.of(new ImportChunkResult(0, 2, 200, null),
+                new ImportChunkResult(1, 2, 400, "item is not valid, id = 3fa85f64-5717-4562-b3fc-2c963f66a333")),
+                results);
+    }
+
+    @Test
+    void importStreamReportsServiceValidationError() {
+        var body = """
+                {"id": "1111", "name": "Оффер", "type": "OFFER", "price": 100}
+                """;
+        doThrow(new ApiException("id of item is not in UUID format, id = 1111", ErrorType.VALIDATION))
+                .when(shopUnitService).importShopUnit(any());
+
+        var results = service.importStream(stream(body), UPDATE_DATE);
+
+        assertEquals(List.of(new ImportChunkResult(0, 1, 400, "id of item is not in UUID format, id = 1111")),
+                results);
+    }
+
+    @Test
+    void importStreamReportsMalformedItem() {
+        var body = """
+                {"id": "3fa85f64-5717-4562-b3fc-2c963f66a111", "name": "Категория", "type": "CATEGORY"}
+                {"id": 
+                """;
+
+        var results = service.importStream(stream(body), UPDATE_DATE);
+
+        verifyNoInteractions(shopUnitService);
+        assertAll(
+                () -> assertEquals(1, results.size()),
+                () -> assertEquals(400, results.get(0).getCode())
+        );
+    }
+
+    @Test
+    void importStreamThrowsNotValidExceptionWhenGetsUpdateDateNotISO() {
+        ApiException ex = assertThrows(ApiException.class,
+                () -> service.importStream(stream(""), "10:36:08 18.06.2022"));
+        assertEquals(ErrorType.VALIDATION, ex.getErrorType());
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
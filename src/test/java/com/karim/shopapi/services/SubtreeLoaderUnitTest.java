@@ -0,0 +1,91 @@
+package com.karim.shopapi.services;
+
+import com.karim.shopapi.config.ReadProperties;
+import com.karim.shopapi.models.ShopUnit;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.repositories.ShopUnitRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+/**
+ * Юнит-тесты загрузки поддерева по уровням.
+ */
+@ExtendWith(MockitoExtension.class)
+class SubtreeLoaderUnitTest {
+    @Mock
+    ShopUnitRepository shopUnitRepository;
+
+    private SubtreeLoader loader;
+
+    private final Map<String, List<ShopUnit>> children = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        var properties = new ReadProperties();
+        properties.getSubtree().setEnabled(true);
+        properties.getSubtree().setPartitionSize(2);
+        loader = new SubtreeLoader(shopUnitRepository, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        loader.stop();
+    }
+
+    @Test
+    void loadIssuesQueriesPerLevelAndPartition() {
+        var root = shopUnit("root", null, ShopUnitType.CATEGORY);
+        for (int i = 0; i < 5; ++i) {
+            shopUnit("category" + i, "root", ShopUnitType.CATEGORY);
+            shopUnit("offer" + i, "category" + i, ShopUnitType.OFFER);
+        }
+        when(shopUnitRepository.findWithoutChildrenById("root")).thenReturn(Optional.of(root));
+        when(shopUnitRepository.findAllByParentIdIn(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> parentIds = invocation.getArgument(0);
+            List<ShopUnit> result = new ArrayList<>();
+            parentIds.forEach(parentId -> result.addAll(children.getOrDefault(parentId, List.of())));
+            return result;
+        });
+
+        var result = loader.load("root").orElseThrow();
+
+        // Один запрос для первого уровня и три части по две категории для второго.
+        verify(shopUnitRepository, times(4)).findAllByParentIdIn(anyCollection());
+        assertEquals(5, result.getChildren().size());
+        for (var category : result.getChildren()) {
+            assertAll(
+                    () -> assertEquals(1, category.getChildren().size()),
+                    () -> assertNull(category.getChildren().get(0).getChildren())
+            );
+        }
+    }
+
+    @Test
+    void loadReturnsEmptyWhenShopUnitDoesNotExist() {
+        when(shopUnitRepository.findWithoutChildrenById("root")).thenReturn(Optional.empty());
+
+        assertTrue(loader.load("root").isEmpty());
+        verify(shopUnitRepository, never()).findAllByParentIdIn(anyCollection());
+    }
+
+    private ShopUnit shopUnit(String id, String parentId, ShopUnitType type) {
+        var shopUnit = new ShopUnit();
+        shopUnit.setId(id);
+        shopUnit.setParentId(parentId);
+        shopUnit.setType(type);
+        if (parentId != null) {
+            children.computeIfAbsent(parentId, key -> new ArrayList<>()).add(shopUnit);
+        }
+        return shopUnit;
+    }
+}
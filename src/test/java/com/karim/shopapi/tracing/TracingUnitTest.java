@@ -0,0 +1,79 @@
+package com.karim.shopapi.tracing;
+
+import com.karim.shopapi.fixtures.CatalogueFixtures;
+import com.karim.shopapi.fixtures.InMemoryShopUnitRepository;
+import com.karim.shopapi.metrics.StageRecorder;
+import com.karim.shopapi.models.ShopUnitImport;
+import com.karim.shopapi.models.ShopUnitImportRequest;
+import com.karim.shopapi.models.ShopUnitType;
+import com.karim.shopapi.services.ShopUnitService;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Юнит-тесты спанов этапов обработки запросов.
+ */
+class TracingUnitTest {
+    private final InMemorySpanExporter exporter = new InMemorySpanExporter(1000);
+
+    private SdkTracerProvider tracerProvider;
+
+    @BeforeEach
+    void installTracing() {
+        tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(SimpleSpanProcessor.create(exporter))
+                .build();
+        Tracing.install(OpenTelemetrySdk.builder().setTracerProvider(tracerProvider).build());
+    }
+
+    @AfterEach
+    void uninstallTracing() {
+        Tracing.install(OpenTelemetry.noop());
+        tracerProvider.close();
+    }
+
+    @Test
+    void importCreatesNestedStageSpansWithAttributes() {
+        var fixtures = new CatalogueFixtures(4, 2, 1);
+        var service = new ShopUnitService(InMemoryShopUnitRepository.create(fixtures.shopUnits()));
+        var item = new ShopUnitImport();
+        item.setId(UUID.randomUUID().toString());
+        item.setName("offer");
+        item.setParentId(fixtures.deepestCategory().getId());
+        item.setType(ShopUnitType.OFFER);
+        item.setPrice(100L);
+        var request = new ShopUnitImportRequest();
+        request.setItems(List.of(item));
+        request.setUpdateDate(CatalogueFixtures.UPDATE_DATE);
+
+        service.importShopUnit(request);
+
+        var validate = span("validate");
+        var apply = span("apply");
+        var propagate = span("propagate");
+        assertEquals(1L, validate.getAttributes().get(AttributeKey.longKey(StageRecorder.ITEMS)));
+        assertEquals(1L, apply.getAttributes().get(AttributeKey.longKey(StageRecorder.ITEMS)));
+        assertEquals(4L, propagate.getAttributes().get(AttributeKey.longKey(StageRecorder.DEPTH)));
+        assertEquals(apply.getSpanId(), propagate.getParentSpanId());
+        assertEquals(validate.getSpanId(), span("topsort").getParentSpanId());
+    }
+
+    private SpanData span(String name) {
+        return exporter.getFinishedSpans().stream()
+                .filter(span -> span.getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No span " + name));
+    }
+}